@@ -0,0 +1,78 @@
+package com.lucienbao.benchmarks;
+
+import com.lucienbao.board.Board;
+import com.lucienbao.board.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <code>Board</code> calls the screens make for every cell: each
+ * benchmark visits all 91 cells once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+    private Board board;
+
+    @Setup
+    public void setUp() {
+        board = new Board();
+    }
+
+    @Benchmark
+    public int getHex() {
+        int total = 0;
+        for(int file = 0; file < 11; file++)
+            for(int rank = 0; rank < Board.getNumRanks(file); rank++)
+                total += board.getHex(file, rank).getId();
+        return total;
+    }
+
+    @Benchmark
+    public void setHex() {
+        // Each cell is set and then restored, so the board never changes
+        for(int file = 0; file < 11; file++) {
+            for(int rank = 0; rank < Board.getNumRanks(file); rank++) {
+                Hex hex = board.getHex(file, rank);
+                int color = hex.getColor();
+                int id = hex.getId();
+                board.setHex(file, rank, Hex.WHITE, Hex.QUEEN);
+                board.setHex(file, rank, color, id);
+            }
+        }
+    }
+
+    @Benchmark
+    public int hexExists() {
+        // Includes the out-of-bounds ring around the board
+        int total = 0;
+        for(int file = -1; file <= 11; file++)
+            for(int rank = -1; rank <= 11; rank++)
+                if(Board.hexExists(file, rank))
+                    total++;
+        return total;
+    }
+
+    @Benchmark
+    public float getXY() {
+        float total = 0;
+        for(int file = 0; file < 11; file++)
+            for(int rank = 0; rank < Board.getNumRanks(file); rank++)
+                total += Board.getX(file, rank) + Board.getY(file, rank);
+        return total;
+    }
+}
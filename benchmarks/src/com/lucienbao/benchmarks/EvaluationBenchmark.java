@@ -0,0 +1,131 @@
+package com.lucienbao.benchmarks;
+
+import com.lucienbao.board.Position;
+import com.lucienbao.engine.Evaluation;
+import com.lucienbao.engine.NnueEvaluator;
+import com.lucienbao.engine.NnueNetwork;
+import com.lucienbao.engine.PawnTable;
+import com.lucienbao.utils.MoveRules;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluation of the reference positions: from the sums kept by the
+ * position, and recomputed by scanning every cell. Then, as in a search,
+ * every legal move played, evaluated and taken back, with the
+ * hand-written evaluation (with and without a pawn table) and with a
+ * network of random weights (only its size matters for speed).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+    @Param({"256"})
+    public int hiddenSize;
+
+    private Position[] positions;
+    private NnueEvaluator[] evaluators;
+    private final PawnTable pawnTable = new PawnTable(512);
+    private final int[] moves = new int[MoveRules.MAX_MOVES];
+
+    @Setup
+    public void setUp() {
+        positions = ReferencePositions.create();
+        NnueNetwork network = randomNetwork(hiddenSize);
+        evaluators = new NnueEvaluator[positions.length];
+        for(int i = 0; i < positions.length; i++) {
+            evaluators[i] = new NnueEvaluator(network);
+            evaluators[i].attach(positions[i]);
+        }
+    }
+
+    private static NnueNetwork randomNetwork(int hiddenSize) {
+        Random random = new Random(20231017);
+        byte[] kingBuckets = new byte[Position.NUM_CELLS];
+        for(int cell = 0; cell < Position.NUM_CELLS; cell++)
+            kingBuckets[cell] = (byte) (Position.rankOf(cell) / 3);
+        short[] featureWeights = new short[4 * NnueNetwork.FEATURES_PER_BUCKET * hiddenSize];
+        for(int i = 0; i < featureWeights.length; i++)
+            featureWeights[i] = (short) (random.nextInt(64) - 32);
+        short[] featureBiases = new short[hiddenSize];
+        short[] outputWeights = new short[2 * hiddenSize];
+        for(int i = 0; i < outputWeights.length; i++)
+            outputWeights[i] = (short) (random.nextInt(128) - 64);
+        return new NnueNetwork(hiddenSize, kingBuckets, featureWeights,
+                featureBiases, outputWeights, 0, 255, 64, 400);
+    }
+
+    @Benchmark
+    public int incremental() {
+        int sum = 0;
+        for(Position position : positions)
+            sum += Evaluation.evaluate(position, pawnTable);
+        return sum;
+    }
+
+    @Benchmark
+    public int fromScratch() {
+        int sum = 0;
+        for(Position position : positions)
+            sum += Evaluation.evaluateFromScratch(position);
+        return sum;
+    }
+
+    @Benchmark
+    public int movesClassical() {
+        int sum = 0;
+        for(Position position : positions) {
+            int count = MoveRules.generateLegalMoves(position, moves, 0);
+            for(int i = 0; i < count; i++) {
+                position.makeMove(moves[i]);
+                sum += Evaluation.evaluate(position, pawnTable);
+                position.unmakeMove();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int movesNoPawnTable() {
+        int sum = 0;
+        for(Position position : positions) {
+            int count = MoveRules.generateLegalMoves(position, moves, 0);
+            for(int i = 0; i < count; i++) {
+                position.makeMove(moves[i]);
+                sum += Evaluation.evaluate(position, null);
+                position.unmakeMove();
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int movesNetwork() {
+        int sum = 0;
+        for(int p = 0; p < positions.length; p++) {
+            Position position = positions[p];
+            int count = MoveRules.generateLegalMoves(position, moves, 0);
+            for(int i = 0; i < count; i++) {
+                position.makeMove(moves[i]);
+                sum += evaluators[p].evaluate();
+                position.unmakeMove();
+            }
+        }
+        return sum;
+    }
+}
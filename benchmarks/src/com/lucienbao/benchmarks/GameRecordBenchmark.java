@@ -0,0 +1,87 @@
+package com.lucienbao.benchmarks;
+
+import com.lucienbao.board.GameRecord;
+import com.lucienbao.board.GameRecordReader;
+import com.lucienbao.board.GameRecordWriter;
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading game records from memory: replaying every move, and skipping
+ * over them. Each benchmark reads the same 1000 random games.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameRecordBenchmark {
+    private static final int GAMES = 1000;
+    private static final int MAX_PLIES = 200;
+
+    private byte[] records;
+    private final Position position = new Position();
+
+    @Setup
+    public void setUp() throws IOException {
+        // Random legal games, the same every run
+        Random random = new Random(1);
+        int[] moves = new int[MoveRules.MAX_MOVES];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GameRecordWriter writer = new GameRecordWriter(Channels.newChannel(bytes), true);
+        for(int game = 0; game < GAMES; game++) {
+            Position pos = new Position();
+            for(int ply = 0; ply < MAX_PLIES; ply++) {
+                int count = MoveRules.generateLegalMoves(pos, moves, 0);
+                if(count == 0)
+                    break;
+                pos.makeMove(moves[random.nextInt(count)]);
+            }
+            writer.write(pos, GameRecord.UNKNOWN);
+        }
+        writer.close();
+        records = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public long replay() throws IOException {
+        GameRecordReader reader = new GameRecordReader(
+                Channels.newChannel(new ByteArrayInputStream(records)));
+        long total = 0;
+        while(reader.next()) {
+            reader.replay(position);
+            total += position.getKey();
+            while(position.getPly() > 0)
+                position.unmakeMove();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long skip() throws IOException {
+        GameRecordReader reader = new GameRecordReader(
+                Channels.newChannel(new ByteArrayInputStream(records)));
+        long total = 0;
+        while(reader.next())
+            total += reader.getPlies();
+        return total;
+    }
+}
@@ -0,0 +1,91 @@
+package com.lucienbao.benchmarks;
+
+import com.lucienbao.board.Hex;
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Move generation over the reference positions: per piece type, all
+ * pseudo-legal moves, and full legal moves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGenBenchmark {
+    @Param({"PAWN", "KNIGHT", "BISHOP", "ROOK", "QUEEN", "KING"})
+    public String piece;
+
+    private Position[] positions;
+    // Cells holding the benchmarked piece type, per position
+    private int[][] cells;
+    private final int[] moves = new int[MoveRules.MAX_MOVES];
+
+    @Setup
+    public void setUp() {
+        String[] names = {"KING", "QUEEN", "ROOK", "BISHOP", "KNIGHT", "PAWN"};
+        int id = 0;
+        while(!names[id].equals(piece))
+            id++;
+
+        positions = ReferencePositions.create();
+        cells = new int[positions.length][];
+        for(int i = 0; i < positions.length; i++) {
+            int[] found = new int[Position.NUM_CELLS];
+            int count = 0;
+            for(int cell = 0; cell < Position.NUM_CELLS; cell++)
+                if(positions[i].getId(cell) == id)
+                    found[count++] = cell;
+            cells[i] = new int[count];
+            System.arraycopy(found, 0, cells[i], 0, count);
+        }
+    }
+
+    @Benchmark
+    public int pieceMoves() {
+        int total = 0;
+        for(int i = 0; i < positions.length; i++)
+            for(int cell : cells[i])
+                total += MoveRules.generateMoves(positions[i], cell, moves, 0);
+        return total;
+    }
+
+    @Benchmark
+    public int allMoves() {
+        int total = 0;
+        for(Position position : positions)
+            total += MoveRules.generateAllMoves(position, position.getSideToMove(), moves, 0);
+        return total;
+    }
+
+    @Benchmark
+    public int legalMoves() {
+        int total = 0;
+        for(Position position : positions)
+            total += MoveRules.generateLegalMoves(position, moves, 0);
+        return total;
+    }
+
+    @Benchmark
+    public boolean inCheck() {
+        boolean any = false;
+        for(Position position : positions)
+            any |= MoveRules.isInCheck(position, Hex.WHITE);
+        return any;
+    }
+}
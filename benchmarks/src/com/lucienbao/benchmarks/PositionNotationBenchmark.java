@@ -0,0 +1,86 @@
+package com.lucienbao.benchmarks;
+
+import com.lucienbao.board.Position;
+import com.lucienbao.board.PositionNotation;
+import com.lucienbao.utils.MoveRules;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Position notation: parsing 1000 positions from a buffer, one per line,
+ * and writing them back out. The positions come from random games.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionNotationBenchmark {
+    private static final int POSITIONS = 1000;
+
+    private final Position[] positions = new Position[POSITIONS];
+    private ByteBuffer lines;
+    private final PositionNotation notation = new PositionNotation();
+    private final Position position = new Position();
+    private final StringBuilder out = new StringBuilder(128);
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        int[] moves = new int[MoveRules.MAX_MOVES];
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < POSITIONS; i++) {
+            Position pos = new Position();
+            int plies = random.nextInt(100);
+            for(int ply = 0; ply < plies; ply++) {
+                int count = MoveRules.generateLegalMoves(pos, moves, 0);
+                if(count == 0)
+                    break;
+                pos.makeMove(moves[random.nextInt(count)]);
+            }
+            positions[i] = pos;
+            PositionNotation.append(pos, text);
+            text.append('\n');
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+        lines = ByteBuffer.allocateDirect(bytes.length);
+        lines.put(bytes).flip();
+    }
+
+    @Benchmark
+    public long parse() {
+        lines.rewind();
+        long total = 0;
+        while(lines.hasRemaining()) {
+            notation.parse(lines, position);
+            lines.get(); // newline
+            total += position.getKey();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int write() {
+        int total = 0;
+        for(Position pos : positions) {
+            out.setLength(0);
+            PositionNotation.append(pos, out);
+            total += out.length();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,33 @@
+package com.lucienbao.benchmarks;
+
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+import java.util.Random;
+
+/**
+ * The positions every benchmark runs on: the starting position plus
+ * opening, middlegame and endgame-ish positions reached by random legal
+ * moves from fixed seeds, so every run sees the same positions.
+ */
+public class ReferencePositions {
+    private static final int[] PLIES = {0, 8, 20, 40, 80};
+    private static final long SEED = 20231017L;
+
+    public static Position[] create() {
+        Position[] positions = new Position[PLIES.length];
+        int[] moves = new int[MoveRules.MAX_MOVES];
+        Random random = new Random(SEED);
+        for(int i = 0; i < PLIES.length; i++) {
+            Position position = new Position();
+            for(int ply = 0; ply < PLIES[i]; ply++) {
+                int count = MoveRules.generateLegalMoves(position, moves, 0);
+                if(count == 0)
+                    break;
+                position.makeMove(moves[random.nextInt(count)]);
+            }
+            positions[i] = position;
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,70 @@
+package com.lucienbao.benchmarks;
+
+import com.lucienbao.board.Position;
+import com.lucienbao.engine.Search;
+import com.lucienbao.engine.SearchLimits;
+import com.lucienbao.engine.TranspositionTable;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded search to a fixed depth on every reference position,
+ * with and without move ordering. Besides the time, the nodes searched
+ * are reported as the <code>nodes</code> counter: the fewer, the better
+ * the ordering.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"true", "false"})
+    public boolean ordering;
+
+    @Param({"5"})
+    public int depth;
+
+    private Position[] positions;
+    private TranspositionTable table;
+    private Search search;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long nodes;
+    }
+
+    @Setup
+    public void setUp() {
+        positions = ReferencePositions.create();
+        table = new TranspositionTable(64);
+        search = new Search(table);
+        search.setMoveOrdering(ordering);
+    }
+
+    @Setup(Level.Iteration)
+    public void clearTable() {
+        table.clear();
+    }
+
+    @Benchmark
+    public void fixedDepth(Counters counters) {
+        for(Position position : positions)
+            counters.nodes += search.search(position, SearchLimits.depth(depth)).getNodes();
+    }
+}
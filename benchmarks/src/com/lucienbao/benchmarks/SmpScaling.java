@@ -0,0 +1,45 @@
+package com.lucienbao.benchmarks;
+
+import com.lucienbao.board.Position;
+import com.lucienbao.engine.SearchLimits;
+import com.lucienbao.engine.SearchResult;
+import com.lucienbao.engine.SmpSearch;
+import com.lucienbao.engine.TranspositionTable;
+
+/**
+ * Prints how the parallel search scales: for 1, 2, 4, ... threads up to
+ * the number of cores, the time to reach a fixed depth on the reference
+ * positions, the total nodes/second, and the speed-up over 1 thread.
+ * <p>
+ * Usage: <code>SmpScaling [depth] [hashMB]</code>
+ */
+public class SmpScaling {
+    public static void main(String[] args) {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        int cores = Runtime.getRuntime().availableProcessors();
+        Position[] positions = ReferencePositions.create();
+        TranspositionTable table = new TranspositionTable(megabytes);
+
+        System.out.printf("%8s %10s %14s %12s %9s%n",
+                "threads", "time (ms)", "nodes", "nodes/s", "speed-up");
+        double baseline = 0;
+        for(int threads = 1; threads <= cores; threads *= 2) {
+            SmpSearch search = new SmpSearch(table, threads);
+            long nodes = 0;
+            long start = System.nanoTime();
+            for(Position position : positions) {
+                table.clear();
+                SearchResult result = search.search(position, SearchLimits.depth(depth));
+                nodes += result.getNodes();
+            }
+            double millis = (System.nanoTime() - start) / 1e6;
+            search.shutdown();
+
+            if(threads == 1)
+                baseline = millis;
+            System.out.printf("%8d %10.0f %14d %12.0f %8.2fx%n",
+                    threads, millis, nodes, nodes / (millis / 1000), baseline / millis);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.lucienbao.benchmarks;
+
+import com.lucienbao.board.Position;
+import com.lucienbao.engine.SearchLimits;
+import com.lucienbao.engine.SmpSearch;
+import com.lucienbao.engine.TranspositionTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for the parallel search to reach a fixed depth on every reference
+ * position, per thread count. The transposition table is cleared before
+ * each run, so runs don't help each other.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SmpSearchBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"7"})
+    public int depth;
+
+    private Position[] positions;
+    private TranspositionTable table;
+    private SmpSearch search;
+
+    @Setup
+    public void setUp() {
+        positions = ReferencePositions.create();
+        table = new TranspositionTable(64);
+        search = new SmpSearch(table, threads);
+    }
+
+    @Setup(Level.Iteration)
+    public void clearTable() {
+        table.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        search.shutdown();
+    }
+
+    @Benchmark
+    public long timeToDepth() {
+        long nodes = 0;
+        for(Position position : positions)
+            nodes += search.search(position, SearchLimits.depth(depth)).getNodes();
+        return nodes;
+    }
+}
@@ -6,6 +6,7 @@ import com.lucienbao.hexchess.PlayScreen;
 import static java.lang.Math.sqrt;
 
 public class Board {
+    private final Position position;
     private final Hex[][] grid;
     private final Polygon[][] collisionGrid;
 
@@ -19,58 +20,15 @@ public class Board {
         Real ranks: bottom to top
         Array ranks: left to right
         */
+        position = new Position();
         grid = new Hex[11][11];
         collisionGrid = new Polygon[11][11];
         setCollisionGrid();
 
-        // Initialize the board to empty
+        // Each Hex is a view of one cell of the position
         for(int file = 0; file < 11; file++)
             for(int rank = 0; rank < getNumRanks(file); rank++)
-                grid[file][rank] = new Hex(file, rank, Hex.EMPTY, Hex.EMPTY);
-
-        // White pieces
-        setHex(1, 0, Hex.WHITE, Hex.PAWN);
-        setHex(2, 0, Hex.WHITE, Hex.ROOK);
-        setHex(3, 0, Hex.WHITE, Hex.KNIGHT);
-        setHex(4, 0, Hex.WHITE, Hex.QUEEN);
-        setHex(5, 0, Hex.WHITE, Hex.BISHOP);
-        setHex(6, 0, Hex.WHITE, Hex.KING);
-        setHex(7, 0, Hex.WHITE, Hex.KNIGHT);
-        setHex(8, 0, Hex.WHITE, Hex.ROOK);
-        setHex(9, 0, Hex.WHITE, Hex.PAWN);
-
-        setHex(5, 1, Hex.WHITE, Hex.BISHOP);
-        setHex(5, 2, Hex.WHITE, Hex.BISHOP);
-
-        setHex(2, 1, Hex.WHITE, Hex.PAWN);
-        setHex(3, 2, Hex.WHITE, Hex.PAWN);
-        setHex(4, 3, Hex.WHITE, Hex.PAWN);
-        setHex(5, 4, Hex.WHITE, Hex.PAWN);
-        setHex(6, 3, Hex.WHITE, Hex.PAWN);
-        setHex(7, 2, Hex.WHITE, Hex.PAWN);
-        setHex(8, 1, Hex.WHITE, Hex.PAWN);
-
-        // Black pieces
-        setHex(1, 6, Hex.BLACK, Hex.PAWN);
-        setHex(2, 7, Hex.BLACK, Hex.ROOK);
-        setHex(3, 8, Hex.BLACK, Hex.KNIGHT);
-        setHex(4, 9, Hex.BLACK, Hex.QUEEN);
-        setHex(5, 10, Hex.BLACK, Hex.BISHOP);
-        setHex(6, 9, Hex.BLACK, Hex.KING);
-        setHex(7, 8, Hex.BLACK, Hex.KNIGHT);
-        setHex(8, 7, Hex.BLACK, Hex.ROOK);
-        setHex(9, 6, Hex.BLACK, Hex.PAWN);
-
-        setHex(5, 9, Hex.BLACK, Hex.BISHOP);
-        setHex(5, 8, Hex.BLACK, Hex.BISHOP);
-
-        setHex(2, 6, Hex.BLACK, Hex.PAWN);
-        setHex(3, 6, Hex.BLACK, Hex.PAWN);
-        setHex(4, 6, Hex.BLACK, Hex.PAWN);
-        setHex(5, 6, Hex.BLACK, Hex.PAWN);
-        setHex(6, 6, Hex.BLACK, Hex.PAWN);
-        setHex(7, 6, Hex.BLACK, Hex.PAWN);
-        setHex(8, 6, Hex.BLACK, Hex.PAWN);
+                grid[file][rank] = new Hex(position, file, rank);
     }
 
     /**
@@ -116,9 +74,7 @@ public class Board {
      * @return The number of ranks it has.
      */
     public static int getNumRanks(int file) {
-        if(file < 6)
-            return file + 6;
-        return 16 - file;
+        return Position.numRanks(file);
     }
 
     /**
@@ -128,8 +84,33 @@ public class Board {
      * @return Whether such a hex exists on the grid.
      */
     public static boolean hexExists(int file, int rank) {
-        return 0 <= file && file < 11
-                && 0 <= rank && rank < getNumRanks(file);
+        return Position.exists(file, rank);
+    }
+
+    /**
+     * Get the position this board is a view of.
+     * @return The underlying position.
+     */
+    public Position getPosition() {
+        return position;
+    }
+
+    /**
+     * Play a move on this board.
+     * @param move Packed move from <code>MoveRules</code>.
+     * @see Position#makeMove(int)
+     */
+    public void makeMove(int move) {
+        position.makeMove(move);
+    }
+
+    /**
+     * Take back the last move played on this board.
+     * @return The move that was taken back.
+     * @see Position#unmakeMove()
+     */
+    public int unmakeMove() {
+        return position.unmakeMove();
     }
 
     /**
@@ -157,8 +138,7 @@ public class Board {
         if(rank < 0 || rank > getNumRanks(file))
             throw new IllegalArgumentException("Rank " + rank
                     + " does not exist at file " + file);
-        grid[file][rank].setColor(color);
-        grid[file][rank].setId(id);
+        position.setPiece(Position.cell(file, rank), color, id);
     }
 
     /**
@@ -0,0 +1,380 @@
+package com.lucienbao.board;
+
+import com.lucienbao.utils.MoveRules;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A database of games, indexed by every position they reach, for an
+ * opening explorer: which moves were played from a position, how they
+ * scored, and which games got there. Build one with
+ * <code>GameDatabaseBuilder</code>.
+ * <p>
+ * A database is a directory of four files:
+ * <pre>
+ * games.hxgr      the games, in the format of GameRecord, in the order
+ *                 they were added; a game's number is its place here
+ * games.offsets   int64 byte offset of each game in games.hxgr
+ * positions.idx   an entry per position of every game, sorted by
+ *                 Zobrist key (as a signed long), then game
+ * moves.idx       the entries added up per position and move, sorted
+ *                 the same way, so lookups needn't touch every game
+ * </pre>
+ * The index files are little-endian, each a 16-byte header then
+ * fixed-size records:
+ * <pre>
+ * positions.idx   bytes "HXDP", int32 version (1), int32 games indexed,
+ *                 int32 reserved
+ *                 per entry: int64 key, int64 game &lt;&lt; 32 | move &lt;&lt; 8 | result
+ * moves.idx       bytes "HXDM", int32 version (1), 8 bytes reserved
+ *                 per record: int64 key, int32 move, int32 games,
+ *                 int32 games with each result 0 to 5, as in GameRecord
+ * </pre>
+ * Moves are in the 16 bits of <code>GameRecord</code>. The entry for the
+ * last position of a game has move 0, which is never a real move.
+ * <p>
+ * The index files are memory-mapped, so a lookup is a binary search that
+ * only touches a few pages, however many games there are. Lookups only
+ * read the mappings, so one database can be shared by any number of
+ * threads.
+ */
+public class GameDatabase implements Closeable {
+    static final String GAMES_FILE = "games.hxgr";
+    static final String OFFSETS_FILE = "games.offsets";
+    static final String POSITIONS_FILE = "positions.idx";
+    static final String MOVES_FILE = "moves.idx";
+
+    static final int POSITIONS_MAGIC = 'H' | 'X' << 8 | 'D' << 16 | 'P' << 24;
+    static final int MOVES_MAGIC = 'H' | 'X' << 8 | 'D' << 16 | 'M' << 24;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int ENTRY_BYTES = 16;
+    static final int MOVE_RECORD_BYTES = 40;
+    static final int OFFSET_BYTES = 8;
+    static final int RESULTS = 6;
+
+    private final Records positions;
+    private final Records moves;
+    private final Records offsets;
+    private final RandomAccessFile games;
+    private final int gameCount;
+
+    private GameDatabase(Records positions, Records moves, Records offsets,
+                         RandomAccessFile games, int gameCount) {
+        this.positions = positions;
+        this.moves = moves;
+        this.offsets = offsets;
+        this.games = games;
+        this.gameCount = gameCount;
+    }
+
+    /**
+     * Open a database. Games added after its index was last built aren't
+     * in it.
+     * @param directory Directory of the database.
+     * @return The database.
+     * @throws IOException If its files can't be read or aren't a database.
+     */
+    public static GameDatabase open(File directory) throws IOException {
+        File positionsFile = new File(directory, POSITIONS_FILE);
+        int gameCount = readGameCount(positionsFile);
+        Records positions = Records.map(positionsFile, POSITIONS_MAGIC, HEADER_BYTES, ENTRY_BYTES);
+        Records moves = Records.map(new File(directory, MOVES_FILE),
+                MOVES_MAGIC, HEADER_BYTES, MOVE_RECORD_BYTES);
+        Records offsets = Records.map(new File(directory, OFFSETS_FILE), 0, 0, OFFSET_BYTES);
+        if(offsets.size < gameCount)
+            throw new IOException("Game database is missing games");
+        return new GameDatabase(positions, moves, offsets,
+                new RandomAccessFile(new File(directory, GAMES_FILE), "r"), gameCount);
+    }
+
+    /**
+     * @param positionsFile Position index of a database.
+     * @return Number of games it indexes, or 0 if there isn't one.
+     * @throws IOException If it can't be read or isn't a position index.
+     */
+    static int readGameCount(File positionsFile) throws IOException {
+        if(!positionsFile.exists())
+            return 0;
+        RandomAccessFile raf = new RandomAccessFile(positionsFile, "r");
+        try {
+            byte[] headerBytes = new byte[HEADER_BYTES];
+            raf.readFully(headerBytes);
+            ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+            if(header.getInt() != POSITIONS_MAGIC)
+                throw new IOException("Not a game database index");
+            if(header.getInt() != VERSION)
+                throw new IOException("Unsupported game database version");
+            return header.getInt();
+        } catch(EOFException e) {
+            throw new IOException("Not a game database index");
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return Number of games in the database.
+     */
+    public int getGameCount() {
+        return gameCount;
+    }
+
+    /**
+     * The moves played from a board's position.
+     * @see #explore(Position)
+     */
+    public List<MoveStats> explore(Board board) {
+        return explore(board.getPosition());
+    }
+
+    /**
+     * The moves played from a position, most played first. Moves that
+     * aren't legal in the position (when two positions share a key) are
+     * left out.
+     * @param pos A position.
+     * @return Each move, with how many games it was played in and their
+     * results.
+     */
+    public List<MoveStats> explore(Position pos) {
+        List<MoveStats> result = new ArrayList<>();
+        long key = pos.getKey();
+        long first = find(moves, key);
+        if(first < 0)
+            return result;
+
+        int[] scratch = new int[MoveRules.MAX_MOVES];
+        for(long i = first; i < moves.size && moves.getLong(i, 0) == key; i++) {
+            int move = GameRecord.decodeMove(pos, moves.getInt(i, 8));
+            if(!MoveRules.isLegal(pos, move, scratch))
+                continue;
+            int[] counts = new int[RESULTS];
+            for(int r = 0; r < RESULTS; r++)
+                counts[r] = moves.getInt(i, 16 + 4 * r);
+            result.add(new MoveStats(move, moves.getInt(i, 12), counts));
+        }
+        Collections.sort(result, new Comparator<MoveStats>() {
+            @Override
+            public int compare(MoveStats a, MoveStats b) {
+                return Integer.compare(b.games, a.games);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Find the games that reached a position, in the order they were
+     * added. A game that reached it more than once is listed once.
+     * @param pos A position.
+     * @param found Array to write the game numbers into.
+     * @return Number of games written, at most <code>found.length</code>.
+     */
+    public int findGames(Position pos, int[] found) {
+        long key = pos.getKey();
+        long first = find(positions, key);
+        if(first < 0)
+            return 0;
+        int count = 0;
+        for(long i = first; i < positions.size && count < found.length
+                && positions.getLong(i, 0) == key; i++) {
+            int game = (int) (positions.getLong(i, 8) >>> 32);
+            if(count == 0 || found[count - 1] != game)
+                found[count++] = game;
+        }
+        return count;
+    }
+
+    /**
+     * @param game Number of a game.
+     * @return Its result, e.g. <code>GameRecord.DRAW</code>.
+     * @throws IOException If reading fails.
+     */
+    public int getResult(int game) throws IOException {
+        return readGameHeader(game).get(2) & 0xFF;
+    }
+
+    /**
+     * Read a game's moves. They are decoded on a position of the
+     * caller's, which ends up where the game did.
+     * @param game Number of a game.
+     * @param pos Position to decode on, normally the starting position.
+     * @param moves Array to write the packed moves into, big enough for
+     *              the game.
+     * @return Number of moves.
+     * @throws IOException If reading fails.
+     */
+    public int readGame(int game, Position pos, int[] moves) throws IOException {
+        int plies = readGameHeader(game).getShort(0) & 0xFFFF;
+        ByteBuffer bits = ByteBuffer.allocate(plies * GameRecord.MOVE_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        readFully(bits, offsets.getLong(game, 0) + GameRecord.GAME_HEADER_BYTES);
+        for(int i = 0; i < plies; i++) {
+            moves[i] = GameRecord.decodeMove(pos, bits.getShort(i * GameRecord.MOVE_BYTES) & 0xFFFF);
+            pos.makeMove(moves[i]);
+        }
+        return plies;
+    }
+
+    private ByteBuffer readGameHeader(int game) throws IOException {
+        if(game < 0 || game >= gameCount)
+            throw new IllegalArgumentException("No game " + game);
+        ByteBuffer header = ByteBuffer.allocate(GameRecord.GAME_HEADER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, offsets.getLong(game, 0));
+        return header;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        FileChannel channel = games.getChannel();
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, offset + buffer.position()) < 0)
+                throw new EOFException("Game database ends mid-game");
+        }
+    }
+
+    /**
+     * @return Index of the first record with a key, or -1 if none has it.
+     */
+    private static long find(Records records, long key) {
+        long low = 0;
+        long high = records.size;
+        while(low < high) {
+            long middle = (low + high) >>> 1;
+            if(records.getLong(middle, 0) < key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low < records.size && records.getLong(low, 0) == key ? low : -1;
+    }
+
+    /**
+     * Close the game file. The index stays mapped until the database is
+     * garbage collected.
+     * @throws IOException If closing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        games.close();
+    }
+
+    /**
+     * How often a move was played from a position, and how those games
+     * ended.
+     */
+    public static class MoveStats {
+        private final int move;
+        private final int games;
+        private final int[] counts;
+
+        MoveStats(int move, int games, int[] counts) {
+            this.move = move;
+            this.games = games;
+            this.counts = counts;
+        }
+
+        /**
+         * @return Packed move from <code>MoveRules</code>.
+         */
+        public int getMove() {
+            return move;
+        }
+
+        public int getGames() {
+            return games;
+        }
+
+        /**
+         * @param result A result, e.g. <code>GameRecord.WHITE_WINS</code>.
+         * @return Number of the games that ended that way.
+         */
+        public int getCount(int result) {
+            return counts[result];
+        }
+
+        /**
+         * @return White's average score in the games with a known result,
+         * from 0 to 1, with stalemates worth 3/4 to the side giving them;
+         * or 1/2 if no result is known.
+         */
+        public double getWhiteScore() {
+            int known = games - counts[GameRecord.UNKNOWN];
+            if(known == 0)
+                return 0.5;
+            int quarters = 4 * counts[GameRecord.WHITE_WINS] + 2 * counts[GameRecord.DRAW]
+                    + 3 * counts[GameRecord.WHITE_STALEMATES] + counts[GameRecord.BLACK_STALEMATES];
+            return quarters / (4.0 * known);
+        }
+    }
+
+    /**
+     * Fixed-size records of a memory-mapped file. Mappings are capped at
+     * 2 GB, so big files are split into segments, which records never
+     * straddle.
+     */
+    private static class Records {
+        private static final long SEGMENT_BYTES = 1L << 30;
+
+        private final ByteBuffer[] segments;
+        private final int recordBytes;
+        private final long recordsPerSegment;
+        final long size;
+
+        private Records(ByteBuffer[] segments, int recordBytes, long size) {
+            this.segments = segments;
+            this.recordBytes = recordBytes;
+            this.recordsPerSegment = SEGMENT_BYTES / recordBytes;
+            this.size = size;
+        }
+
+        /**
+         * @param magic Magic number the header starts with, if there is a
+         *              header.
+         */
+        static Records map(File file, int magic, int headerBytes, int recordBytes)
+                throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long bytes = channel.size() - headerBytes;
+                if(bytes < 0 || bytes % recordBytes != 0)
+                    throw new IOException(file.getName() + " has the wrong size");
+                if(headerBytes > 0 && Integer.reverseBytes(raf.readInt()) != magic)
+                    throw new IOException(file.getName() + " isn't part of a game database");
+
+                long segmentBytes = SEGMENT_BYTES / recordBytes * recordBytes;
+                ByteBuffer[] segments = new ByteBuffer[(int) ((bytes + segmentBytes - 1) / segmentBytes)];
+                for(int i = 0; i < segments.length; i++) {
+                    long offset = i * segmentBytes;
+                    segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                            headerBytes + offset, Math.min(segmentBytes, bytes - offset))
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                }
+                return new Records(segments, recordBytes, bytes / recordBytes);
+            } finally {
+                raf.close();
+            }
+        }
+
+        long getLong(long index, int field) {
+            return segments[(int) (index / recordsPerSegment)]
+                    .getLong((int) (index % recordsPerSegment) * recordBytes + field);
+        }
+
+        int getInt(long index, int field) {
+            return segments[(int) (index / recordsPerSegment)]
+                    .getInt((int) (index % recordsPerSegment) * recordBytes + field);
+        }
+    }
+}
@@ -0,0 +1,713 @@
+package com.lucienbao.board;
+
+import com.lucienbao.utils.LongPairSort;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adds games to a <code>GameDatabase</code>, creating it if need be, and
+ * builds its index, using a fixed amount of memory.
+ * <p>
+ * Games are appended to the database's game file as they are added, on
+ * the caller's thread. Indexing them is spread over worker threads: each
+ * takes a batch of games, replays them, and puts an entry for every
+ * position into a buffer of its own. When a buffer fills up it is sorted
+ * and written to a temporary file (a run). <code>finish()</code> merges
+ * the runs and the existing position index into a new index, as
+ * <code>OpeningBookBuilder</code> does, so the games already in the
+ * database are never replayed. Only one entry per run is in memory
+ * during the merge.
+ * <p>
+ * The game file is the one copy of the games; everything else can be
+ * rebuilt from it. Games stored by a builder that never finished are
+ * indexed by the next builder opened on the database, and deleting the
+ * index files makes that builder index the whole game file again.
+ */
+public class GameDatabaseBuilder {
+    private static final int IO_BUFFER_BYTES = 1 << 16;
+    private static final int BATCH_GAMES = 256;
+    private static final int BATCH_MOVES = BATCH_GAMES * 128;
+
+    private final File directory;
+    private final int maxPly;
+    private final int bufferEntries;
+
+    private final FileChannel games;
+    private final GameRecordWriter store;
+    private final Output offsets;
+    // Byte offset in the game file of the next game added
+    private long storeBytes;
+    private final int firstNewGame;
+    private int gameCount;
+
+    private final ExecutorService workers;
+    // Batches queued or being indexed, so reading can't run far ahead
+    private final Semaphore batchesInFlight;
+    private final BlockingQueue<RunBuffer> buffers;
+    private final List<File> runs = new ArrayList<>();
+    private final AtomicInteger badGames = new AtomicInteger();
+    // First failure of a worker or of storing a game, after which the
+    // builder can't go on
+    private volatile IOException workerError;
+    private Batch batch;
+
+    /**
+     * @param directory Directory of the database.
+     * @param maxPly Number of moves of each game to index; the explorer
+     *               finds positions up to this deep.
+     * @param threads Number of threads to index games on.
+     * @param bufferEntries Positions each thread holds in memory before
+     *                      writing a run; each takes 16 bytes.
+     * @throws IOException If the database can't be opened.
+     */
+    public GameDatabaseBuilder(File directory, int maxPly, int threads, int bufferEntries)
+            throws IOException {
+        if(bufferEntries < 1)
+            throw new IllegalArgumentException("Buffer must hold at least one entry");
+        if(!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+        this.directory = directory;
+        this.maxPly = maxPly;
+        this.bufferEntries = bufferEntries;
+
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "game-index");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        batchesInFlight = new Semaphore(2 * threads);
+        buffers = new ArrayBlockingQueue<>(threads);
+        for(int i = 0; i < threads; i++)
+            buffers.add(new RunBuffer());
+
+        RandomAccessFile gamesFile = new RandomAccessFile(
+                new File(directory, GameDatabase.GAMES_FILE), "rw");
+        RandomAccessFile offsetsFile = new RandomAccessFile(
+                new File(directory, GameDatabase.OFFSETS_FILE), "rw");
+        int indexed = GameDatabase.readGameCount(new File(directory, GameDatabase.POSITIONS_FILE));
+        // Without the offsets of the indexed games, index everything again
+        if(offsetsFile.length() < (long) indexed * GameDatabase.OFFSET_BYTES)
+            indexed = 0;
+        firstNewGame = indexed;
+        gameCount = indexed;
+        batch = new Batch(indexed);
+        offsetsFile.setLength((long) indexed * GameDatabase.OFFSET_BYTES);
+        offsetsFile.getChannel().position(offsetsFile.length());
+        offsets = new Output(offsetsFile.getChannel());
+
+        games = gamesFile.getChannel();
+        if(games.size() == 0) {
+            store = new GameRecordWriter(games, true);
+            storeBytes = GameRecord.FILE_HEADER_BYTES;
+        } else {
+            // Checks the header
+            new GameRecordReader(games.position(0));
+            long resume = indexed == 0 ? GameRecord.FILE_HEADER_BYTES
+                    : endOfGames(gamesFile, offsetsFile, indexed);
+            storeBytes = reindex(games, resume);
+            gamesFile.setLength(storeBytes);
+            games.position(storeBytes);
+            store = new GameRecordWriter(games, false);
+        }
+    }
+
+    /**
+     * @return Byte offset just past the end of a number of games in the
+     * game file.
+     */
+    private static long endOfGames(RandomAccessFile store, RandomAccessFile offsets, int games)
+            throws IOException {
+        offsets.seek((long) (games - 1) * GameDatabase.OFFSET_BYTES);
+        long last = Long.reverseBytes(offsets.readLong());
+        store.seek(last);
+        int plies = Short.reverseBytes(store.readShort()) & 0xFFFF;
+        long end = last + GameRecord.GAME_HEADER_BYTES + (long) plies * GameRecord.MOVE_BYTES;
+        if(store.length() < end)
+            throw new IOException("Game database is missing games");
+        return end;
+    }
+
+    /**
+     * Queue the games stored after the index for indexing, giving them
+     * offsets again. A game cut short, by a crash while writing it, is
+     * dropped.
+     * @param games Game file.
+     * @param offset Byte offset of the first game to index.
+     * @return Byte offset just past the last whole game.
+     */
+    private long reindex(FileChannel games, long offset) throws IOException {
+        games.position(offset);
+        GameRecordReader reader = new GameRecordReader(games, false);
+        boolean reserved = false;
+        try {
+            while(reader.next()) {
+                int length = reader.getPlies();
+                int result = reader.getResult() < GameDatabase.RESULTS
+                        ? reader.getResult() : GameRecord.UNKNOWN;
+                int start = batch.reserve(length, result);
+                reserved = true;
+                reader.readEncodedMoves(batch.moves, start);
+                reserved = false;
+                offsets.putLong(offset);
+                offset += GameRecord.GAME_HEADER_BYTES + length * GameRecord.MOVE_BYTES;
+                gameCount++;
+                if(batch.count == BATCH_GAMES)
+                    submit();
+            }
+        } catch(EOFException e) {
+            if(reserved)
+                batch.unreserve();
+        }
+        return offset;
+    }
+
+    /**
+     * Add a game. The moves are trusted to be legal; a game found not to
+     * be is only indexed up to where it goes wrong.
+     * @param moves Packed moves from <code>MoveRules</code>, from the
+     *              starting position.
+     * @param length Number of moves, at most <code>GameRecord.MAX_PLIES</code>.
+     * @param result Result, e.g. <code>GameRecord.DRAW</code>.
+     * @throws IOException If writing fails.
+     */
+    public void addGame(int[] moves, int length, int result) throws IOException {
+        if(result < 0 || result >= GameDatabase.RESULTS)
+            throw new IllegalArgumentException("Unknown result " + result);
+        if(length > GameRecord.MAX_PLIES)
+            throw new IllegalArgumentException("Game too long: " + length + " plies");
+        checkFailed();
+        int offset = batch.reserve(length, result);
+        for(int i = 0; i < length; i++)
+            batch.moves[offset + i] = GameRecord.encodeMove(moves[i]);
+        added(offset, length, result);
+    }
+
+    /**
+     * Add every game of a game record file, reading it as a stream.
+     * @param records Channel at the start of a game record file. It is
+     *                read to the end, but not closed.
+     * @return Number of games added.
+     * @throws IOException If reading or writing fails.
+     */
+    public int addGames(ReadableByteChannel records) throws IOException {
+        GameRecordReader reader = new GameRecordReader(records);
+        int games = 0;
+        while(reader.next()) {
+            int length = reader.getPlies();
+            if(reader.getResult() >= GameDatabase.RESULTS)
+                throw new IOException("Unknown result " + reader.getResult());
+            checkFailed();
+            int offset = batch.reserve(length, reader.getResult());
+            try {
+                reader.readEncodedMoves(batch.moves, offset);
+            } catch(IOException e) {
+                // Nothing stored yet, so only this file is at fault
+                batch.unreserve();
+                throw e;
+            }
+            added(offset, length, reader.getResult());
+            games++;
+        }
+        return games;
+    }
+
+    /**
+     * Fail if the builder can't go on, after a worker or storing a game
+     * failed.
+     */
+    private void checkFailed() throws IOException {
+        if(workerError != null)
+            throw workerError;
+    }
+
+    /**
+     * Store a game just put in the batch. If that fails, part of the game
+     * may be in the files already, so the builder can't go on; the next
+     * one opened on the database picks up from the last whole game.
+     */
+    private void added(int offset, int length, int result) throws IOException {
+        try {
+            store.writeEncoded(batch.moves, offset, length, result);
+            offsets.putLong(storeBytes);
+            storeBytes += GameRecord.GAME_HEADER_BYTES + length * GameRecord.MOVE_BYTES;
+            gameCount++;
+            if(batch.count == BATCH_GAMES)
+                submit();
+        } catch(IOException e) {
+            failed(e);
+            throw e;
+        } catch(RuntimeException e) {
+            failed(new IOException("Adding a game failed", e));
+            throw e;
+        }
+    }
+
+    /**
+     * Hand the current batch to a worker, waiting if too many are queued.
+     */
+    private void submit() throws IOException {
+        final Batch full = batch;
+        batch = new Batch(gameCount);
+        try {
+            batchesInFlight.acquire();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while adding games");
+        }
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                RunBuffer buffer = null;
+                try {
+                    buffer = buffers.take();
+                    buffer.index(full);
+                } catch(IOException e) {
+                    failed(e);
+                } catch(RuntimeException e) {
+                    failed(new IOException("Indexing games failed", e));
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if(buffer != null)
+                        buffers.add(buffer);
+                    batchesInFlight.release();
+                }
+            }
+        });
+    }
+
+    private void failed(IOException e) {
+        synchronized(badGames) {
+            if(workerError == null)
+                workerError = e;
+        }
+    }
+
+    /**
+     * @return Number of games in the database, including the ones added.
+     */
+    public int getGameCount() {
+        return gameCount;
+    }
+
+    /**
+     * @return Number of games added whose moves turned out not to be
+     * legal, so far.
+     */
+    public int getBadGames() {
+        return badGames.get();
+    }
+
+    /**
+     * Index the games added, write the new index, then delete the runs.
+     * The builder can't be used afterwards.
+     * @throws IOException If reading or writing fails, here or while
+     * adding games.
+     */
+    public void finish() throws IOException {
+        try {
+            if(batch.count > 0 && workerError == null)
+                submit();
+            workers.shutdown();
+            try {
+                while(!workers.awaitTermination(1, TimeUnit.MINUTES))
+                    continue;
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while indexing games");
+            }
+            if(workerError != null)
+                throw workerError;
+            for(RunBuffer buffer : buffers)
+                buffer.writeRun();
+            store.flush();
+            offsets.flush();
+            merge();
+        } finally {
+            workers.shutdownNow();
+            try {
+                close();
+            } finally {
+                synchronized(runs) {
+                    for(File run : runs)
+                        run.delete();
+                    runs.clear();
+                }
+            }
+        }
+    }
+
+    private void close() throws IOException {
+        if(workerError != null) {
+            // Writing what is left in the buffers could put a game after
+            // one only partly written, where the next builder can't find it
+            games.close();
+            offsets.channel.close();
+            return;
+        }
+        try {
+            store.close();
+        } finally {
+            offsets.close();
+        }
+    }
+
+    /**
+     * Merge the runs and the old position index into new index files,
+     * then put them in place of the old ones.
+     */
+    private void merge() throws IOException {
+        File positionsFile = new File(directory, GameDatabase.POSITIONS_FILE);
+        File movesFile = new File(directory, GameDatabase.MOVES_FILE);
+        File newPositions = new File(directory, GameDatabase.POSITIONS_FILE + ".new");
+        File newMoves = new File(directory, GameDatabase.MOVES_FILE + ".new");
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(runs.size() + 1,
+                new Comparator<RunReader>() {
+                    @Override
+                    public int compare(RunReader a, RunReader b) {
+                        int order = Long.compare(a.key, b.key);
+                        return order != 0 ? order : Long.compare(a.value, b.value);
+                    }
+                });
+        Output positionsOut = new Output(new FileOutputStream(newPositions).getChannel());
+        Output movesOut = new Output(new FileOutputStream(newMoves).getChannel());
+        try {
+            positionsOut.putInt(GameDatabase.POSITIONS_MAGIC).putInt(GameDatabase.VERSION)
+                    .putInt(gameCount).putInt(0);
+            movesOut.putInt(GameDatabase.MOVES_MAGIC).putInt(GameDatabase.VERSION)
+                    .putInt(0).putInt(0);
+
+            if(firstNewGame > 0)
+                open(queue, new RunReader(positionsFile, GameDatabase.HEADER_BYTES));
+            for(File run : runs)
+                open(queue, new RunReader(run, 0));
+
+            MoveCounter counter = new MoveCounter();
+            long key = 0;
+            long value = -1;
+            while(!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if(reader.key != key) {
+                    counter.write(key, movesOut);
+                    key = reader.key;
+                    value = -1;
+                }
+                // A game can pass through a position more than once
+                if(reader.value != value) {
+                    value = reader.value;
+                    positionsOut.putLong(key).putLong(value);
+                    counter.add((int) (value >>> 8 & 0xFFFF), (int) (value & 0xFF));
+                }
+                if(reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+            counter.write(key, movesOut);
+        } finally {
+            for(RunReader reader : queue)
+                reader.close();
+            positionsOut.close();
+            movesOut.close();
+        }
+
+        // The move index can be rebuilt from the position index, so the
+        // position index goes first
+        replace(newPositions, positionsFile);
+        replace(newMoves, movesFile);
+    }
+
+    private static void open(PriorityQueue<RunReader> queue, RunReader reader) throws IOException {
+        if(reader.next())
+            queue.add(reader);
+        else
+            reader.close();
+    }
+
+    /**
+     * Rename a file over another in one step, so there is never a moment
+     * without either.
+     */
+    private static void replace(File from, File to) throws IOException {
+        Files.move(from.toPath(), to.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Games waiting to be indexed, with their moves in 16 bits end to end.
+     */
+    private static class Batch {
+        final int firstGame;
+        int[] moves = new int[BATCH_MOVES];
+        int moveCount;
+        final int[] starts = new int[BATCH_GAMES + 1];
+        final int[] results = new int[BATCH_GAMES];
+        int count;
+
+        Batch(int firstGame) {
+            this.firstGame = firstGame;
+        }
+
+        /**
+         * Make room for a game.
+         * @return Index its moves go at.
+         */
+        int reserve(int length, int result) {
+            if(moveCount + length > moves.length)
+                moves = Arrays.copyOf(moves, Math.max(2 * moves.length, moveCount + length));
+            int offset = moveCount;
+            results[count] = result;
+            moveCount += length;
+            starts[++count] = moveCount;
+            return offset;
+        }
+
+        /**
+         * Take back the last game reserved.
+         */
+        void unreserve() {
+            count--;
+            moveCount = starts[count];
+        }
+    }
+
+    /**
+     * One worker's buffer of entries, sorted and written out as a run
+     * when full.
+     */
+    private class RunBuffer {
+        private final long[] keys = new long[bufferEntries];
+        private final long[] values = new long[bufferEntries];
+        private int count;
+        private final Position position = new Position();
+
+        void index(Batch batch) throws IOException {
+            for(int g = 0; g < batch.count; g++) {
+                long game = batch.firstGame + g;
+                int start = batch.starts[g];
+                int length = batch.starts[g + 1] - start;
+                int result = batch.results[g];
+                try {
+                    indexGame(game, batch.moves, start, length, result);
+                } finally {
+                    while(position.getPly() > 0)
+                        position.unmakeMove();
+                }
+            }
+        }
+
+        private void indexGame(long game, int[] moves, int start, int length, int result)
+                throws IOException {
+            for(int ply = 0; ply < maxPly; ply++) {
+                // The last position gets an entry with move 0
+                int bits = ply < length ? moves[start + ply] : 0;
+                if(count == keys.length)
+                    writeRun();
+                keys[count] = position.getKey();
+                values[count] = game << 32 | (long) bits << 8 | result;
+                count++;
+                if(ply == length)
+                    break;
+                if(!isPlausible(bits)) {
+                    badGames.incrementAndGet();
+                    break;
+                }
+                position.makeMove(GameRecord.decodeMove(position, bits));
+            }
+        }
+
+        /**
+         * Whether a move in 16 bits at least moves a piece of the side to
+         * move onto a cell without one, which is all decoding and
+         * <code>makeMove()</code> need.
+         */
+        private boolean isPlausible(int bits) {
+            int from = bits & 0x7F;
+            int to = bits >>> 7 & 0x7F;
+            if(from >= Position.NUM_CELLS || to >= Position.NUM_CELLS)
+                return false;
+            int side = position.getSideToMove();
+            return position.getColor(from) == side && position.getColor(to) != side;
+        }
+
+        void writeRun() throws IOException {
+            if(count == 0)
+                return;
+            LongPairSort.sort(keys, values, 0, count - 1);
+            File run = File.createTempFile("hexchess-games", ".run", directory);
+            run.deleteOnExit();
+            synchronized(runs) {
+                runs.add(run);
+            }
+            Output out = new Output(new FileOutputStream(run).getChannel());
+            try {
+                for(int i = 0; i < count; i++)
+                    out.putLong(keys[i]).putLong(values[i]);
+            } finally {
+                out.close();
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Adds up the entries of one position by move, for the move index.
+     */
+    private static class MoveCounter {
+        private int[] moves = new int[64];
+        private int[] counts = new int[64 * GameDatabase.RESULTS];
+        private int size;
+
+        void add(int move, int result) {
+            if(move == 0)
+                return;
+            int i = 0;
+            while(i < size && moves[i] != move)
+                i++;
+            if(i == size) {
+                if(size == moves.length) {
+                    moves = Arrays.copyOf(moves, 2 * size);
+                    counts = Arrays.copyOf(counts, 2 * counts.length);
+                }
+                moves[size] = move;
+                Arrays.fill(counts, size * GameDatabase.RESULTS,
+                        (size + 1) * GameDatabase.RESULTS, 0);
+                size++;
+            }
+            counts[i * GameDatabase.RESULTS + result]++;
+        }
+
+        /**
+         * Write a record per move, in order of move, then start over.
+         */
+        void write(long key, Output out) throws IOException {
+            for(int written = 0; written < size; written++) {
+                int best = -1;
+                for(int i = 0; i < size; i++)
+                    if(moves[i] != 0 && (best < 0 || moves[i] < moves[best]))
+                        best = i;
+                int games = 0;
+                for(int r = 0; r < GameDatabase.RESULTS; r++)
+                    games += counts[best * GameDatabase.RESULTS + r];
+                out.putLong(key).putInt(moves[best]).putInt(games);
+                for(int r = 0; r < GameDatabase.RESULTS; r++)
+                    out.putInt(counts[best * GameDatabase.RESULTS + r]);
+                moves[best] = 0;
+            }
+            size = 0;
+        }
+    }
+
+    /**
+     * Buffered little-endian writer to a file, from the channel's
+     * position.
+     */
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        Output putLong(long value) throws IOException {
+            if(buffer.remaining() < 8)
+                flush();
+            buffer.putLong(value);
+            return this;
+        }
+
+        Output putInt(int value) throws IOException {
+            if(buffer.remaining() < 4)
+                flush();
+            buffer.putInt(value);
+            return this;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Buffered reader of the entries of a run or position index, one at a
+     * time.
+     */
+    private static class RunReader {
+        private final FileInputStream stream;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        long key;
+        long value;
+
+        RunReader(File file, int headerBytes) throws IOException {
+            stream = new FileInputStream(file);
+            channel = stream.getChannel();
+            channel.position(headerBytes);
+            buffer.flip();
+        }
+
+        /**
+         * @return Whether there was another entry.
+         */
+        boolean next() throws IOException {
+            if(buffer.remaining() < GameDatabase.ENTRY_BYTES) {
+                buffer.compact();
+                while(buffer.position() < GameDatabase.ENTRY_BYTES && channel.read(buffer) > 0)
+                    continue;
+                buffer.flip();
+                if(buffer.remaining() < GameDatabase.ENTRY_BYTES)
+                    return false;
+            }
+            key = buffer.getLong();
+            value = buffer.getLong();
+            return true;
+        }
+
+        void close() throws IOException {
+            stream.close();
+        }
+    }
+}
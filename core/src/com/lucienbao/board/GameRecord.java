@@ -0,0 +1,96 @@
+package com.lucienbao.board;
+
+import com.lucienbao.utils.MoveRules;
+
+/**
+ * The binary format of game records, written by
+ * <code>GameRecordWriter</code> and read by <code>GameRecordReader</code>.
+ * <p>
+ * File format, all little-endian:
+ * <pre>
+ * bytes  "HXGR"
+ * int32  version (1)
+ * then for each game:
+ * uint16 number of plies
+ * uint8  result, see below
+ * uint8  reserved, 0
+ * uint16 each move, from the starting position
+ * </pre>
+ * A move is its starting cell in bits 0-6 and its destination in bits
+ * 7-13. For promotions, bits 14-15 tell the piece: 0 for a queen, 1 for
+ * a rook, 2 for a bishop and 3 for a knight; other moves leave them 0.
+ * Everything else about a move follows from the position it is played
+ * in, so moves are decoded without generating any.
+ */
+public final class GameRecord {
+    public static final int UNKNOWN = 0;
+    public static final int WHITE_WINS = 1;
+    public static final int BLACK_WINS = 2;
+    public static final int DRAW = 3;
+    /** White stalemated Black, which scores 3/4 for White. */
+    public static final int WHITE_STALEMATES = 4;
+    /** Black stalemated White. */
+    public static final int BLACK_STALEMATES = 5;
+
+    /** Most plies a game can have. */
+    public static final int MAX_PLIES = 0xFFFF;
+
+    static final int MAGIC = 'H' | 'X' << 8 | 'G' << 16 | 'R' << 24;
+    static final int VERSION = 1;
+    static final int FILE_HEADER_BYTES = 8;
+    static final int GAME_HEADER_BYTES = 4;
+    static final int MOVE_BYTES = 2;
+
+    private GameRecord() {
+    }
+
+    /**
+     * @param move Packed move from <code>MoveRules</code>.
+     * @return The move in 16 bits.
+     */
+    public static int encodeMove(int move) {
+        int bits = MoveRules.getFrom(move) | MoveRules.getTo(move) << 7;
+        int code = MoveRules.getCode(move);
+        if(code == MoveRules.MOVE_PROMOTE || code == MoveRules.CAPTURE_PROMOTE)
+            bits |= (MoveRules.getPromotion(move) - Hex.QUEEN) << 14;
+        return bits;
+    }
+
+    /**
+     * Turn 16 bits back into a move. The move isn't checked: a record
+     * written from legal moves gives legal moves back.
+     * @param pos Position the move is played in.
+     * @param bits The move in 16 bits.
+     * @return Packed move from <code>MoveRules</code>.
+     */
+    public static int decodeMove(Position pos, int bits) {
+        int from = bits & 0x7F;
+        int to = bits >>> 7 & 0x7F;
+        boolean empty = pos.isEmpty(to);
+        if(pos.getId(from) == Hex.PAWN) {
+            int color = pos.getColor(from);
+            if(MoveRules.PAWN_PUSH[color][to] == Position.NO_CELL)
+                return MoveRules.move(from, to,
+                        empty ? MoveRules.MOVE_PROMOTE : MoveRules.CAPTURE_PROMOTE,
+                        Hex.QUEEN + (bits >>> 14 & 3));
+            if(empty && to == pos.getEnPassantCell() && MoveRules.PAWN_PUSH[color][from] != to)
+                return MoveRules.move(from, to, MoveRules.CAPTURE_EN_PASSANT);
+        }
+        return MoveRules.move(from, to, empty ? MoveRules.MOVE : MoveRules.CAPTURE);
+    }
+
+    /**
+     * @param pos Position at the end of a game.
+     * @return The result if the game ended on the board, by mate or
+     * stalemate, else <code>UNKNOWN</code>.
+     */
+    public static int resultOf(Position pos) {
+        int[] moves = new int[MoveRules.MAX_MOVES];
+        if(MoveRules.generateLegalMoves(pos, moves, 0) > 0)
+            return UNKNOWN;
+        boolean whiteToMove = pos.getSideToMove() == Hex.WHITE;
+        if(MoveRules.isInCheck(pos, pos.getSideToMove()))
+            return whiteToMove ? BLACK_WINS : WHITE_WINS;
+        return whiteToMove ? BLACK_STALEMATES : WHITE_STALEMATES;
+    }
+}
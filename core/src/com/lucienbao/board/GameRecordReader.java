@@ -0,0 +1,194 @@
+package com.lucienbao.board;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads games from a channel in the format of <code>GameRecord</code>,
+ * one at a time: <code>next()</code> reads a game's header, and then one
+ * of <code>replay()</code>, <code>readMoves()</code> or <code>skip()</code>
+ * takes its moves. Moves are decoded straight from the buffer into
+ * make-move calls, so reading creates no objects. Not thread-safe.
+ */
+public class GameRecordReader {
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private int plies;
+    private int result;
+    // Moves of the current game not taken yet
+    private int movesLeft;
+
+    /**
+     * @param channel Channel to read from, at the start of a record file.
+     * @throws IOException If reading fails or it isn't a record file.
+     */
+    public GameRecordReader(ReadableByteChannel channel) throws IOException {
+        this(channel, true);
+    }
+
+    /**
+     * @param channel Channel to read from.
+     * @param header Whether the channel is at the file header, rather
+     *               than at the start of a game.
+     * @throws IOException If reading fails or it isn't a record file.
+     */
+    GameRecordReader(ReadableByteChannel channel, boolean header) throws IOException {
+        this.channel = channel;
+        buffer.flip();
+        if(!header)
+            return;
+        if(!fill(GameRecord.FILE_HEADER_BYTES) || buffer.getInt() != GameRecord.MAGIC)
+            throw new IOException("Not a game record file");
+        if(buffer.getInt() != GameRecord.VERSION)
+            throw new IOException("Unsupported game record version");
+    }
+
+    /**
+     * Move on to the next game, skipping the rest of the current one.
+     * @return Whether there was another game.
+     * @throws IOException If reading fails or the file ends mid-game.
+     */
+    public boolean next() throws IOException {
+        if(movesLeft > 0)
+            skip();
+        if(!fill(GameRecord.GAME_HEADER_BYTES)) {
+            if(buffer.hasRemaining())
+                throw new EOFException("Game record file ends mid-game");
+            return false;
+        }
+        plies = buffer.getShort() & 0xFFFF;
+        result = buffer.get() & 0xFF;
+        buffer.get();
+        movesLeft = plies;
+        return true;
+    }
+
+    /**
+     * @return Number of plies of the current game.
+     */
+    public int getPlies() {
+        return plies;
+    }
+
+    /**
+     * @return Result of the current game, e.g. <code>GameRecord.DRAW</code>.
+     */
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * Play the current game's moves on a position.
+     * @param pos Position to play them on, normally the starting position.
+     * @throws IOException If reading fails or the file ends mid-game.
+     */
+    public void replay(Position pos) throws IOException {
+        while(movesLeft > 0) {
+            int count = available();
+            for(int i = 0; i < count; i++)
+                pos.makeMove(GameRecord.decodeMove(pos, buffer.getShort() & 0xFFFF));
+            movesLeft -= count;
+        }
+    }
+
+    /**
+     * Play the current game's moves on a board.
+     * @param board Board to play them on, normally at the starting
+     *              position.
+     * @throws IOException If reading fails or the file ends mid-game.
+     */
+    public void replay(Board board) throws IOException {
+        Position pos = board.getPosition();
+        while(movesLeft > 0) {
+            int count = available();
+            for(int i = 0; i < count; i++)
+                board.makeMove(GameRecord.decodeMove(pos, buffer.getShort() & 0xFFFF));
+            movesLeft -= count;
+        }
+    }
+
+    /**
+     * Read the current game's moves into an array, without playing them.
+     * They are decoded on a position of the caller's, which ends up where
+     * the game did.
+     * @param pos Position to decode on, normally the starting position.
+     * @param moves Array of at least <code>getPlies()</code> to write the
+     *              packed moves into.
+     * @throws IOException If reading fails or the file ends mid-game.
+     */
+    public void readMoves(Position pos, int[] moves) throws IOException {
+        int n = 0;
+        while(movesLeft > 0) {
+            int count = available();
+            for(int i = 0; i < count; i++) {
+                int move = GameRecord.decodeMove(pos, buffer.getShort() & 0xFFFF);
+                moves[n++] = move;
+                pos.makeMove(move);
+            }
+            movesLeft -= count;
+        }
+    }
+
+    /**
+     * Read the current game's moves as they are stored, without decoding
+     * them, for copying games or decoding them elsewhere.
+     * @param bits Array to write the 16-bit moves into.
+     * @param offset Index to start writing at; there must be room for
+     *               <code>getPlies()</code> moves.
+     * @throws IOException If reading fails or the file ends mid-game.
+     */
+    void readEncodedMoves(int[] bits, int offset) throws IOException {
+        while(movesLeft > 0) {
+            int count = available();
+            for(int i = 0; i < count; i++)
+                bits[offset++] = buffer.getShort() & 0xFFFF;
+            movesLeft -= count;
+        }
+    }
+
+    /**
+     * Skip the rest of the current game's moves.
+     * @throws IOException If reading fails or the file ends mid-game.
+     */
+    public void skip() throws IOException {
+        while(movesLeft > 0) {
+            int count = available();
+            buffer.position(buffer.position() + count * GameRecord.MOVE_BYTES);
+            movesLeft -= count;
+        }
+    }
+
+    // Number of the current game's moves in the buffer, refilling it
+    // first if it has none
+    private int available() throws IOException {
+        if(!fill(GameRecord.MOVE_BYTES))
+            throw new EOFException("Game record file ends mid-game");
+        return Math.min(movesLeft, buffer.remaining() / GameRecord.MOVE_BYTES);
+    }
+
+    // Make sure at least some bytes are in the buffer; false at the end
+    // of the channel
+    private boolean fill(int bytes) throws IOException {
+        if(buffer.remaining() >= bytes)
+            return true;
+        buffer.compact();
+        while(buffer.position() < bytes && channel.read(buffer) > 0)
+            continue;
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+
+    /**
+     * Close the channel.
+     * @throws IOException If closing fails.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
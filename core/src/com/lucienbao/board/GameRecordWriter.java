@@ -0,0 +1,109 @@
+package com.lucienbao.board;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes games to a channel in the format of <code>GameRecord</code>,
+ * through a buffer of its own. Not thread-safe.
+ */
+public class GameRecordWriter {
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * @param channel Channel to write to.
+     * @param header Whether to start with the file header; leave it out
+     *               when adding to the end of an existing file.
+     */
+    public GameRecordWriter(WritableByteChannel channel, boolean header) {
+        this.channel = channel;
+        if(header)
+            buffer.putInt(GameRecord.MAGIC).putInt(GameRecord.VERSION);
+    }
+
+    /**
+     * Write a game.
+     * @param moves Packed moves from <code>MoveRules</code>, from the
+     *              starting position.
+     * @param length Number of moves, at most <code>MAX_PLIES</code>.
+     * @param result Result, e.g. <code>GameRecord.DRAW</code>.
+     * @throws IOException If writing fails.
+     */
+    public void write(int[] moves, int length, int result) throws IOException {
+        writeHeader(length, result);
+        for(int i = 0; i < length; i++)
+            writeMove(moves[i]);
+    }
+
+    /**
+     * Write the game played so far in a position.
+     * @param pos Position reached from the starting position.
+     * @param result Result, e.g. <code>GameRecord.DRAW</code>.
+     * @throws IOException If writing fails.
+     */
+    public void write(Position pos, int result) throws IOException {
+        writeHeader(pos.getPly(), result);
+        for(int i = 0; i < pos.getPly(); i++)
+            writeMove(pos.getMove(i));
+    }
+
+    /**
+     * Write a game whose moves are already in 16 bits.
+     * @param bits Moves as <code>GameRecord.encodeMove()</code> gives them.
+     * @param offset Index of the first move.
+     * @param length Number of moves, at most <code>MAX_PLIES</code>.
+     * @param result Result, e.g. <code>GameRecord.DRAW</code>.
+     * @throws IOException If writing fails.
+     */
+    void writeEncoded(int[] bits, int offset, int length, int result) throws IOException {
+        writeHeader(length, result);
+        for(int i = 0; i < length; i++) {
+            if(buffer.remaining() < GameRecord.MOVE_BYTES)
+                flush();
+            buffer.putShort((short) bits[offset + i]);
+        }
+    }
+
+    private void writeHeader(int length, int result) throws IOException {
+        if(length > GameRecord.MAX_PLIES)
+            throw new IllegalArgumentException("Game too long: " + length + " plies");
+        if(buffer.remaining() < GameRecord.GAME_HEADER_BYTES)
+            flush();
+        buffer.putShort((short) length).put((byte) result).put((byte) 0);
+    }
+
+    private void writeMove(int move) throws IOException {
+        if(buffer.remaining() < GameRecord.MOVE_BYTES)
+            flush();
+        buffer.putShort((short) GameRecord.encodeMove(move));
+    }
+
+    /**
+     * Write out everything buffered.
+     * @throws IOException If writing fails.
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Flush, then close the channel.
+     * @throws IOException If writing or closing fails.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
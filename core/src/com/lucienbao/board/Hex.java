@@ -1,5 +1,9 @@
 package com.lucienbao.board;
 
+/**
+ * A view of one cell of a <code>Position</code>. The piece on it is read
+ * from and written to the position, so a <code>Hex</code> never goes stale.
+ */
 public class Hex {
     public static final int WHITE = 0;
     public static final int BLACK = 1;
@@ -13,14 +17,14 @@ public class Hex {
 
     public static final int EMPTY = -1;
 
-    private int rank, file;
-    private int color, id;
+    private final Position position;
+    private final int rank, file, cell;
 
-    public Hex(int file, int rank, int color, int id) {
+    public Hex(Position position, int file, int rank) {
+        this.position = position;
         this.file = file;
         this.rank = rank;
-        this.color = color;
-        this.id = id;
+        this.cell = Position.cell(file, rank);
     }
 
     /**
@@ -31,6 +35,7 @@ public class Hex {
      * this piece.
      */
     public boolean correctColor(boolean whiteToMove) {
+        int color = getColor();
         return (whiteToMove && color == WHITE)
                 || (!whiteToMove && color == BLACK);
     }
@@ -39,41 +44,27 @@ public class Hex {
         return rank;
     }
 
-    public void setRank(int rank) {
-        this.rank = rank;
-    }
-
     public int getFile() {
         return file;
     }
 
-    public void setFile(int file) {
-        this.file = file;
+    public int getCell() {
+        return cell;
     }
 
     public int getColor() {
-        return color;
+        return position.getColor(cell);
     }
 
     public int getId() {
-        return id;
+        return position.getId(cell);
     }
 
     public void setPiece(int color, int id) {
-        this.color = color;
-        this.id = id;
+        position.setPiece(cell, color, id);
     }
 
     public void setEmpty() {
-        setColor(EMPTY);
-        setId(EMPTY);
-    }
-
-    public void setColor(int color) {
-        this.color = color;
-    }
-
-    public void setId(int id) {
-        this.id = id;
+        setPiece(EMPTY, EMPTY);
     }
 }
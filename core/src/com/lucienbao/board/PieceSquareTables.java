@@ -0,0 +1,115 @@
+package com.lucienbao.board;
+
+/**
+ * What each piece is worth on each cell, material included, once for the
+ * middlegame and once for the endgame. <code>Position</code> keeps the
+ * sums of these up to date as pieces move, so evaluating them costs
+ * nothing.
+ * <p>
+ * Values are in centipawns from White's point of view: Black's pieces
+ * count negative. Black's tables are White's, mirrored top to bottom
+ * (see <code>Position.mirror()</code>), which is also how the starting
+ * setup is mirrored.
+ * <p>
+ * The tables are built from a few shapes rather than tuned cell by cell:
+ * pieces like being near f6, the middle cell; pawns gain value as they
+ * near promotion; and the king stays home until the endgame, when it
+ * heads for the middle too.
+ */
+public class PieceSquareTables {
+    /** Game phase each piece type counts for, indexed by ID. */
+    public static final int[] PHASE_WEIGHTS = {0, 4, 2, 1, 1, 0};
+    /** Phase of the starting position; anything above counts the same. */
+    public static final int PHASE_MAX = 2 * (PHASE_WEIGHTS[Hex.QUEEN]
+            + 2 * PHASE_WEIGHTS[Hex.ROOK]
+            + 3 * PHASE_WEIGHTS[Hex.BISHOP]
+            + 2 * PHASE_WEIGHTS[Hex.KNIGHT]);
+
+    private static final int[] MIDGAME_VALUES = {0, 900, 500, 320, 300, 100};
+    private static final int[] ENDGAME_VALUES = {0, 950, 550, 320, 280, 130};
+
+    // [(color * 6 + id) * NUM_CELLS + cell]
+    private static final int[] MIDGAME = new int[2 * 6 * Position.NUM_CELLS];
+    private static final int[] ENDGAME = new int[2 * 6 * Position.NUM_CELLS];
+
+    static {
+        for(int cell = 0; cell < Position.NUM_CELLS; cell++) {
+            int file = Position.fileOf(cell);
+            int rank = Position.rankOf(cell);
+            int mirrored = Position.mirror(cell);
+            int center = 3 - distanceToCenter(file, rank);
+            // Every white pawn starts 6 steps from promotion
+            int advanced = 6 - (Position.numRanks(file) - 1 - rank);
+
+            for(int id = Hex.KING; id <= Hex.PAWN; id++) {
+                int midgame = MIDGAME_VALUES[id];
+                int endgame = ENDGAME_VALUES[id];
+                switch(id) {
+                    case Hex.KING:
+                        midgame -= 15 * rank;
+                        endgame += 10 * center;
+                        break;
+                    case Hex.QUEEN:
+                        midgame += 2 * center;
+                        endgame += 4 * center;
+                        break;
+                    case Hex.ROOK:
+                        midgame += 2 * center;
+                        break;
+                    case Hex.BISHOP:
+                        midgame += 5 * center;
+                        endgame += 3 * center;
+                        break;
+                    case Hex.KNIGHT:
+                        midgame += 8 * center;
+                        endgame += 6 * center;
+                        break;
+                    case Hex.PAWN:
+                        midgame += 4 * advanced - 2 * Math.abs(file - 5);
+                        endgame += 5 * advanced * Math.abs(advanced);
+                        break;
+                }
+                MIDGAME[index(Hex.WHITE, id, cell)] = midgame;
+                ENDGAME[index(Hex.WHITE, id, cell)] = endgame;
+                MIDGAME[index(Hex.BLACK, id, mirrored)] = -midgame;
+                ENDGAME[index(Hex.BLACK, id, mirrored)] = -endgame;
+            }
+        }
+    }
+
+    private static int index(int color, int id, int cell) {
+        return (color * 6 + id) * Position.NUM_CELLS + cell;
+    }
+
+    /**
+     * @return Number of orthogonal steps from the cell to f6, the
+     * middle cell.
+     */
+    private static int distanceToCenter(int file, int rank) {
+        // In (file, height) coordinates an orthogonal step changes the
+        // file by at most 1 and the height by 1 or 2
+        int files = Math.abs(file - 5);
+        int heights = Math.abs(2 * rank + files - 10);
+        return files + Math.max(0, (heights - files) / 2);
+    }
+
+    /**
+     * @param color Color of the piece.
+     * @param id ID of the piece.
+     * @param cell Cell it stands on.
+     * @return Middlegame value of that piece there, for White.
+     */
+    public static int midgame(int color, int id, int cell) {
+        return MIDGAME[index(color, id, cell)];
+    }
+
+    /**
+     * @param color Color of the piece.
+     * @param id ID of the piece.
+     * @param cell Cell it stands on.
+     * @return Endgame value of that piece there, for White.
+     */
+    public static int endgame(int color, int id, int cell) {
+        return ENDGAME[index(color, id, cell)];
+    }
+}
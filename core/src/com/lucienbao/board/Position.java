@@ -0,0 +1,664 @@
+package com.lucienbao.board;
+
+import com.lucienbao.utils.MoveRules;
+
+/**
+ * The core representation of a HexChess position.
+ * <p>
+ * The 91 cells are numbered file by file, so a1 is cell 0, a2 is cell 1,
+ * ..., a6 is cell 5, b1 is cell 6, and so on up to k6 (cell 90). Every set
+ * of cells is packed into two longs: cell <code>n</code> is bit
+ * <code>n % 64</code> of word <code>n / 64</code>.
+ * <p>
+ * Unlike <code>Board</code>, this class has nothing to do with drawing,
+ * so headless code (rules, engines, tools) can use it on its own.
+ * <p>
+ * Moves (packed as described in <code>MoveRules</code>) are played with
+ * <code>makeMove()</code> and taken back with <code>unmakeMove()</code>.
+ * Everything needed to take a move back is kept on a preallocated undo
+ * stack, so neither call allocates or copies the board.
+ * <p>
+ * The position's Zobrist key, and the key of its pawns alone, are kept
+ * up to date by every change, so <code>getKey()</code> is free. Run with
+ * <code>-Dhexchess.debugKeys=true</code> to check them against a full
+ * recompute after every move.
+ * <p>
+ * The sums of <code>PieceSquareTables</code> and the game phase are kept
+ * up to date the same way, so the evaluation needn't scan the board.
+ */
+public class Position {
+    public static final int NUM_CELLS = 91;
+    public static final int NO_CELL = -1;
+
+    private static final boolean DEBUG_KEYS = Boolean.getBoolean("hexchess.debugKeys");
+
+    // Cell index of rank 0 of each file, plus one past the end
+    private static final int[] FILE_START = new int[12];
+    private static final int[] CELL_FILE = new int[NUM_CELLS];
+    private static final int[] CELL_RANK = new int[NUM_CELLS];
+
+    static {
+        for(int file = 0; file < 11; file++) {
+            FILE_START[file + 1] = FILE_START[file] + numRanks(file);
+            for(int rank = 0; rank < numRanks(file); rank++) {
+                CELL_FILE[FILE_START[file] + rank] = file;
+                CELL_RANK[FILE_START[file] + rank] = rank;
+            }
+        }
+    }
+
+    // Occupancy sets, indexed [color * 2 + word] and [id * 2 + word]
+    private final long[] colorSets = new long[4];
+    private final long[] pieceSets = new long[12];
+
+    // Mailbox so that "what is on this cell" doesn't need a scan
+    private final int[] colors = new int[NUM_CELLS];
+    private final int[] ids = new int[NUM_CELLS];
+
+    private int sideToMove;
+    // Cell a pawn skipped with a double step on the last move
+    private int enPassantCell;
+    private int halfmoveClock;
+    private int fullmoveNumber;
+    private long key;
+    // Key of the pawns alone, for caching pawn structure evaluations
+    private long pawnKey;
+    // Sums of PieceSquareTables over all pieces, and the game phase
+    private int midgameScore;
+    private int endgameScore;
+    private int phase;
+    private PositionListener listener;
+
+    /*
+    Undo stack, one entry per move played. Each state packs:
+    bits 0-2 captured piece ID + 1 (0 if nothing was captured),
+    bits 3-9 previous en passant cell + 1,
+    bits 10-31 previous halfmove clock.
+    The key before each move is kept too, for spotting repetitions.
+    */
+    private static final int INITIAL_STACK_SIZE = 1024;
+    private int[] undoMoves = new int[INITIAL_STACK_SIZE];
+    private int[] undoStates = new int[INITIAL_STACK_SIZE];
+    private long[] undoKeys = new long[INITIAL_STACK_SIZE];
+    private int ply;
+
+    /**
+     * Create a position with the standard starting setup.
+     */
+    public Position() {
+        clear();
+
+        // White pieces
+        place(1, 0, Hex.WHITE, Hex.PAWN);
+        place(2, 0, Hex.WHITE, Hex.ROOK);
+        place(3, 0, Hex.WHITE, Hex.KNIGHT);
+        place(4, 0, Hex.WHITE, Hex.QUEEN);
+        place(5, 0, Hex.WHITE, Hex.BISHOP);
+        place(6, 0, Hex.WHITE, Hex.KING);
+        place(7, 0, Hex.WHITE, Hex.KNIGHT);
+        place(8, 0, Hex.WHITE, Hex.ROOK);
+        place(9, 0, Hex.WHITE, Hex.PAWN);
+
+        place(5, 1, Hex.WHITE, Hex.BISHOP);
+        place(5, 2, Hex.WHITE, Hex.BISHOP);
+
+        place(2, 1, Hex.WHITE, Hex.PAWN);
+        place(3, 2, Hex.WHITE, Hex.PAWN);
+        place(4, 3, Hex.WHITE, Hex.PAWN);
+        place(5, 4, Hex.WHITE, Hex.PAWN);
+        place(6, 3, Hex.WHITE, Hex.PAWN);
+        place(7, 2, Hex.WHITE, Hex.PAWN);
+        place(8, 1, Hex.WHITE, Hex.PAWN);
+
+        // Black pieces
+        place(1, 6, Hex.BLACK, Hex.PAWN);
+        place(2, 7, Hex.BLACK, Hex.ROOK);
+        place(3, 8, Hex.BLACK, Hex.KNIGHT);
+        place(4, 9, Hex.BLACK, Hex.QUEEN);
+        place(5, 10, Hex.BLACK, Hex.BISHOP);
+        place(6, 9, Hex.BLACK, Hex.KING);
+        place(7, 8, Hex.BLACK, Hex.KNIGHT);
+        place(8, 7, Hex.BLACK, Hex.ROOK);
+        place(9, 6, Hex.BLACK, Hex.PAWN);
+
+        place(5, 9, Hex.BLACK, Hex.BISHOP);
+        place(5, 8, Hex.BLACK, Hex.BISHOP);
+
+        place(2, 6, Hex.BLACK, Hex.PAWN);
+        place(3, 6, Hex.BLACK, Hex.PAWN);
+        place(4, 6, Hex.BLACK, Hex.PAWN);
+        place(5, 6, Hex.BLACK, Hex.PAWN);
+        place(6, 6, Hex.BLACK, Hex.PAWN);
+        place(7, 6, Hex.BLACK, Hex.PAWN);
+        place(8, 6, Hex.BLACK, Hex.PAWN);
+    }
+
+    /**
+     * Create a copy of another position, including its move history.
+     * @param other Position to copy.
+     */
+    public Position(Position other) {
+        System.arraycopy(other.colorSets, 0, colorSets, 0, colorSets.length);
+        System.arraycopy(other.pieceSets, 0, pieceSets, 0, pieceSets.length);
+        System.arraycopy(other.colors, 0, colors, 0, NUM_CELLS);
+        System.arraycopy(other.ids, 0, ids, 0, NUM_CELLS);
+        sideToMove = other.sideToMove;
+        enPassantCell = other.enPassantCell;
+        halfmoveClock = other.halfmoveClock;
+        fullmoveNumber = other.fullmoveNumber;
+        key = other.key;
+        pawnKey = other.pawnKey;
+        midgameScore = other.midgameScore;
+        endgameScore = other.endgameScore;
+        phase = other.phase;
+        ply = other.ply;
+        if(undoMoves.length < ply) {
+            undoMoves = new int[other.undoMoves.length];
+            undoStates = new int[other.undoStates.length];
+            undoKeys = new long[other.undoKeys.length];
+        }
+        System.arraycopy(other.undoMoves, 0, undoMoves, 0, ply);
+        System.arraycopy(other.undoStates, 0, undoStates, 0, ply);
+        System.arraycopy(other.undoKeys, 0, undoKeys, 0, ply);
+    }
+
+    private void place(int file, int rank, int color, int id) {
+        setPiece(cell(file, rank), color, id);
+    }
+
+    /**
+     * Returns the number of ranks a given file has.
+     * @param file A file of the board.
+     * @return The number of ranks it has.
+     */
+    public static int numRanks(int file) {
+        if(file < 6)
+            return file + 6;
+        return 16 - file;
+    }
+
+    /**
+     * Returns whether there is a cell at the given rank and file.
+     * @param file A file of the board.
+     * @param rank A rank of the board.
+     * @return Whether such a cell exists.
+     */
+    public static boolean exists(int file, int rank) {
+        return 0 <= file && file < 11
+                && 0 <= rank && rank < numRanks(file);
+    }
+
+    /**
+     * Convert a file and rank to a cell index. The caller is
+     * responsible for making sure the cell exists.
+     * @param file File of the cell.
+     * @param rank Rank of the cell.
+     * @return Index of the cell, from 0 to 90.
+     */
+    public static int cell(int file, int rank) {
+        return FILE_START[file] + rank;
+    }
+
+    /**
+     * @param cell Index of a cell.
+     * @return The cell mirrored top to bottom, as Black sees White's
+     * side of the board.
+     */
+    public static int mirror(int cell) {
+        int file = CELL_FILE[cell];
+        return FILE_START[file] + numRanks(file) - 1 - CELL_RANK[cell];
+    }
+
+    public static int fileOf(int cell) {
+        return CELL_FILE[cell];
+    }
+
+    public static int rankOf(int cell) {
+        return CELL_RANK[cell];
+    }
+
+    /**
+     * @param cell Index of a cell.
+     * @return The cell's name as shown on the board, e.g. <code>f6</code>.
+     */
+    public static String cellName(int cell) {
+        return (char) ('a' + CELL_FILE[cell]) + Integer.toString(CELL_RANK[cell] + 1);
+    }
+
+    /**
+     * Empty the whole board.
+     */
+    public void clear() {
+        for(int i = 0; i < colorSets.length; i++)
+            colorSets[i] = 0;
+        for(int i = 0; i < pieceSets.length; i++)
+            pieceSets[i] = 0;
+        for(int cell = 0; cell < NUM_CELLS; cell++) {
+            if(listener != null && colors[cell] != Hex.EMPTY)
+                listener.pieceRemoved(cell, colors[cell], ids[cell]);
+            colors[cell] = Hex.EMPTY;
+            ids[cell] = Hex.EMPTY;
+        }
+        sideToMove = Hex.WHITE;
+        enPassantCell = NO_CELL;
+        halfmoveClock = 0;
+        fullmoveNumber = 1;
+        key = 0;
+        pawnKey = 0;
+        midgameScore = 0;
+        endgameScore = 0;
+        phase = 0;
+        ply = 0;
+    }
+
+    /**
+     * Play a move. The move must come from <code>MoveRules</code>
+     * for this position.
+     * @param move Packed move.
+     */
+    public void makeMove(int move) {
+        if(ply == undoMoves.length)
+            growUndoStack();
+
+        int from = MoveRules.getFrom(move);
+        int to = MoveRules.getTo(move);
+        int code = MoveRules.getCode(move);
+        int color = sideToMove;
+        int id = ids[from];
+
+        // An en passant capture takes the pawn that skipped past `to`
+        int capturedCell = code == MoveRules.CAPTURE_EN_PASSANT
+                ? MoveRules.PAWN_PUSH[1 - color][to] : to;
+        int captured = ids[capturedCell];
+
+        undoMoves[ply] = move;
+        undoStates[ply] = (captured + 1) | (enPassantCell + 1) << 3
+                | halfmoveClock << 10;
+        undoKeys[ply] = key;
+        ply++;
+
+        if(captured != Hex.EMPTY)
+            setPiece(capturedCell, Hex.EMPTY, Hex.EMPTY);
+        setPiece(from, Hex.EMPTY, Hex.EMPTY);
+        int promotion = MoveRules.getPromotion(move);
+        setPiece(to, color, promotion != 0 ? promotion : id);
+
+        if(enPassantCell != NO_CELL)
+            key ^= Zobrist.enPassantKey(enPassantCell);
+        enPassantCell = NO_CELL;
+        if(id == Hex.PAWN && to == MoveRules.PAWN_DOUBLE[color][from]) {
+            enPassantCell = MoveRules.PAWN_PUSH[color][from];
+            key ^= Zobrist.enPassantKey(enPassantCell);
+        }
+
+        if(id == Hex.PAWN || captured != Hex.EMPTY)
+            halfmoveClock = 0;
+        else
+            halfmoveClock++;
+        if(color == Hex.BLACK)
+            fullmoveNumber++;
+        sideToMove = 1 - color;
+        key ^= Zobrist.SIDE_KEY;
+
+        if(DEBUG_KEYS)
+            checkKey();
+    }
+
+    /**
+     * Take back the last move played with <code>makeMove()</code>.
+     * @return The move that was taken back.
+     */
+    public int unmakeMove() {
+        if(ply == 0)
+            throw new IllegalStateException("No move to take back");
+
+        ply--;
+        int move = undoMoves[ply];
+        int state = undoStates[ply];
+
+        int from = MoveRules.getFrom(move);
+        int to = MoveRules.getTo(move);
+        int color = 1 - sideToMove;
+        int id = MoveRules.getPromotion(move) != 0 ? Hex.PAWN : ids[to];
+
+        setPiece(to, Hex.EMPTY, Hex.EMPTY);
+        setPiece(from, color, id);
+        int captured = (state & 0x7) - 1;
+        if(captured != Hex.EMPTY) {
+            int capturedCell = MoveRules.getCode(move) == MoveRules.CAPTURE_EN_PASSANT
+                    ? MoveRules.PAWN_PUSH[1 - color][to] : to;
+            setPiece(capturedCell, 1 - color, captured);
+        }
+
+        enPassantCell = (state >>> 3 & 0x7F) - 1;
+        halfmoveClock = state >>> 10;
+        if(color == Hex.BLACK)
+            fullmoveNumber--;
+        sideToMove = color;
+        key = undoKeys[ply];
+
+        if(DEBUG_KEYS)
+            checkKey();
+        return move;
+    }
+
+    /**
+     * Pass the turn without moving, for null-move pruning in a search.
+     * Must be taken back with <code>unmakeNullMove()</code>.
+     */
+    public void makeNullMove() {
+        if(ply == undoMoves.length)
+            growUndoStack();
+
+        undoMoves[ply] = MoveRules.NO_MOVE;
+        undoStates[ply] = (enPassantCell + 1) << 3 | halfmoveClock << 10;
+        undoKeys[ply] = key;
+        ply++;
+
+        if(enPassantCell != NO_CELL)
+            key ^= Zobrist.enPassantKey(enPassantCell);
+        enPassantCell = NO_CELL;
+        // Repetitions across a null move don't count
+        halfmoveClock = 0;
+        sideToMove = 1 - sideToMove;
+        key ^= Zobrist.SIDE_KEY;
+    }
+
+    /**
+     * Take back a move made with <code>makeNullMove()</code>.
+     */
+    public void unmakeNullMove() {
+        ply--;
+        int state = undoStates[ply];
+        enPassantCell = (state >>> 3 & 0x7F) - 1;
+        halfmoveClock = state >>> 10;
+        sideToMove = 1 - sideToMove;
+        key = undoKeys[ply];
+    }
+
+    private void growUndoStack() {
+        int[] moves = new int[undoMoves.length * 2];
+        int[] states = new int[undoStates.length * 2];
+        System.arraycopy(undoMoves, 0, moves, 0, ply);
+        System.arraycopy(undoStates, 0, states, 0, ply);
+        long[] keys = new long[undoKeys.length * 2];
+        System.arraycopy(undoKeys, 0, keys, 0, ply);
+        undoMoves = moves;
+        undoStates = states;
+        undoKeys = keys;
+    }
+
+    /**
+     * @return The Zobrist key of this position.
+     * @see Zobrist
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Compute the Zobrist key from scratch. Far too slow for anything
+     * but checking the incrementally updated one.
+     * @return The Zobrist key of this position.
+     */
+    public long computeKey() {
+        long result = 0;
+        for(int cell = 0; cell < NUM_CELLS; cell++)
+            if(colors[cell] != Hex.EMPTY)
+                result ^= Zobrist.pieceKey(colors[cell], ids[cell], cell);
+        if(enPassantCell != NO_CELL)
+            result ^= Zobrist.enPassantKey(enPassantCell);
+        if(sideToMove == Hex.BLACK)
+            result ^= Zobrist.SIDE_KEY;
+        return result;
+    }
+
+    /**
+     * @return The Zobrist key of the pawns alone: the XOR of the keys of
+     * every pawn on its cell.
+     */
+    public long getPawnKey() {
+        return pawnKey;
+    }
+
+    /**
+     * Compute the pawn key from scratch, for checking.
+     * @return The Zobrist key of the pawns alone.
+     */
+    public long computePawnKey() {
+        long result = 0;
+        for(int cell = 0; cell < NUM_CELLS; cell++)
+            if(ids[cell] == Hex.PAWN)
+                result ^= Zobrist.pieceKey(colors[cell], Hex.PAWN, cell);
+        return result;
+    }
+
+    private void checkKey() {
+        if(key != computeKey() || pawnKey != computePawnKey())
+            throw new IllegalStateException("Zobrist key out of sync after "
+                    + ply + " moves");
+    }
+
+    /**
+     * @return Sum of the middlegame piece-square values of all pieces,
+     * for White.
+     * @see PieceSquareTables
+     */
+    public int getMidgameScore() {
+        return midgameScore;
+    }
+
+    /**
+     * @return Sum of the endgame piece-square values of all pieces,
+     * for White.
+     * @see PieceSquareTables
+     */
+    public int getEndgameScore() {
+        return endgameScore;
+    }
+
+    /**
+     * @return Sum of the phase weights of all pieces, from 0 (bare
+     * kings and pawns) up to about <code>PieceSquareTables.PHASE_MAX</code>.
+     */
+    public int getPhase() {
+        return phase;
+    }
+
+    /**
+     * Check whether this position already occurred since the last
+     * capture or pawn move, with the same side to move.
+     * @return Whether the position is a repetition.
+     */
+    public boolean isRepetition() {
+        int earliest = Math.max(0, ply - halfmoveClock);
+        for(int i = ply - 2; i >= earliest; i -= 2)
+            if(undoKeys[i] == key)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return Number of moves played that can be taken back.
+     */
+    public int getPly() {
+        return ply;
+    }
+
+    /**
+     * @param index From 0 (first move played) to <code>getPly() - 1</code>.
+     * @return The packed move.
+     */
+    public int getMove(int index) {
+        return undoMoves[index];
+    }
+
+    public int getSideToMove() {
+        return sideToMove;
+    }
+
+    /**
+     * Set whose turn it is, for setting up a position by hand.
+     * @param color <code>Hex.WHITE</code> or <code>Hex.BLACK</code>.
+     */
+    public void setSideToMove(int color) {
+        if(color != sideToMove) {
+            sideToMove = color;
+            key ^= Zobrist.SIDE_KEY;
+        }
+    }
+
+    /**
+     * @return Cell a pawn skipped with a double step on the last move,
+     * or <code>NO_CELL</code>.
+     */
+    public int getEnPassantCell() {
+        return enPassantCell;
+    }
+
+    /**
+     * Set the cell a pawn skipped with a double step on the last move,
+     * for setting up a position by hand.
+     * @param cell Index of the cell, or <code>NO_CELL</code>.
+     */
+    public void setEnPassantCell(int cell) {
+        if(enPassantCell != NO_CELL)
+            key ^= Zobrist.enPassantKey(enPassantCell);
+        enPassantCell = cell;
+        if(cell != NO_CELL)
+            key ^= Zobrist.enPassantKey(cell);
+    }
+
+    public int getHalfmoveClock() {
+        return halfmoveClock;
+    }
+
+    public int getFullmoveNumber() {
+        return fullmoveNumber;
+    }
+
+    /**
+     * Set the move counters, for setting up a position by hand.
+     * @param halfmoveClock Plies since the last capture or pawn move.
+     * @param fullmoveNumber Number of the move being played, from 1.
+     */
+    public void setMoveCounters(int halfmoveClock, int fullmoveNumber) {
+        this.halfmoveClock = halfmoveClock;
+        this.fullmoveNumber = fullmoveNumber;
+    }
+
+    /**
+     * Put a piece on a cell, replacing whatever was there.
+     * @param cell Index of the cell.
+     * @param color Color of piece, or <code>Hex.EMPTY</code> if none.
+     * @param id ID number of piece, or <code>Hex.EMPTY</code> if none.
+     */
+    public void setPiece(int cell, int color, int id) {
+        int word = cell >>> 6;
+        long bit = 1L << cell;
+
+        if(colors[cell] != Hex.EMPTY) {
+            if(listener != null)
+                listener.pieceRemoved(cell, colors[cell], ids[cell]);
+            colorSets[colors[cell] * 2 + word] &= ~bit;
+            pieceSets[ids[cell] * 2 + word] &= ~bit;
+            key ^= Zobrist.pieceKey(colors[cell], ids[cell], cell);
+            if(ids[cell] == Hex.PAWN)
+                pawnKey ^= Zobrist.pieceKey(colors[cell], Hex.PAWN, cell);
+            midgameScore -= PieceSquareTables.midgame(colors[cell], ids[cell], cell);
+            endgameScore -= PieceSquareTables.endgame(colors[cell], ids[cell], cell);
+            phase -= PieceSquareTables.PHASE_WEIGHTS[ids[cell]];
+        }
+
+        if(color == Hex.EMPTY || id == Hex.EMPTY) {
+            colors[cell] = Hex.EMPTY;
+            ids[cell] = Hex.EMPTY;
+            return;
+        }
+
+        colorSets[color * 2 + word] |= bit;
+        pieceSets[id * 2 + word] |= bit;
+        colors[cell] = color;
+        ids[cell] = id;
+        key ^= Zobrist.pieceKey(color, id, cell);
+        if(id == Hex.PAWN)
+            pawnKey ^= Zobrist.pieceKey(color, Hex.PAWN, cell);
+        midgameScore += PieceSquareTables.midgame(color, id, cell);
+        endgameScore += PieceSquareTables.endgame(color, id, cell);
+        phase += PieceSquareTables.PHASE_WEIGHTS[id];
+        if(listener != null)
+            listener.pieceAdded(cell, color, id);
+    }
+
+    /**
+     * Have every piece put on or taken off the board reported, including
+     * by <code>makeMove()</code> and <code>unmakeMove()</code>. Copies of
+     * the position don't inherit the listener.
+     * @param listener Listener, or <code>null</code> for none.
+     */
+    public void setListener(PositionListener listener) {
+        this.listener = listener;
+    }
+
+    public int getColor(int cell) {
+        return colors[cell];
+    }
+
+    public int getId(int cell) {
+        return ids[cell];
+    }
+
+    /**
+     * @param cell Index of the cell.
+     * @return Whether no piece stands on the cell.
+     */
+    public boolean isEmpty(int cell) {
+        int word = cell >>> 6;
+        return ((colorSets[word] | colorSets[2 + word]) & 1L << cell) == 0;
+    }
+
+    /**
+     * @param cell Index of the cell.
+     * @param color <code>Hex.WHITE</code> or <code>Hex.BLACK</code>.
+     * @return Whether a piece of the given color stands on the cell.
+     */
+    public boolean isColor(int cell, int color) {
+        return (colorSets[color * 2 + (cell >>> 6)] & 1L << cell) != 0;
+    }
+
+    /**
+     * @param cell Index of the cell.
+     * @param color Color of the side asking.
+     * @return Whether a piece of the other color stands on the cell.
+     */
+    public boolean isEnemy(int cell, int color) {
+        return isColor(cell, 1 - color);
+    }
+
+    /**
+     * @param color <code>Hex.WHITE</code> or <code>Hex.BLACK</code>.
+     * @param word 0 for cells 0-63, 1 for cells 64-90.
+     * @return One word of the set of cells holding that color's pieces.
+     */
+    public long getColorSet(int color, int word) {
+        return colorSets[color * 2 + word];
+    }
+
+    /**
+     * @param id Piece ID, e.g. <code>Hex.KNIGHT</code>.
+     * @param word 0 for cells 0-63, 1 for cells 64-90.
+     * @return One word of the set of cells holding pieces of that type,
+     * of either color.
+     */
+    public long getPieceSet(int id, int word) {
+        return pieceSets[id * 2 + word];
+    }
+
+    /**
+     * @param word 0 for cells 0-63, 1 for cells 64-90.
+     * @return One word of the set of occupied cells.
+     */
+    public long getOccupied(int word) {
+        return colorSets[word] | colorSets[2 + word];
+    }
+}
@@ -0,0 +1,22 @@
+package com.lucienbao.board;
+
+/**
+ * Told about every piece put on or taken off a <code>Position</code>, so
+ * that something built from the pieces (an evaluator's state, say) can
+ * be kept up to date one piece at a time.
+ */
+public interface PositionListener {
+    /**
+     * @param cell Cell the piece was put on.
+     * @param color Color of the piece.
+     * @param id ID of the piece.
+     */
+    void pieceAdded(int cell, int color, int id);
+
+    /**
+     * @param cell Cell the piece was taken off.
+     * @param color Color of the piece.
+     * @param id ID of the piece.
+     */
+    void pieceRemoved(int cell, int color, int id);
+}
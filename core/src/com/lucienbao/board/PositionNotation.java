@@ -0,0 +1,289 @@
+package com.lucienbao.board;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Positions as a line of text, in the style of chess FEN. The starting
+ * position is
+ * <pre>
+ * 6/P5p/RP4pr/N1P3p1n/Q2P2p2q/BBB1P1p1bbb/K2P2p2k/N1P3p1n/RP4pr/P5p/6 w - 0 1
+ * </pre>
+ * The fields are separated by spaces:
+ * <ol>
+ * <li>The board, as the files a to k separated by <code>/</code>. Each
+ * file lists its cells from rank 1 up: a letter for a piece
+ * (<code>KQRBNP</code> for White, <code>kqrbnp</code> for Black) and a
+ * number for a run of empty cells. A file must add up to its number of
+ * ranks, from 6 on the a and k files to 11 on the f file.</li>
+ * <li>The side to move, <code>w</code> or <code>b</code>.</li>
+ * <li>The cell a pawn skipped with a double step on the last move, like
+ * <code>f6</code>, or <code>-</code>.</li>
+ * <li>The halfmove clock and the fullmove number. These two can be left
+ * out together, for 0 and 1.</li>
+ * </ol>
+ * Parsing is a single pass that puts pieces straight on a position, and
+ * it creates no objects unless the text is bad, so a parser can load
+ * millions of positions from a buffer. Only the syntax is checked: a
+ * position can be parsed with no kings, or with the side not to move in
+ * check. A parser keeps its place in fields, so each thread needs its
+ * own.
+ */
+public class PositionNotation {
+    private static final String PIECE_LETTERS = "KQRBNPkqrbnp";
+    // Numbers longer than this are rejected, to keep clear of overflow
+    private static final int MAX_DIGITS = 6;
+
+    // [character] -> color * 6 + id + 1, or 0 if not a piece
+    private static final int[] PIECES = new int[128];
+
+    static {
+        for(int i = 0; i < PIECE_LETTERS.length(); i++)
+            PIECES[PIECE_LETTERS.charAt(i)] = i + 1;
+    }
+
+    private final ByteText bytes = new ByteText();
+    private CharSequence text;
+    private int start;
+    private int index;
+    private int end;
+
+    /**
+     * Parse a whole string.
+     * @param text Position notation, with nothing before or after it.
+     * @param pos Position to set up. Left half set up if the text is bad.
+     * @throws IllegalArgumentException If the text is bad.
+     */
+    public void parse(CharSequence text, Position pos) {
+        if(parse(text, 0, pos) != text.length())
+            throw new IllegalArgumentException(
+                    "Unexpected text after position: " + text);
+    }
+
+    /**
+     * Parse the notation starting at some index of a text, and stop at the
+     * end of it. Whatever comes after, like a newline or the rest of a
+     * test suite line, is left alone.
+     * @param text Text holding the notation.
+     * @param start Index it starts at.
+     * @param pos Position to set up. Left half set up if the text is bad.
+     * @return Index just past the end of the notation.
+     * @throws IllegalArgumentException If the text is bad.
+     */
+    public int parse(CharSequence text, int start, Position pos) {
+        this.text = text;
+        this.start = start;
+        this.index = start;
+        this.end = text.length();
+        try {
+            parsePosition(pos);
+            return index;
+        } finally {
+            this.text = null;
+        }
+    }
+
+    /**
+     * Parse the notation starting at the position of a buffer of ASCII
+     * text, and move the buffer's position just past the end of it.
+     * @param buffer Buffer holding the notation.
+     * @param pos Position to set up. Left half set up if the text is bad.
+     * @throws IllegalArgumentException If the text is bad, leaving the
+     * buffer's position alone.
+     */
+    public void parse(ByteBuffer buffer, Position pos) {
+        bytes.buffer = buffer;
+        bytes.base = buffer.position();
+        bytes.length = buffer.remaining();
+        try {
+            buffer.position(bytes.base + parse(bytes, 0, pos));
+        } finally {
+            bytes.buffer = null;
+        }
+    }
+
+    private void parsePosition(Position pos) {
+        pos.clear();
+        int file = 0;
+        int rank = 0;
+        while(true) {
+            if(index == end)
+                throw error("Position ends in the board");
+            char c = text.charAt(index);
+            if(c == ' ')
+                break;
+            if(c == '/') {
+                if(rank != Position.numRanks(file) || file == 10)
+                    throw error("Wrong number of cells on file " + (char) ('a' + file));
+                file++;
+                rank = 0;
+                index++;
+            } else if(isDigit(c)) {
+                rank += readNumber();
+                if(rank > Position.numRanks(file))
+                    throw error("Too many cells on file " + (char) ('a' + file));
+            } else {
+                int piece = c < PIECES.length ? PIECES[c] - 1 : -1;
+                if(piece < 0)
+                    throw error("Unexpected '" + c + "'");
+                if(rank == Position.numRanks(file))
+                    throw error("Too many cells on file " + (char) ('a' + file));
+                pos.setPiece(Position.cell(file, rank++), piece / 6, piece % 6);
+                index++;
+            }
+        }
+        if(file != 10 || rank != Position.numRanks(file))
+            throw error("Board must have 11 files of the right length");
+
+        skipSpaces();
+        char side = next();
+        if(side == 'w')
+            pos.setSideToMove(Hex.WHITE);
+        else if(side == 'b')
+            pos.setSideToMove(Hex.BLACK);
+        else
+            throw error("Side to move must be 'w' or 'b'");
+
+        skipSpaces();
+        if(peek() == '-') {
+            index++;
+        } else {
+            int epFile = next() - 'a';
+            int epRank = isDigit(peek()) ? readNumber() - 1 : -1;
+            if(!Position.exists(epFile, epRank))
+                throw error("En passant cell must be a cell or '-'");
+            pos.setEnPassantCell(Position.cell(epFile, epRank));
+        }
+
+        // The counters are optional, so only take spaces followed by one
+        int counters = index;
+        while(counters < end && text.charAt(counters) == ' ')
+            counters++;
+        if(counters > index && counters < end && isDigit(text.charAt(counters))) {
+            index = counters;
+            int halfmoveClock = readNumber();
+            skipSpaces();
+            int fullmoveNumber = isDigit(peek()) ? readNumber() : 0;
+            if(fullmoveNumber < 1)
+                throw error("Fullmove number must be at least 1");
+            pos.setMoveCounters(halfmoveClock, fullmoveNumber);
+        }
+    }
+
+    private char peek() {
+        return index < end ? text.charAt(index) : 0;
+    }
+
+    private char next() {
+        if(index == end)
+            throw error("Position ends early");
+        return text.charAt(index++);
+    }
+
+    private void skipSpaces() {
+        if(peek() != ' ')
+            throw error("Expected a space");
+        while(peek() == ' ')
+            index++;
+    }
+
+    private int readNumber() {
+        int value = 0;
+        int digits = 0;
+        while(isDigit(peek())) {
+            if(++digits > MAX_DIGITS)
+                throw error("Number too long");
+            value = value * 10 + text.charAt(index++) - '0';
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return '0' <= c && c <= '9';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at character "
+                + (index - start + 1) + " of position: " + text);
+    }
+
+    /**
+     * @param pos A position.
+     * @return The position's notation.
+     */
+    public static String toString(Position pos) {
+        StringBuilder out = new StringBuilder(96);
+        append(pos, out);
+        return out.toString();
+    }
+
+    /**
+     * Write a position's notation to the end of a builder, without
+     * creating anything else.
+     * @param pos A position.
+     * @param out Builder to add to.
+     */
+    public static void append(Position pos, StringBuilder out) {
+        for(int file = 0; file < 11; file++) {
+            if(file > 0)
+                out.append('/');
+            int empty = 0;
+            for(int rank = 0; rank < Position.numRanks(file); rank++) {
+                int cell = Position.cell(file, rank);
+                if(pos.isEmpty(cell)) {
+                    empty++;
+                    continue;
+                }
+                if(empty > 0)
+                    out.append(empty);
+                empty = 0;
+                out.append(PIECE_LETTERS.charAt(pos.getColor(cell) * 6 + pos.getId(cell)));
+            }
+            if(empty > 0)
+                out.append(empty);
+        }
+
+        out.append(pos.getSideToMove() == Hex.WHITE ? " w " : " b ");
+        int enPassantCell = pos.getEnPassantCell();
+        if(enPassantCell == Position.NO_CELL)
+            out.append('-');
+        else
+            out.append((char) ('a' + Position.fileOf(enPassantCell)))
+                    .append(Position.rankOf(enPassantCell) + 1);
+        out.append(' ').append(pos.getHalfmoveClock())
+                .append(' ').append(pos.getFullmoveNumber());
+    }
+
+    /**
+     * A byte buffer seen as text from a base position, reused so that
+     * parsing buffers creates nothing.
+     */
+    private static class ByteText implements CharSequence {
+        private ByteBuffer buffer;
+        private int base;
+        private int length;
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(base + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            // Only for error messages, so stop at the end of the line
+            StringBuilder text = new StringBuilder();
+            for(int i = 0; i < length && charAt(i) != '\n'; i++)
+                text.append(charAt(i));
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.lucienbao.board;
+
+/**
+ * Random keys for Zobrist hashing of positions. A position's key is the
+ * XOR of the keys of every piece on its cell, the side-to-move key if
+ * Black is to move, and the key of the en passant cell if there is one.
+ * <p>
+ * The keys come from a fixed seed, so a position has the same key in
+ * every run. Anything stored by key (books, game archives) depends on
+ * that, so don't change the seed or the order the keys are drawn in.
+ */
+public class Zobrist {
+    private static final long SEED = 0x4865784368657373L; // "HexChess"
+
+    // [(color * 6 + id) * NUM_CELLS + cell]
+    private static final long[] PIECE_KEYS = new long[2 * 6 * Position.NUM_CELLS];
+    private static final long[] EN_PASSANT_KEYS = new long[Position.NUM_CELLS];
+    public static final long SIDE_KEY;
+
+    static {
+        long state = SEED;
+        for(int i = 0; i < PIECE_KEYS.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            PIECE_KEYS[i] = mix(state);
+        }
+        for(int i = 0; i < EN_PASSANT_KEYS.length; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            EN_PASSANT_KEYS[i] = mix(state);
+        }
+        state += 0x9E3779B97F4A7C15L;
+        SIDE_KEY = mix(state);
+    }
+
+    /**
+     * SplitMix64 finalizer.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @param color Color of the piece.
+     * @param id ID of the piece.
+     * @param cell Cell it stands on.
+     * @return Key of that piece on that cell.
+     */
+    public static long pieceKey(int color, int id, int cell) {
+        return PIECE_KEYS[(color * 6 + id) * Position.NUM_CELLS + cell];
+    }
+
+    /**
+     * @param cell En passant cell; must not be <code>Position.NO_CELL</code>.
+     * @return Key of that en passant cell.
+     */
+    public static long enPassantKey(int cell) {
+        return EN_PASSANT_KEYS[cell];
+    }
+}
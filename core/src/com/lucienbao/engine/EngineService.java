@@ -0,0 +1,175 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs searches on a worker thread of their own, so that whoever asks
+ * for a move (the render thread, usually) never waits for one.
+ * <p>
+ * Each search works on a copy of the position it was given, and its
+ * result is handed to a callback through an <code>Executor</code> of the
+ * caller's choosing; for the game that posts it to the render thread.
+ * Starting a new search or calling <code>cancel()</code> stops the
+ * current one and makes sure its result is never delivered, so a result
+ * that arrives always belongs to the latest request.
+ * <p>
+ * With an opening book set, positions in the book are answered with a
+ * book move straight away, without searching.
+ */
+public class EngineService {
+    /**
+     * Receives the result of a search.
+     */
+    public interface Callback {
+        /**
+         * @param result Result of the search; its best move is
+         *               <code>MoveRules.NO_MOVE</code> if there were no
+         *               legal moves.
+         */
+        void searchFinished(SearchResult result);
+    }
+
+    private final TranspositionTable table;
+    private final Search search;
+    private final Executor callbackExecutor;
+    private final ExecutorService worker;
+    private final AtomicBoolean stopFlag = new AtomicBoolean();
+    // Bumped by every request and cancel; a search whose number is no
+    // longer current is stale
+    private final AtomicInteger generation = new AtomicInteger();
+    // Only touched on the worker
+    private final Random random = new Random();
+    private OpeningBook book;
+
+    /**
+     * @param hashMegabytes Size of the transposition table in MiB.
+     * @param callbackExecutor Where to run callbacks.
+     */
+    public EngineService(int hashMegabytes, Executor callbackExecutor) {
+        this.table = new TranspositionTable(hashMegabytes);
+        this.search = new Search(table, stopFlag);
+        this.callbackExecutor = callbackExecutor;
+        this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "engine");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start searching a position, cancelling any search still running.
+     * @param position Position to search. It is copied, so the caller may
+     *                 change it straight away.
+     * @param limits When to stop.
+     * @param callback Gets the result, unless the search is cancelled first.
+     */
+    public void startSearch(Position position, final SearchLimits limits,
+                            final Callback callback) {
+        final int id = generation.incrementAndGet();
+        stopFlag.set(true);
+        final Position snapshot = new Position(position);
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Clear the flag before the check, so that a cancel
+                // arriving after the check still stops the search
+                stopFlag.set(false);
+                if(generation.get() != id)
+                    return;
+
+                final SearchResult result = bookMoveOrSearch(snapshot, limits);
+                if(result == null || generation.get() != id)
+                    return;
+
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Cancelled while the result was on its way
+                        if(generation.get() == id)
+                            callback.searchFinished(result);
+                    }
+                });
+            }
+        });
+    }
+
+    private SearchResult bookMoveOrSearch(Position position, SearchLimits limits) {
+        if(book != null) {
+            int move = book.pickMove(position, random);
+            if(move != MoveRules.NO_MOVE)
+                return new SearchResult(move, 0, 0, 0, 0, new int[] {move});
+        }
+        table.newSearch();
+        return search.search(position, limits);
+    }
+
+    /**
+     * Play from an opening book while the game is in it, from the next
+     * search on.
+     * @param book Book to use, or <code>null</code> for none.
+     */
+    public void setBook(final OpeningBook book) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                EngineService.this.book = book;
+            }
+        });
+    }
+
+    /**
+     * Play endings with few pieces from tablebases, from the next search
+     * on.
+     * @param tablebases Tables to use, or <code>null</code> for none.
+     */
+    public void setTablebases(final Tablebases tablebases) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                search.setTablebases(tablebases);
+            }
+        });
+    }
+
+    /**
+     * Evaluate with a neural network from the next search on.
+     * @param network Network to use, or <code>null</code> for none.
+     */
+    public void setNetwork(final NnueNetwork network) {
+        // On the worker, so it can't change in the middle of a search
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                search.setNetwork(network);
+            }
+        });
+    }
+
+    /**
+     * Stop the current search, if any, and drop its result.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+        stopFlag.set(true);
+    }
+
+    /**
+     * Cancel the current search and stop the worker thread for good.
+     */
+    public void shutdown() {
+        cancel();
+        worker.shutdownNow();
+    }
+}
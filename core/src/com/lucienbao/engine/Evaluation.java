@@ -0,0 +1,133 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Hex;
+import com.lucienbao.board.PieceSquareTables;
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+/**
+ * Static evaluation of positions, in centipawns from the point of view
+ * of the side to move: material and piece-square values, blended between
+ * middlegame and endgame by how much material is left, plus the pawn
+ * structure (see <code>PawnStructure</code>).
+ * <p>
+ * Against a bare king and pawns, a passed pawn the enemy king can't
+ * catch is as good as a queen. That is judged by the rule of the square:
+ * the king must reach the promotion cell no later than the pawn.
+ * <p>
+ * The sums this needs are kept up to date by <code>Position</code> as
+ * moves are made, so evaluating is a few arithmetic operations. Run with
+ * <code>-Dhexchess.verifyEval=true</code> to check them against a full
+ * recompute on every call.
+ */
+public class Evaluation {
+    /** Indexed by piece ID. The king is never traded, so it's worth 0. */
+    public static final int[] PIECE_VALUES = {0, 900, 500, 320, 300, 100};
+
+    private static final int UNSTOPPABLE_PASSER = 500;
+
+    private static final boolean VERIFY = Boolean.getBoolean("hexchess.verifyEval");
+
+    /**
+     * @param pos Position to evaluate.
+     * @return Score for the side to move.
+     */
+    public static int evaluate(Position pos) {
+        return evaluate(pos, null);
+    }
+
+    /**
+     * @param pos Position to evaluate.
+     * @param pawns Table to look the pawn structure up in, or
+     *              <code>null</code> to evaluate it from scratch.
+     * @return Score for the side to move.
+     */
+    public static int evaluate(Position pos, PawnTable pawns) {
+        long pawnData = pawns != null ? pawns.probe(pos) : PawnStructure.evaluate(pos);
+        if(VERIFY && pawnData != PawnStructure.evaluate(pos))
+            throw new IllegalStateException("Pawn table entry out of date after "
+                    + pos.getPly() + " moves");
+
+        int score = blend(pos.getMidgameScore() + PawnStructure.midgame(pawnData),
+                pos.getEndgameScore() + PawnStructure.endgame(pawnData), pos.getPhase())
+                + unstoppablePassers(pos, pawnData);
+        if(VERIFY && score != evaluateFromScratch(pos))
+            throw new IllegalStateException("Incremental evaluation out of sync after "
+                    + pos.getPly() + " moves");
+        return pos.getSideToMove() == Hex.WHITE ? score : -score;
+    }
+
+    /**
+     * Evaluate by going over every cell instead of reading the sums kept
+     * by the position. Far too slow for searching; meant for checking.
+     * @param pos Position to evaluate.
+     * @return Score for White.
+     */
+    public static int evaluateFromScratch(Position pos) {
+        int midgame = 0;
+        int endgame = 0;
+        int phase = 0;
+        for(int cell = 0; cell < Position.NUM_CELLS; cell++) {
+            int color = pos.getColor(cell);
+            if(color == Hex.EMPTY)
+                continue;
+            int id = pos.getId(cell);
+            midgame += PieceSquareTables.midgame(color, id, cell);
+            endgame += PieceSquareTables.endgame(color, id, cell);
+            phase += PieceSquareTables.PHASE_WEIGHTS[id];
+        }
+        long pawnData = PawnStructure.evaluate(pos);
+        return blend(midgame + PawnStructure.midgame(pawnData),
+                endgame + PawnStructure.endgame(pawnData), phase)
+                + unstoppablePassers(pos, pawnData);
+    }
+
+    /**
+     * @return Bonus for White for passed pawns that will promote before
+     * the enemy king can stop them.
+     */
+    private static int unstoppablePassers(Position pos, long pawnData) {
+        int score = 0;
+        for(int color = Hex.WHITE; color <= Hex.BLACK; color++) {
+            int passer = PawnStructure.mostAdvancedPasser(pawnData, color);
+            int enemy = 1 - color;
+            if(passer == Position.NO_CELL || hasPieces(pos, enemy))
+                continue;
+            int king = MoveRules.findKing(pos, enemy);
+            if(king == Position.NO_CELL)
+                continue;
+
+            int pawnMoves = PawnStructure.promotionDistance(passer, color);
+            if(MoveRules.PAWN_DOUBLE[color][passer] != Position.NO_CELL)
+                pawnMoves--;
+            int kingMoves = PawnStructure.kingDistance(king,
+                    PawnStructure.promotionCell(passer, color));
+            // The king gets a move in first if it's the enemy's turn
+            if(pos.getSideToMove() == enemy)
+                kingMoves--;
+            if(kingMoves > pawnMoves)
+                score += color == Hex.WHITE ? UNSTOPPABLE_PASSER : -UNSTOPPABLE_PASSER;
+        }
+        return score;
+    }
+
+    private static int blend(int midgame, int endgame, int phase) {
+        phase = Math.min(phase, PieceSquareTables.PHASE_MAX);
+        return (midgame * phase + endgame * (PieceSquareTables.PHASE_MAX - phase))
+                / PieceSquareTables.PHASE_MAX;
+    }
+
+    /**
+     * @param pos Position to look at.
+     * @param color Side to check.
+     * @return Whether that side has anything besides its king and pawns.
+     */
+    public static boolean hasPieces(Position pos, int color) {
+        for(int word = 0; word < 2; word++) {
+            long pawnsAndKing = pos.getPieceSet(Hex.PAWN, word) | pos.getPieceSet(Hex.KING, word);
+            if((pos.getColorSet(color, word) & ~pawnsAndKing) != 0)
+                return true;
+        }
+        return false;
+    }
+}
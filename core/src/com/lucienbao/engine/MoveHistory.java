@@ -0,0 +1,112 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+/**
+ * What a search has learned about quiet moves, for trying the good ones
+ * first:
+ * <ul>
+ *     <li>history: for each piece, from cell and to cell, how often
+ *     that move caused a cutoff, less how often it was tried and didn't;</li>
+ *     <li>killers: for each ply, the last two quiet moves that caused a
+ *     cutoff there;</li>
+ *     <li>countermoves: for each piece and the cell it just moved to,
+ *     the quiet move that last refuted that.</li>
+ * </ul>
+ * Pieces are numbered <code>color * 6 + id</code>.
+ */
+class MoveHistory {
+    /** History scores stay between -HISTORY_MAX and HISTORY_MAX. */
+    static final int HISTORY_MAX = 1 << 14;
+
+    private static final int PIECES = 12;
+    private static final int CELLS = Position.NUM_CELLS;
+
+    // [(piece * CELLS + from) * CELLS + to]
+    private final int[] history = new int[PIECES * CELLS * CELLS];
+    // [ply * 2 + slot]
+    private final int[] killers = new int[Search.MAX_PLY * 2];
+    // [piece * CELLS + to] of the previous move
+    private final int[] counterMoves = new int[PIECES * CELLS];
+
+    void clear() {
+        for(int i = 0; i < history.length; i++)
+            history[i] = 0;
+        for(int i = 0; i < killers.length; i++)
+            killers[i] = MoveRules.NO_MOVE;
+        for(int i = 0; i < counterMoves.length; i++)
+            counterMoves[i] = MoveRules.NO_MOVE;
+    }
+
+    /**
+     * @param pos Position the move is about to be played in.
+     * @param move A move of the side to move.
+     * @return History score of the move.
+     */
+    int getHistory(Position pos, int move) {
+        return history[historyIndex(pos, move)];
+    }
+
+    int getKiller(int ply, int slot) {
+        return killers[ply * 2 + slot];
+    }
+
+    /**
+     * @param pos Position to move in.
+     * @return The move that last refuted the opponent's last move, or
+     * <code>MoveRules.NO_MOVE</code>.
+     */
+    int getCounterMove(Position pos) {
+        int index = counterIndex(pos);
+        return index < 0 ? MoveRules.NO_MOVE : counterMoves[index];
+    }
+
+    /**
+     * Learn from a quiet move that caused a beta cutoff.
+     * @param pos Position the move was played in.
+     * @param ply Distance from the root.
+     * @param move The move.
+     * @param depth Depth the move was searched to.
+     * @param tried Quiet moves tried before it, which didn't cut off.
+     * @param triedCount Number of moves in <code>tried</code>.
+     */
+    void updateCutoff(Position pos, int ply, int move, int depth,
+                      int[] tried, int triedCount) {
+        int bonus = Math.min(depth * depth, HISTORY_MAX / 4);
+        addHistory(historyIndex(pos, move), bonus);
+        for(int i = 0; i < triedCount; i++)
+            addHistory(historyIndex(pos, tried[i]), -bonus);
+
+        if(killers[ply * 2] != move) {
+            killers[ply * 2 + 1] = killers[ply * 2];
+            killers[ply * 2] = move;
+        }
+
+        int index = counterIndex(pos);
+        if(index >= 0)
+            counterMoves[index] = move;
+    }
+
+    // Scores fade the closer they get to the limit, so they never
+    // overflow and recent results count for more than old ones
+    private void addHistory(int index, int bonus) {
+        history[index] += bonus - history[index] * Math.abs(bonus) / HISTORY_MAX;
+    }
+
+    private static int historyIndex(Position pos, int move) {
+        int from = MoveRules.getFrom(move);
+        int piece = pos.getColor(from) * 6 + pos.getId(from);
+        return (piece * CELLS + from) * CELLS + MoveRules.getTo(move);
+    }
+
+    private static int counterIndex(Position pos) {
+        if(pos.getPly() == 0)
+            return -1;
+        int previous = pos.getMove(pos.getPly() - 1);
+        if(previous == MoveRules.NO_MOVE)
+            return -1;
+        int to = MoveRules.getTo(previous);
+        return (pos.getColor(to) * 6 + pos.getId(to)) * CELLS + to;
+    }
+}
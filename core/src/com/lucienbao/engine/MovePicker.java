@@ -0,0 +1,244 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Hex;
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+/**
+ * Hands out the legal moves of a position one at a time, likeliest
+ * best first, doing only as much work as the moves asked for need:
+ * <ol>
+ *     <li>the hash move, checked for legality but without generating
+ *     anything else, since it often causes a cutoff on its own;</li>
+ *     <li>captures and promotions, most valuable victim first and then
+ *     least valuable attacker first (MVV-LVA), picked one by one;
+ *     captures that lose material (see <code>StaticExchange</code>) are
+ *     put off until last;</li>
+ *     <li>quiet moves: the two killers, then the countermove, then the
+ *     rest by history score;</li>
+ *     <li>the losing captures.</li>
+ * </ol>
+ * In quiescence search, only the winning and even captures and the
+ * queen promotions are handed out.
+ * <p>
+ * One picker is used per ply and reused for every node at that ply.
+ */
+class MovePicker {
+    private static final int STAGE_HASH = 0;
+    private static final int STAGE_GENERATE = 1;
+    private static final int STAGE_TACTICAL = 2;
+    private static final int STAGE_SCORE_QUIETS = 3;
+    private static final int STAGE_QUIETS = 4;
+    private static final int STAGE_BAD_CAPTURES = 5;
+    private static final int STAGE_DONE = 6;
+
+    // Above any history score
+    private static final int KILLER_SCORE = 4 * MoveHistory.HISTORY_MAX;
+    private static final int COUNTER_MOVE_SCORE = 2 * MoveHistory.HISTORY_MAX;
+    // LVA part of MVV-LVA, by piece ID: the king is the worst attacker
+    private static final int[] ATTACKER_RANK = {6, 5, 4, 3, 2, 1};
+
+    private final MoveHistory moveHistory;
+    private final int[] moves = new int[MoveRules.MAX_MOVES];
+    private final int[] scores = new int[MoveRules.MAX_MOVES];
+    private final int[] badCaptures = new int[MoveRules.MAX_MOVES];
+
+    private Position position;
+    private boolean ordered;
+    private boolean quiescence;
+    private int stage;
+    private int hashMove;
+    private int ply;
+    private int index;
+    private int tacticalEnd;
+    private int count;
+    private int badCount;
+
+    MovePicker(MoveHistory moveHistory) {
+        this.moveHistory = moveHistory;
+    }
+
+    /**
+     * Start on a new node.
+     * @param position Position to pick moves in.
+     * @param hashMove Move from the transposition table, or
+     *                 <code>MoveRules.NO_MOVE</code>.
+     * @param ply Distance from the root.
+     * @param ordered Whether to order moves at all; if not, they come
+     *                in the order the generator makes them.
+     */
+    void init(Position position, int hashMove, int ply, boolean ordered) {
+        this.position = position;
+        this.hashMove = hashMove;
+        this.ply = ply;
+        this.ordered = ordered;
+        this.quiescence = false;
+        this.index = 0;
+        this.badCount = 0;
+        this.stage = ordered ? STAGE_HASH : STAGE_QUIETS;
+        if(!ordered)
+            count = MoveRules.generateLegalMoves(position, moves, 0);
+    }
+
+    /**
+     * Start on a quiescence node.
+     * @param position Position to pick moves in.
+     */
+    void initQuiescence(Position position) {
+        this.position = position;
+        this.hashMove = MoveRules.NO_MOVE;
+        this.ordered = true;
+        this.quiescence = true;
+        this.index = 0;
+        this.badCount = 0;
+        this.stage = STAGE_GENERATE;
+    }
+
+    /**
+     * @return The next move, or <code>MoveRules.NO_MOVE</code> when
+     * there are no more.
+     */
+    int next() {
+        switch(stage) {
+            case STAGE_HASH:
+                stage = STAGE_GENERATE;
+                if(hashMove != MoveRules.NO_MOVE
+                        && MoveRules.isLegal(position, hashMove, moves))
+                    return hashMove;
+                hashMove = MoveRules.NO_MOVE;
+                // fall through
+            case STAGE_GENERATE:
+                generate();
+                stage = STAGE_TACTICAL;
+                // fall through
+            case STAGE_TACTICAL:
+                while(index < tacticalEnd) {
+                    int move = pickBest();
+                    if(MoveRules.getCode(move) != MoveRules.CAPTURE
+                            || StaticExchange.isAtLeast(position, move, 0))
+                        return move;
+                    badCaptures[badCount++] = move;
+                }
+                if(quiescence) {
+                    stage = STAGE_DONE;
+                    return MoveRules.NO_MOVE;
+                }
+                stage = STAGE_SCORE_QUIETS;
+                // fall through
+            case STAGE_SCORE_QUIETS:
+                sortQuiets();
+                stage = STAGE_QUIETS;
+                // fall through
+            case STAGE_QUIETS:
+                if(index < count)
+                    return moves[index++];
+                stage = STAGE_BAD_CAPTURES;
+                index = 0;
+                // fall through
+            case STAGE_BAD_CAPTURES:
+                if(index < badCount)
+                    return badCaptures[index++];
+                stage = STAGE_DONE;
+                // fall through
+            default:
+                return MoveRules.NO_MOVE;
+        }
+    }
+
+    /**
+     * Generate the legal moves, less the hash move already tried, with
+     * captures and promotions first.
+     */
+    private void generate() {
+        int generated = MoveRules.generateLegalMoves(position, moves, 0);
+        count = 0;
+        tacticalEnd = 0;
+        for(int i = 0; i < generated; i++) {
+            int move = moves[i];
+            if(move == hashMove)
+                continue;
+            if(quiescence && !isQuiescent(move))
+                continue;
+            moves[count++] = move;
+            if(MoveRules.getCode(move) != MoveRules.MOVE) {
+                moves[count - 1] = moves[tacticalEnd];
+                moves[tacticalEnd] = move;
+                scores[tacticalEnd++] = tacticalScore(move);
+            }
+        }
+    }
+
+    // Captures and queen promotions; underpromotions are hardly ever
+    // better, and quiet moves are what quiescence search leaves out
+    private static boolean isQuiescent(int move) {
+        switch(MoveRules.getCode(move)) {
+            case MoveRules.CAPTURE:
+            case MoveRules.CAPTURE_EN_PASSANT:
+                return true;
+            case MoveRules.MOVE_PROMOTE:
+            case MoveRules.CAPTURE_PROMOTE:
+                return MoveRules.getPromotion(move) == Hex.QUEEN;
+            default:
+                return false;
+        }
+    }
+
+    private int tacticalScore(int move) {
+        int code = MoveRules.getCode(move);
+        int victim = 0;
+        if(code == MoveRules.CAPTURE || code == MoveRules.CAPTURE_PROMOTE)
+            victim = Evaluation.PIECE_VALUES[position.getId(MoveRules.getTo(move))];
+        else if(code == MoveRules.CAPTURE_EN_PASSANT)
+            victim = Evaluation.PIECE_VALUES[Hex.PAWN];
+        if(code == MoveRules.MOVE_PROMOTE || code == MoveRules.CAPTURE_PROMOTE)
+            victim += Evaluation.PIECE_VALUES[MoveRules.getPromotion(move)];
+        return victim * 8 - ATTACKER_RANK[position.getId(MoveRules.getFrom(move))];
+    }
+
+    /**
+     * Selection sort, one step at a time: there are few captures, and
+     * often only the first is needed.
+     */
+    private int pickBest() {
+        int best = index;
+        for(int i = index + 1; i < tacticalEnd; i++)
+            if(scores[i] > scores[best])
+                best = i;
+        int move = moves[best];
+        moves[best] = moves[index];
+        scores[best] = scores[index];
+        moves[index] = move;
+        return moves[index++];
+    }
+
+    /**
+     * Score the quiet moves and insertion-sort them, best first.
+     */
+    private void sortQuiets() {
+        int killer1 = moveHistory.getKiller(ply, 0);
+        int killer2 = moveHistory.getKiller(ply, 1);
+        int counterMove = moveHistory.getCounterMove(position);
+
+        for(int i = tacticalEnd; i < count; i++) {
+            int move = moves[i];
+            int score;
+            if(move == killer1)
+                score = KILLER_SCORE + 1;
+            else if(move == killer2)
+                score = KILLER_SCORE;
+            else if(move == counterMove)
+                score = COUNTER_MOVE_SCORE;
+            else
+                score = moveHistory.getHistory(position, move);
+
+            int j = i - 1;
+            while(j >= tacticalEnd && scores[j] < score) {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            scores[j + 1] = score;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Hex;
+import com.lucienbao.board.Position;
+import com.lucienbao.board.PositionListener;
+import com.lucienbao.utils.MoveRules;
+
+/**
+ * Evaluates positions with an <code>NnueNetwork</code>.
+ * <p>
+ * The hidden layer of each side (its accumulator) is the sum of the
+ * weights of every piece on the board, so it only has to change by the
+ * pieces a move touches. The evaluator listens to its position and adds
+ * or subtracts one row of weights per piece put on or taken off, in
+ * <code>makeMove()</code> and <code>unmakeMove()</code> alike. Only when
+ * a king moves to another bucket is that side's accumulator rebuilt, and
+ * not until the next evaluation.
+ * <p>
+ * The inner loops are plain loops over <code>short</code> arrays, which
+ * the JIT turns into vector instructions. Nothing is allocated after
+ * construction.
+ * <p>
+ * Like <code>Evaluation</code>, run with
+ * <code>-Dhexchess.verifyEval=true</code> to check the accumulators
+ * against a rebuild on every call.
+ */
+public class NnueEvaluator implements PositionListener {
+    private static final boolean VERIFY = Boolean.getBoolean("hexchess.verifyEval");
+
+    private final NnueNetwork network;
+    private final int hiddenSize;
+    // [color]: that side's view of the board
+    private final short[][] accumulators;
+    private final int[] buckets = new int[2];
+    private final boolean[] stale = new boolean[2];
+    private final short[] scratch;
+    private Position position;
+
+    public NnueEvaluator(NnueNetwork network) {
+        this.network = network;
+        this.hiddenSize = network.hiddenSize;
+        this.accumulators = new short[2][hiddenSize];
+        this.scratch = new short[hiddenSize];
+    }
+
+    /**
+     * Start following a position, instead of any followed before.
+     * @param position Position to evaluate from now on.
+     */
+    public void attach(Position position) {
+        if(this.position != null)
+            this.position.setListener(null);
+        this.position = position;
+        position.setListener(this);
+        stale[Hex.WHITE] = true;
+        stale[Hex.BLACK] = true;
+    }
+
+    /**
+     * Stop following the position.
+     */
+    public void detach() {
+        if(position != null)
+            position.setListener(null);
+        position = null;
+    }
+
+    /**
+     * @return Score of the attached position for the side to move, in
+     * centipawns.
+     */
+    public int evaluate() {
+        for(int color = Hex.WHITE; color <= Hex.BLACK; color++) {
+            if(stale[color]) {
+                refresh(color, accumulators[color]);
+                stale[color] = false;
+            } else if(VERIFY) {
+                refresh(color, scratch);
+                for(int i = 0; i < hiddenSize; i++)
+                    if(scratch[i] != accumulators[color][i])
+                        throw new IllegalStateException("Accumulator out of sync after "
+                                + position.getPly() + " moves");
+            }
+        }
+
+        int side = position.getSideToMove();
+        long output = activate(accumulators[side], 0)
+                + activate(accumulators[1 - side], hiddenSize)
+                + network.outputBias;
+        return (int) (output * network.scale / (network.qa * network.qb));
+    }
+
+    /**
+     * Clipped ReLU of one side's hidden layer, times its output weights.
+     */
+    private long activate(short[] accumulator, int weightOffset) {
+        short[] weights = network.outputWeights;
+        int qa = network.qa;
+        long sum = 0;
+        for(int i = 0; i < hiddenSize; i++) {
+            int value = Math.min(Math.max(accumulator[i], 0), qa);
+            sum += value * weights[weightOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Rebuild one side's accumulator from the pieces on the board.
+     */
+    private void refresh(int perspective, short[] accumulator) {
+        int bucket = network.bucket(perspective, MoveRules.findKing(position, perspective));
+        buckets[perspective] = bucket;
+        System.arraycopy(network.featureBiases, 0, accumulator, 0, hiddenSize);
+        for(int cell = 0; cell < Position.NUM_CELLS; cell++) {
+            int color = position.getColor(cell);
+            if(color != Hex.EMPTY)
+                add(accumulator, network.featureOffset(perspective, bucket, cell,
+                        color, position.getId(cell)));
+        }
+    }
+
+    @Override
+    public void pieceAdded(int cell, int color, int id) {
+        // A king in a new bucket changes every feature of its side
+        if(id == Hex.KING && !stale[color]
+                && network.bucket(color, cell) != buckets[color])
+            stale[color] = true;
+
+        for(int perspective = Hex.WHITE; perspective <= Hex.BLACK; perspective++)
+            if(!stale[perspective])
+                add(accumulators[perspective], network.featureOffset(perspective,
+                        buckets[perspective], cell, color, id));
+    }
+
+    @Override
+    public void pieceRemoved(int cell, int color, int id) {
+        for(int perspective = Hex.WHITE; perspective <= Hex.BLACK; perspective++)
+            if(!stale[perspective])
+                subtract(accumulators[perspective], network.featureOffset(perspective,
+                        buckets[perspective], cell, color, id));
+    }
+
+    private void add(short[] accumulator, int offset) {
+        short[] weights = network.featureWeights;
+        for(int i = 0; i < hiddenSize; i++)
+            accumulator[i] += weights[offset + i];
+    }
+
+    private void subtract(short[] accumulator, int offset) {
+        short[] weights = network.featureWeights;
+        for(int i = 0; i < hiddenSize; i++)
+            accumulator[i] -= weights[offset + i];
+    }
+}
@@ -0,0 +1,197 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Hex;
+import com.lucienbao.board.Position;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The weights of an efficiently updatable neural network (NNUE) for
+ * evaluating positions, see <code>NnueEvaluator</code>.
+ * <p>
+ * The network looks at the board from each side in turn. From one
+ * side's point of view an input feature is (king bucket, own or enemy
+ * piece, piece ID, cell), where Black sees the board mirrored with
+ * <code>Position.mirror()</code> and the king bucket depends on where its
+ * own king stands. That gives <code>buckets * 2 * 6 * 91</code> inputs,
+ * each feeding a hidden layer of <code>hiddenSize</code> neurons; both
+ * sides share the weights. The two hidden layers, side to move first,
+ * are clipped to <code>[0, qa]</code> and summed with the output weights
+ * into one score.
+ * <p>
+ * File format, all little-endian:
+ * <pre>
+ * bytes  "HXNN"
+ * int32  version (1)
+ * int32  hiddenSize, buckets, qa, qb, scale
+ * int8   bucket of each of the 91 king cells, as White sees them
+ * int16  feature weights [feature][hiddenSize]
+ * int16  feature biases [hiddenSize]
+ * int16  output weights [2 * hiddenSize]
+ * int32  output bias
+ * </pre>
+ * The score in centipawns is
+ * <code>(output + bias) * scale / (qa * qb)</code>.
+ */
+public class NnueNetwork {
+    private static final int MAGIC = 'H' | 'X' << 8 | 'N' << 16 | 'N' << 24;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 7 * 4 + Position.NUM_CELLS;
+
+    /** Inputs per king bucket: own/enemy, piece ID, cell. */
+    public static final int FEATURES_PER_BUCKET = 2 * 6 * Position.NUM_CELLS;
+
+    final int hiddenSize;
+    final int buckets;
+    final int qa;
+    final int qb;
+    final int scale;
+    final byte[] kingBuckets;
+    final short[] featureWeights;
+    final short[] featureBiases;
+    final short[] outputWeights;
+    final int outputBias;
+
+    /**
+     * Create a network from its weights; the arrays are used as they are,
+     * not copied.
+     * @param hiddenSize Neurons in the hidden layer of each side.
+     * @param kingBuckets King bucket of each cell, from 0 to
+     *                    <code>buckets - 1</code>, as White sees them.
+     * @param featureWeights <code>[feature * hiddenSize + neuron]</code>.
+     * @param featureBiases One per hidden neuron.
+     * @param outputWeights Side to move's neurons, then the other side's.
+     * @param outputBias Added to the output.
+     * @param qa Activations are clipped to <code>[0, qa]</code>.
+     * @param qb Scale of the output weights.
+     * @param scale Centipawns per unit of output.
+     */
+    public NnueNetwork(int hiddenSize, byte[] kingBuckets, short[] featureWeights,
+                       short[] featureBiases, short[] outputWeights, int outputBias,
+                       int qa, int qb, int scale) {
+        int buckets = 0;
+        for(byte bucket : kingBuckets) {
+            if(bucket < 0)
+                throw new IllegalArgumentException("Negative king bucket");
+            buckets = Math.max(buckets, bucket + 1);
+        }
+
+        if(kingBuckets.length != Position.NUM_CELLS
+                || featureWeights.length != buckets * FEATURES_PER_BUCKET * hiddenSize
+                || featureBiases.length != hiddenSize
+                || outputWeights.length != 2 * hiddenSize)
+            throw new IllegalArgumentException("Network layers don't fit together");
+
+        this.hiddenSize = hiddenSize;
+        this.buckets = buckets;
+        this.kingBuckets = kingBuckets;
+        this.featureWeights = featureWeights;
+        this.featureBiases = featureBiases;
+        this.outputWeights = outputWeights;
+        this.outputBias = outputBias;
+        this.qa = qa;
+        this.qb = qb;
+        this.scale = scale;
+    }
+
+    /**
+     * Read a network in the format described above.
+     * @param in Stream to read; it is read to the end but not closed.
+     * @return The network.
+     * @throws IOException If reading fails or the data isn't a network.
+     */
+    public static NnueNetwork read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1 << 16];
+        int n;
+        while((n = in.read(chunk)) > 0)
+            bytes.write(chunk, 0, n);
+        ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+
+        if(data.remaining() < HEADER_BYTES || data.getInt() != MAGIC)
+            throw new IOException("Not a network file");
+        if(data.getInt() != VERSION)
+            throw new IOException("Unsupported network version");
+        int hiddenSize = data.getInt();
+        int buckets = data.getInt();
+        int qa = data.getInt();
+        int qb = data.getInt();
+        int scale = data.getInt();
+        byte[] kingBuckets = new byte[Position.NUM_CELLS];
+        data.get(kingBuckets);
+
+        long expected = 2L * (buckets * (long) FEATURES_PER_BUCKET * hiddenSize
+                + 3L * hiddenSize) + 4;
+        if(hiddenSize <= 0 || buckets <= 0 || data.remaining() != expected)
+            throw new IOException("Network file has the wrong size");
+
+        short[] featureWeights = new short[buckets * FEATURES_PER_BUCKET * hiddenSize];
+        short[] featureBiases = new short[hiddenSize];
+        short[] outputWeights = new short[2 * hiddenSize];
+        data.asShortBuffer().get(featureWeights);
+        data.position(data.position() + 2 * featureWeights.length);
+        data.asShortBuffer().get(featureBiases);
+        data.position(data.position() + 2 * featureBiases.length);
+        data.asShortBuffer().get(outputWeights);
+        data.position(data.position() + 2 * outputWeights.length);
+        int outputBias = data.getInt();
+
+        try {
+            return new NnueNetwork(hiddenSize, kingBuckets, featureWeights,
+                    featureBiases, outputWeights, outputBias, qa, qb, scale);
+        } catch(IllegalArgumentException e) {
+            throw new IOException("Network file is inconsistent", e);
+        }
+    }
+
+    /**
+     * Write the network in the format described above.
+     * @param out Stream to write to; it is not closed.
+     * @throws IOException If writing fails.
+     */
+    public void write(OutputStream out) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(HEADER_BYTES
+                + 2 * (featureWeights.length + 3 * hiddenSize) + 4)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(MAGIC).putInt(VERSION)
+                .putInt(hiddenSize).putInt(buckets)
+                .putInt(qa).putInt(qb).putInt(scale)
+                .put(kingBuckets);
+        data.asShortBuffer().put(featureWeights);
+        data.position(data.position() + 2 * featureWeights.length);
+        data.asShortBuffer().put(featureBiases);
+        data.position(data.position() + 2 * featureBiases.length);
+        data.asShortBuffer().put(outputWeights);
+        data.position(data.position() + 2 * outputWeights.length);
+        data.putInt(outputBias);
+        out.write(data.array());
+    }
+
+    /**
+     * @param perspective Side looking at the board.
+     * @param kingCell Cell of that side's king, or <code>Position.NO_CELL</code>.
+     * @return King bucket that side's features are in.
+     */
+    int bucket(int perspective, int kingCell) {
+        if(kingCell == Position.NO_CELL)
+            return 0;
+        return kingBuckets[perspective == Hex.WHITE ? kingCell : Position.mirror(kingCell)];
+    }
+
+    /**
+     * @return Offset in <code>featureWeights</code> of the weights of a
+     * piece, as seen by one side.
+     */
+    int featureOffset(int perspective, int bucket, int cell, int color, int id) {
+        int relativeCell = perspective == Hex.WHITE ? cell : Position.mirror(cell);
+        int side = color == perspective ? 0 : 1;
+        int feature = bucket * FEATURES_PER_BUCKET
+                + (side * 6 + id) * Position.NUM_CELLS + relativeCell;
+        return feature * hiddenSize;
+    }
+}
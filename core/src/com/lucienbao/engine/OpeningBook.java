@@ -0,0 +1,189 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Book of opening moves, read straight from a memory-mapped file: it
+ * takes no heap and nothing is parsed when it is opened, so lookups can
+ * start right away. Build one with <code>OpeningBookBuilder</code>.
+ * <p>
+ * The file is a header followed by fixed-size records sorted by Zobrist
+ * key (as a signed long), then by move, so all the moves of a position
+ * are next to each other and found by binary search. File format, all
+ * little-endian:
+ * <pre>
+ * bytes  "HXBK"
+ * int32  version (1)
+ * then per record:
+ * int64  Zobrist key of the position
+ * int32  move
+ * int32  weight, how often to play the move relative to the others
+ * int32  games, wins, draws, losses, for the side playing the move
+ * </pre>
+ * Lookups only read the mapping, so one book can be shared by any number
+ * of threads.
+ */
+public class OpeningBook {
+    static final int MAGIC = 'H' | 'X' << 8 | 'B' << 16 | 'K' << 24;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int RECORD_BYTES = 32;
+
+    // Mappings are capped at 2 GB, so bigger books are split. Records
+    // never straddle two segments.
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int RECORDS_PER_SEGMENT_SHIFT = SEGMENT_SHIFT - 5;
+    private static final long RECORD_MASK = (1L << RECORDS_PER_SEGMENT_SHIFT) - 1;
+
+    private final ByteBuffer[] segments;
+    private final long size;
+
+    private OpeningBook(ByteBuffer[] segments, long size) {
+        this.segments = segments;
+        this.size = size;
+    }
+
+    /**
+     * Map a book file. The file stays mapped after this returns, without
+     * holding a file handle open, until the book is garbage collected.
+     * @param file File to open.
+     * @return The book.
+     * @throws IOException If the file can't be read or isn't a book.
+     */
+    public static OpeningBook open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long bytes = channel.size() - HEADER_BYTES;
+            if(bytes < 0 || bytes % RECORD_BYTES != 0)
+                throw new IOException("Opening book has the wrong size");
+
+            byte[] headerBytes = new byte[HEADER_BYTES];
+            raf.readFully(headerBytes);
+            ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+            if(header.getInt() != MAGIC)
+                throw new IOException("Not an opening book");
+            if(header.getInt() != VERSION)
+                throw new IOException("Unsupported opening book version");
+
+            long segmentBytes = 1L << SEGMENT_SHIFT;
+            ByteBuffer[] segments = new ByteBuffer[(int) ((bytes + segmentBytes - 1) / segmentBytes)];
+            for(int i = 0; i < segments.length; i++) {
+                long offset = i * segmentBytes;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + offset, Math.min(segmentBytes, bytes - offset))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new OpeningBook(segments, bytes / RECORD_BYTES);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return Number of records, one per position and move.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Find the moves of a position.
+     * @param key Zobrist key of the position.
+     * @return Index of its first record, or -1 if it isn't in the book.
+     * Its other records follow, up to the first with another key.
+     */
+    public long find(long key) {
+        long low = 0;
+        long high = size;
+        while(low < high) {
+            long middle = (low + high) >>> 1;
+            if(getKey(middle) < key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low < size && getKey(low) == key ? low : -1;
+    }
+
+    /**
+     * Choose a book move at random, each with a chance in proportion to
+     * its weight. Moves that aren't legal in the position (when two
+     * positions share a key) are skipped.
+     * @param pos Position to play in.
+     * @param random Source of randomness.
+     * @return The move, or <code>MoveRules.NO_MOVE</code> if the book has
+     * none with any weight.
+     */
+    public int pickMove(Position pos, Random random) {
+        long key = pos.getKey();
+        long first = find(key);
+        if(first < 0)
+            return MoveRules.NO_MOVE;
+
+        int[] scratch = new int[MoveRules.MAX_MOVES];
+        long total = 0;
+        for(long i = first; i < size && getKey(i) == key; i++)
+            if(getWeight(i) > 0 && MoveRules.isLegal(pos, getMove(i), scratch))
+                total += getWeight(i);
+        if(total == 0)
+            return MoveRules.NO_MOVE;
+
+        long pick = (long) (random.nextDouble() * total);
+        for(long i = first; ; i++) {
+            if(getWeight(i) <= 0 || !MoveRules.isLegal(pos, getMove(i), scratch))
+                continue;
+            pick -= getWeight(i);
+            if(pick < 0)
+                return getMove(i);
+        }
+    }
+
+    public long getKey(long index) {
+        return segment(index).getLong(offset(index));
+    }
+
+    public int getMove(long index) {
+        return segment(index).getInt(offset(index) + 8);
+    }
+
+    public int getWeight(long index) {
+        return segment(index).getInt(offset(index) + 12);
+    }
+
+    /**
+     * @return Number of games the move was played in.
+     */
+    public int getGames(long index) {
+        return segment(index).getInt(offset(index) + 16);
+    }
+
+    public int getWins(long index) {
+        return segment(index).getInt(offset(index) + 20);
+    }
+
+    public int getDraws(long index) {
+        return segment(index).getInt(offset(index) + 24);
+    }
+
+    public int getLosses(long index) {
+        return segment(index).getInt(offset(index) + 28);
+    }
+
+    private ByteBuffer segment(long index) {
+        return segments[(int) (index >>> RECORDS_PER_SEGMENT_SHIFT)];
+    }
+
+    private static int offset(long index) {
+        return (int) (index & RECORD_MASK) * RECORD_BYTES;
+    }
+}
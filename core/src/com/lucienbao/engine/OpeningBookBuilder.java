@@ -0,0 +1,295 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Hex;
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.LongPairSort;
+import com.lucienbao.utils.MoveRules;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builds an <code>OpeningBook</code> from any number of games, using a
+ * fixed amount of memory.
+ * <p>
+ * Every (position, move, result) of the games' openings goes into a
+ * buffer. When it fills up it is sorted, equal position and move pairs
+ * are merged into one record, and the records are written to a
+ * temporary file (a run). <code>build()</code> then merges the runs into
+ * the book, adding up the records of each position and move across
+ * runs. Only one record per run is in memory during the merge.
+ * <p>
+ * A move's weight in the book is the points it scored: 2 per win and 1
+ * per draw, so moves that only ever lost are never picked.
+ */
+public class OpeningBookBuilder {
+    public static final int WHITE_WINS = 0;
+    public static final int DRAW = 1;
+    public static final int BLACK_WINS = 2;
+
+    // Results for the side making the move: WIN, DRAW or a loss
+    private static final int WIN = 0;
+
+    private static final int IO_BUFFER_BYTES = 1 << 16;
+
+    private final File tempDirectory;
+    private final int maxPly;
+    // Sorted together: keys, then move << 2 | result
+    private final long[] keys;
+    private final long[] values;
+    private int count;
+    private final List<File> runs = new ArrayList<>();
+
+    private final Position position = new Position();
+    private final int[] scratch = new int[MoveRules.MAX_MOVES];
+
+    /**
+     * @param tempDirectory Where to write runs, or <code>null</code> for
+     *                      the system's temporary directory.
+     * @param maxPly Number of moves of each game to put in the book.
+     * @param bufferEntries Positions to hold in memory before writing a
+     *                      run; each takes 16 bytes.
+     */
+    public OpeningBookBuilder(File tempDirectory, int maxPly, int bufferEntries) {
+        if(bufferEntries < 1)
+            throw new IllegalArgumentException("Buffer must hold at least one entry");
+        this.tempDirectory = tempDirectory;
+        this.maxPly = maxPly;
+        this.keys = new long[bufferEntries];
+        this.values = new long[bufferEntries];
+    }
+
+    /**
+     * Add the opening of a game.
+     * @param moves Moves of the game, from the starting position.
+     * @param length Number of moves.
+     * @param result <code>WHITE_WINS</code>, <code>DRAW</code> or
+     *               <code>BLACK_WINS</code>.
+     * @return Whether every move was legal. If not, the moves before the
+     * first illegal one are still added.
+     * @throws IOException If writing a run fails.
+     */
+    public boolean addGame(int[] moves, int length, int result) throws IOException {
+        if(result < WHITE_WINS || result > BLACK_WINS)
+            throw new IllegalArgumentException("Unknown result " + result);
+
+        boolean legal = true;
+        int plies = Math.min(length, maxPly);
+        for(int i = 0; i < plies; i++) {
+            int move = moves[i];
+            if(!MoveRules.isLegal(position, move, scratch)) {
+                legal = false;
+                break;
+            }
+            if(count == keys.length)
+                writeRun();
+            // Flip the result for Black
+            int moverResult = position.getSideToMove() == Hex.WHITE ? result : 2 - result;
+            keys[count] = position.getKey();
+            values[count] = (long) move << 2 | moverResult;
+            count++;
+            position.makeMove(move);
+        }
+        while(position.getPly() > 0)
+            position.unmakeMove();
+        return legal;
+    }
+
+    /**
+     * Write the book, then delete the runs. The builder can't be used
+     * afterwards.
+     * @param file File to write the book to.
+     * @param minGames Leave out moves played in fewer games than this.
+     * @throws IOException If reading or writing fails.
+     */
+    public void build(File file, int minGames) throws IOException {
+        try {
+            if(count > 0)
+                writeRun();
+            merge(file, minGames);
+        } finally {
+            for(File run : runs)
+                run.delete();
+            runs.clear();
+        }
+    }
+
+    /**
+     * Sort the buffer, and write it out as a run of merged records.
+     */
+    private void writeRun() throws IOException {
+        LongPairSort.sort(keys, values, 0, count - 1);
+        File run = File.createTempFile("hexchess-book", ".run", tempDirectory);
+        run.deleteOnExit();
+        runs.add(run);
+
+        RecordWriter out = new RecordWriter(run, false);
+        try {
+            int i = 0;
+            while(i < count) {
+                long key = keys[i];
+                int move = (int) (values[i] >>> 2);
+                int wins = 0, draws = 0, losses = 0;
+                for(; i < count && keys[i] == key && values[i] >>> 2 == move; i++) {
+                    int result = (int) (values[i] & 3);
+                    if(result == WIN)
+                        wins++;
+                    else if(result == DRAW)
+                        draws++;
+                    else
+                        losses++;
+                }
+                out.write(key, move, 0, wins + draws + losses, wins, draws, losses);
+            }
+        } finally {
+            out.close();
+        }
+        count = 0;
+    }
+
+    private void merge(File file, int minGames) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runs.size()),
+                new Comparator<RunReader>() {
+                    @Override
+                    public int compare(RunReader a, RunReader b) {
+                        int order = Long.compare(a.key, b.key);
+                        return order != 0 ? order : Integer.compare(a.move, b.move);
+                    }
+                });
+        RecordWriter out = new RecordWriter(file, true);
+        try {
+            for(File run : runs) {
+                RunReader reader = new RunReader(run);
+                if(reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+
+            long key = 0;
+            int move = MoveRules.NO_MOVE;
+            int wins = 0, draws = 0, losses = 0;
+            while(!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if(reader.key != key || reader.move != move) {
+                    if(move != MoveRules.NO_MOVE && wins + draws + losses >= minGames)
+                        out.write(key, move, 2 * wins + draws, wins + draws + losses,
+                                wins, draws, losses);
+                    key = reader.key;
+                    move = reader.move;
+                    wins = draws = losses = 0;
+                }
+                wins += reader.wins;
+                draws += reader.draws;
+                losses += reader.losses;
+
+                if(reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+            if(move != MoveRules.NO_MOVE && wins + draws + losses >= minGames)
+                out.write(key, move, 2 * wins + draws, wins + draws + losses,
+                        wins, draws, losses);
+        } finally {
+            for(RunReader reader : queue)
+                reader.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Buffered writer of book records, with or without the book header.
+     */
+    private static class RecordWriter {
+        private final FileOutputStream stream;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        RecordWriter(File file, boolean header) throws IOException {
+            stream = new FileOutputStream(file);
+            channel = stream.getChannel();
+            if(header)
+                buffer.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION);
+        }
+
+        void write(long key, int move, int weight, int games,
+                   int wins, int draws, int losses) throws IOException {
+            if(buffer.remaining() < OpeningBook.RECORD_BYTES)
+                flush();
+            buffer.putLong(key).putInt(move).putInt(weight)
+                    .putInt(games).putInt(wins).putInt(draws).putInt(losses);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * Buffered reader of the records of a run, one at a time.
+     */
+    private static class RunReader {
+        private final FileInputStream stream;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        long key;
+        int move;
+        int wins, draws, losses;
+
+        RunReader(File file) throws IOException {
+            stream = new FileInputStream(file);
+            channel = stream.getChannel();
+            buffer.flip();
+        }
+
+        /**
+         * @return Whether there was another record.
+         */
+        boolean next() throws IOException {
+            if(buffer.remaining() < OpeningBook.RECORD_BYTES) {
+                buffer.compact();
+                while(buffer.position() < OpeningBook.RECORD_BYTES && channel.read(buffer) > 0)
+                    continue;
+                buffer.flip();
+                if(buffer.remaining() < OpeningBook.RECORD_BYTES)
+                    return false;
+            }
+            key = buffer.getLong();
+            move = buffer.getInt();
+            buffer.getInt();
+            buffer.getInt();
+            wins = buffer.getInt();
+            draws = buffer.getInt();
+            losses = buffer.getInt();
+            return true;
+        }
+
+        void close() throws IOException {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Hex;
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+/**
+ * Evaluation of the pawns on their own: doubled, isolated and passed
+ * pawns. It depends only on where the pawns are, so it is cached by
+ * pawn key in a <code>PawnTable</code>.
+ * <p>
+ * On the hex board, a pawn is passed if no enemy pawn can block it or
+ * capture it on its way up its file. Measured in height (see
+ * <code>MoveRules</code>), which a push changes by 2 and a capture by 1,
+ * that means no enemy pawn ahead of it on its own file or either
+ * neighboring file.
+ * <p>
+ * The result is packed into a long: bits 0-15 middlegame score and bits
+ * 16-31 endgame score (both signed, for White), bits 32-39 and 40-47
+ * the cell + 1 of White's and Black's most advanced passed pawn (0 if
+ * none).
+ */
+public class PawnStructure {
+    private static final int DOUBLED_MIDGAME = -10;
+    private static final int DOUBLED_ENDGAME = -20;
+    private static final int ISOLATED_MIDGAME = -10;
+    private static final int ISOLATED_ENDGAME = -15;
+    // Indexed by the number of pushes left to promote
+    private static final int[] PASSED_MIDGAME = {0, 60, 40, 25, 15, 10, 5, 5, 5, 5, 5};
+    private static final int[] PASSED_ENDGAME = {0, 130, 90, 60, 35, 20, 10, 10, 10, 10, 10};
+
+    // [from * NUM_CELLS + to]: fewest king moves from one cell to the other
+    private static final byte[] KING_DISTANCE = new byte[Position.NUM_CELLS * Position.NUM_CELLS];
+
+    static {
+        int[] queue = new int[Position.NUM_CELLS];
+        for(int from = 0; from < Position.NUM_CELLS; from++) {
+            int base = from * Position.NUM_CELLS;
+            for(int to = 0; to < Position.NUM_CELLS; to++)
+                KING_DISTANCE[base + to] = -1;
+            KING_DISTANCE[base + from] = 0;
+            queue[0] = from;
+            int head = 0, tail = 1;
+            while(head < tail) {
+                int cell = queue[head++];
+                for(int next : MoveRules.KING_TARGETS[cell]) {
+                    if(KING_DISTANCE[base + next] < 0) {
+                        KING_DISTANCE[base + next] = (byte) (KING_DISTANCE[base + cell] + 1);
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Fewest moves a king needs to get from one cell to another.
+     */
+    public static int kingDistance(int from, int to) {
+        return KING_DISTANCE[from * Position.NUM_CELLS + to];
+    }
+
+    /**
+     * @param cell Cell of a pawn.
+     * @param color Color of the pawn.
+     * @return The cell it promotes on, straight up (or down) its file.
+     */
+    public static int promotionCell(int cell, int color) {
+        int file = Position.fileOf(cell);
+        return Position.cell(file, color == Hex.WHITE ? Position.numRanks(file) - 1 : 0);
+    }
+
+    /**
+     * @param cell Cell of a pawn.
+     * @param color Color of the pawn.
+     * @return Number of pushes it needs to promote.
+     */
+    public static int promotionDistance(int cell, int color) {
+        int rank = Position.rankOf(cell);
+        return color == Hex.WHITE ? Position.numRanks(Position.fileOf(cell)) - 1 - rank : rank;
+    }
+
+    /**
+     * Evaluate the pawns of a position from scratch.
+     * @param pos Position to look at.
+     * @return The packed result described above.
+     */
+    public static long evaluate(Position pos) {
+        int midgame = 0;
+        int endgame = 0;
+        long passers = 0;
+
+        for(int color = Hex.WHITE; color <= Hex.BLACK; color++) {
+            int sign = color == Hex.WHITE ? 1 : -1;
+            // Pawns per file, 4 bits per file
+            long fileCounts = countFiles(pos, color);
+            int mostAdvanced = Position.NO_CELL;
+
+            for(int word = 0; word < 2; word++) {
+                long pawns = pos.getPieceSet(Hex.PAWN, word) & pos.getColorSet(color, word);
+                while(pawns != 0) {
+                    int cell = word * 64 + Long.numberOfTrailingZeros(pawns);
+                    pawns &= pawns - 1;
+                    int file = Position.fileOf(cell);
+
+                    long neighbors = (file > 0 ? fileCounts >>> 4 * (file - 1) & 0xF : 0)
+                            + (file < 10 ? fileCounts >>> 4 * (file + 1) & 0xF : 0);
+                    if(neighbors == 0) {
+                        midgame += sign * ISOLATED_MIDGAME;
+                        endgame += sign * ISOLATED_ENDGAME;
+                    }
+
+                    if(isPassed(pos, cell, color)) {
+                        int distance = promotionDistance(cell, color);
+                        midgame += sign * PASSED_MIDGAME[distance];
+                        endgame += sign * PASSED_ENDGAME[distance];
+                        if(mostAdvanced == Position.NO_CELL
+                                || distance < promotionDistance(mostAdvanced, color))
+                            mostAdvanced = cell;
+                    }
+                }
+            }
+
+            for(int file = 0; file < 11; file++) {
+                int count = (int) (fileCounts >>> 4 * file & 0xF);
+                if(count > 1) {
+                    midgame += sign * DOUBLED_MIDGAME * (count - 1);
+                    endgame += sign * DOUBLED_ENDGAME * (count - 1);
+                }
+            }
+            passers |= (long) (mostAdvanced + 1) << (32 + 8 * color);
+        }
+        return (midgame & 0xFFFFL) | (endgame & 0xFFFFL) << 16 | passers;
+    }
+
+    private static long countFiles(Position pos, int color) {
+        long counts = 0;
+        for(int word = 0; word < 2; word++) {
+            long pawns = pos.getPieceSet(Hex.PAWN, word) & pos.getColorSet(color, word);
+            while(pawns != 0) {
+                int cell = word * 64 + Long.numberOfTrailingZeros(pawns);
+                pawns &= pawns - 1;
+                counts += 1L << 4 * Position.fileOf(cell);
+            }
+        }
+        return counts;
+    }
+
+    private static boolean isPassed(Position pos, int cell, int color) {
+        int file = Position.fileOf(cell);
+        int height = height(cell);
+        int enemy = 1 - color;
+        for(int word = 0; word < 2; word++) {
+            long pawns = pos.getPieceSet(Hex.PAWN, word) & pos.getColorSet(enemy, word);
+            while(pawns != 0) {
+                int other = word * 64 + Long.numberOfTrailingZeros(pawns);
+                pawns &= pawns - 1;
+                int files = Math.abs(Position.fileOf(other) - file);
+                if(files > 1)
+                    continue;
+                // How far ahead it is, as seen by this pawn
+                int ahead = color == Hex.WHITE ? height(other) - height : height - height(other);
+                if(ahead > 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static int height(int cell) {
+        return 2 * Position.rankOf(cell) + Math.abs(Position.fileOf(cell) - 5);
+    }
+
+    /**
+     * @param data Packed result.
+     * @return Middlegame score, for White.
+     */
+    public static int midgame(long data) {
+        return (short) data;
+    }
+
+    /**
+     * @param data Packed result.
+     * @return Endgame score, for White.
+     */
+    public static int endgame(long data) {
+        return (short) (data >>> 16);
+    }
+
+    /**
+     * @param data Packed result.
+     * @param color Side to look at.
+     * @return Cell of that side's most advanced passed pawn, or
+     * <code>Position.NO_CELL</code>.
+     */
+    public static int mostAdvancedPasser(long data, int color) {
+        return (int) (data >>> (32 + 8 * color) & 0xFF) - 1;
+    }
+}
@@ -0,0 +1,74 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Position;
+
+import java.util.Arrays;
+
+/**
+ * Cache of <code>PawnStructure</code> results, indexed by the position's
+ * pawn key. Pawns move far less often than other pieces, so nearly every
+ * lookup during a search hits.
+ * <p>
+ * Each entry is the key and the packed result in two parallel arrays,
+ * always replaced on a miss. The table isn't thread-safe; every search
+ * thread has its own. An empty slot has key 0 and data 0, which is the
+ * right entry for a board with no pawns, so the table needs no
+ * initialization.
+ */
+public class PawnTable {
+    private final long[] keys;
+    private final long[] data;
+    private final int mask;
+    private long probes;
+    private long hits;
+
+    /**
+     * @param kilobytes Size of the table in KiB, rounded down to a power
+     *                  of two, at least 1.
+     */
+    public PawnTable(int kilobytes) {
+        if(kilobytes < 1)
+            throw new IllegalArgumentException("Table must be at least 1 KB");
+        int entries = Integer.highestOneBit(kilobytes) * 1024 / 16;
+        keys = new long[entries];
+        data = new long[entries];
+        mask = entries - 1;
+    }
+
+    /**
+     * Look up the pawn structure of a position, evaluating it on a miss.
+     * @param pos Position to look at.
+     * @return Packed result, see <code>PawnStructure</code>.
+     */
+    public long probe(Position pos) {
+        long key = pos.getPawnKey();
+        int index = (int) key & mask;
+        probes++;
+        if(keys[index] == key) {
+            hits++;
+            return data[index];
+        }
+        long result = PawnStructure.evaluate(pos);
+        keys[index] = key;
+        data[index] = result;
+        return result;
+    }
+
+    /**
+     * Empty the table and reset its counters.
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+        probes = 0;
+        hits = 0;
+    }
+
+    /**
+     * @return Fraction of lookups since the last <code>clear()</code>
+     * that were found in the table.
+     */
+    public double hitRate() {
+        return probes == 0 ? 0 : (double) hits / probes;
+    }
+}
@@ -0,0 +1,215 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the leaf nodes of the legal move tree to a fixed depth. The
+ * counts are a check on the move generator (they must never change
+ * unless the rules do) and the time taken is a measure of its speed.
+ * <p>
+ * Usage: <code>Perft depth [--divide] [--threads N] [--hash MB]</code>
+ * <ul>
+ *     <li><code>--divide</code>: also print the count below each root move</li>
+ *     <li><code>--threads N</code>: split the root moves over N threads
+ *     (default: all cores)</li>
+ *     <li><code>--hash MB</code>: cache subtree counts in a shared table</li>
+ * </ul>
+ */
+public class Perft {
+    private final Position position;
+    // One move list per remaining depth, so counting allocates nothing
+    private final int[][] moveLists;
+    private final PerftHash hash;
+
+    /**
+     * @param position Position to count from. It is changed while
+     *                 counting and restored afterwards.
+     * @param maxDepth Deepest count that will be asked for.
+     * @param hash Table to cache counts in, or <code>null</code>.
+     */
+    public Perft(Position position, int maxDepth, PerftHash hash) {
+        this.position = position;
+        this.moveLists = new int[maxDepth + 1][MoveRules.MAX_MOVES];
+        this.hash = hash;
+    }
+
+    /**
+     * @param depth Number of moves to look ahead.
+     * @return Number of move sequences of exactly that length.
+     */
+    public long count(int depth) {
+        if(depth == 0)
+            return 1;
+
+        int[] moves = moveLists[depth];
+        int count = MoveRules.generateLegalMoves(position, moves, 0);
+        // Bulk counting: the last moves don't have to be played
+        if(depth == 1)
+            return count;
+
+        long key = position.getKey();
+        if(hash != null) {
+            long cached = hash.probe(key, depth);
+            if(cached >= 0)
+                return cached;
+        }
+
+        long nodes = 0;
+        for(int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            nodes += count(depth - 1);
+            position.unmakeMove();
+        }
+
+        if(hash != null)
+            hash.store(key, depth, nodes);
+        return nodes;
+    }
+
+    /**
+     * Count the nodes below each legal root move, splitting the root
+     * moves over a pool of threads.
+     * @param root Position to count from. It is not changed.
+     * @param depth Number of moves to look ahead, at least 1.
+     * @param threads Number of threads to use.
+     * @param hash Table to cache counts in, or <code>null</code>.
+     * @param rootMoves Receives the legal root moves.
+     * @return Count below each root move, in the order of <code>rootMoves</code>.
+     */
+    public static long[] divide(Position root, int depth, int threads,
+                                PerftHash hash, int[] rootMoves) {
+        int count = MoveRules.generateLegalMoves(new Position(root), rootMoves, 0);
+        long[] result = new long[count];
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<RootTask> tasks = new ArrayList<RootTask>();
+            for(int i = 0; i < count; i++) {
+                RootTask task = new RootTask(root, rootMoves[i], depth - 1, hash);
+                tasks.add(task);
+                pool.execute(task);
+            }
+            for(int i = 0; i < count; i++)
+                result[i] = tasks.get(i).join();
+        } finally {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /**
+     * Counts the subtree below one root move on its own copy of the
+     * position.
+     */
+    private static class RootTask extends RecursiveTask<Long> {
+        private final Position position;
+        private final int depth;
+        private final PerftHash hash;
+
+        RootTask(Position root, int move, int depth, PerftHash hash) {
+            this.position = new Position(root);
+            this.position.makeMove(move);
+            this.depth = depth;
+            this.hash = hash;
+        }
+
+        @Override
+        protected Long compute() {
+            return new Perft(position, depth, hash).count(depth);
+        }
+    }
+
+    /**
+     * A table of subtree counts, keyed by position and depth. Like
+     * <code>TranspositionTable</code>, each entry is stored with its key
+     * XORed in, so threads can share it without locks.
+     */
+    public static class PerftHash {
+        private final long[] entries;
+        private final int mask;
+
+        /**
+         * @param megabytes Size of the table in MiB, rounded down to a
+         *                  power of two.
+         */
+        public PerftHash(int megabytes) {
+            int slots = Integer.highestOneBit(Math.min(megabytes, 1024) << 16);
+            entries = new long[slots * 2];
+            mask = slots - 1;
+        }
+
+        private static long salt(long key, int depth) {
+            return key ^ depth * 0x9E3779B97F4A7C15L;
+        }
+
+        /**
+         * @return The cached count, or -1 if there is none.
+         */
+        long probe(long key, int depth) {
+            long salted = salt(key, depth);
+            int slot = (int) salted & mask;
+            long nodes = entries[slot * 2 + 1];
+            if((entries[slot * 2] ^ nodes) == salted)
+                return nodes;
+            return -1;
+        }
+
+        void store(long key, int depth, long nodes) {
+            long salted = salt(key, depth);
+            int slot = (int) salted & mask;
+            entries[slot * 2] = salted ^ nodes;
+            entries[slot * 2 + 1] = nodes;
+        }
+    }
+
+    public static void main(String[] args) {
+        if(args.length < 1) {
+            System.err.println("Usage: Perft depth [--divide] [--threads N] [--hash MB]");
+            System.exit(1);
+        }
+
+        int depth = Integer.parseInt(args[0]);
+        boolean divide = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        PerftHash hash = null;
+        for(int i = 1; i < args.length; i++) {
+            if(args[i].equals("--divide"))
+                divide = true;
+            else if(args[i].equals("--threads"))
+                threads = Integer.parseInt(args[++i]);
+            else if(args[i].equals("--hash"))
+                hash = new PerftHash(Integer.parseInt(args[++i]));
+            else
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+        }
+
+        Position position = new Position();
+        int[] rootMoves = new int[MoveRules.MAX_MOVES];
+
+        long start = System.nanoTime();
+        long nodes;
+        if(depth == 0) {
+            nodes = 1;
+        } else {
+            long[] counts = divide(position, depth, threads, hash, rootMoves);
+            nodes = 0;
+            for(int i = 0; i < counts.length; i++) {
+                if(divide)
+                    System.out.println(MoveRules.moveToString(rootMoves[i]) + ": " + counts[i]);
+                nodes += counts[i];
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Depth " + depth + ": " + nodes + " nodes in "
+                + elapsed / 1000000 + " ms, "
+                + (long) (nodes / (elapsed / 1e9)) + " nodes/s on "
+                + threads + " threads");
+    }
+}
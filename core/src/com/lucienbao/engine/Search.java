@@ -0,0 +1,452 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Iterative-deepening principal variation search (alpha-beta with null
+ * windows after the first move) over <code>Position</code> and
+ * <code>MoveRules</code>, with:
+ * <ul>
+ *     <li>a transposition table, which also supplies the first move to try;</li>
+ *     <li>staged move ordering, see <code>MovePicker</code>;</li>
+ *     <li>quiescence search of captures and queen promotions, leaving
+ *     out captures that lose material;</li>
+ *     <li>aspiration windows around the previous iteration's score;</li>
+ *     <li>null-move pruning;</li>
+ *     <li>check extensions;</li>
+ *     <li>optional tablebases for endings with few pieces;</li>
+ *     <li>a time, node or depth limit, and a stop flag other threads may set;</li>
+ *     <li>time management for playing on a clock, see <code>TimeManager</code>.</li>
+ * </ul>
+ * All buffers are allocated up front, so searching creates no garbage.
+ * A <code>Search</code> is meant for one thread; give each thread its own.
+ * Several of them can search the same position together by sharing a
+ * transposition table and a stop flag, see <code>SmpSearch</code>.
+ */
+public class Search {
+    public static final int MAX_PLY = 128;
+    public static final int INFINITY = 32000;
+    public static final int MATE = 31000;
+    private static final int MATE_BOUND = MATE - MAX_PLY;
+    // Stalemate scores 3/4-1/4 for the side giving it, not a draw
+    public static final int STALEMATE = 200;
+
+    private static final int ASPIRATION_WINDOW = 25;
+    private static final int NULL_MOVE_REDUCTION = 2;
+    // How often the clock is read, in nodes (minus one)
+    private static final int CHECK_INTERVAL = 1023;
+    private static final int PAWN_TABLE_KB = 512;
+
+    private final TranspositionTable table;
+    private final MoveHistory moveHistory = new MoveHistory();
+    private final PawnTable pawnTable = new PawnTable(PAWN_TABLE_KB);
+    private final MovePicker[] pickers = new MovePicker[MAX_PLY];
+    // Quiet moves tried at each ply, to be marked down after a cutoff
+    private final int[][] quietsTried = new int[MAX_PLY][64];
+    // Triangular PV table: pv[ply] holds the line from that ply on
+    private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+    private final int[] pvLength = new int[MAX_PLY + 1];
+    private final AtomicBoolean stopRequested;
+    private final boolean ownsStopFlag;
+    // Helper threads of a parallel search skip some depths, see search()
+    private int helperIndex;
+
+    private boolean moveOrdering = true;
+    // Evaluates with a network if set, else with Evaluation
+    private NnueEvaluator nnue;
+    // Exact results of endings with few pieces, if set
+    private Tablebases tablebases;
+    private final int[] tablebaseCells = new int[Tablebase.MAX_PIECES];
+    private final TimeManager timeManager = new TimeManager();
+
+    private SearchListener listener;
+    private Position position;
+    private long nodes;
+    private long nodeLimit;
+    private long deadline;
+    private boolean stopped;
+
+    /**
+     * @param table Transposition table; may be shared with other searches.
+     */
+    public Search(TranspositionTable table) {
+        this(table, new AtomicBoolean(), true);
+    }
+
+    /**
+     * Create a search that stops when a shared flag is set. The flag is
+     * never cleared by the search; that's up to whoever owns it.
+     * @param table Transposition table; may be shared with other searches.
+     * @param stopFlag Flag to stop on.
+     */
+    public Search(TranspositionTable table, AtomicBoolean stopFlag) {
+        this(table, stopFlag, false);
+    }
+
+    private Search(TranspositionTable table, AtomicBoolean stopFlag, boolean ownsStopFlag) {
+        this.table = table;
+        this.stopRequested = stopFlag;
+        this.ownsStopFlag = ownsStopFlag;
+        for(int ply = 0; ply < MAX_PLY; ply++)
+            pickers[ply] = new MovePicker(moveHistory);
+    }
+
+    /**
+     * Make this search a helper in a parallel search. Helpers skip some
+     * iterations, so that the threads spread out over different depths
+     * instead of all searching the same tree in lockstep.
+     * @param helperIndex 0 for the main thread, 1 and up for helpers.
+     */
+    public void setHelperIndex(int helperIndex) {
+        this.helperIndex = helperIndex;
+    }
+
+    /**
+     * Turn move ordering off, to measure what it saves: moves are then
+     * searched in the order the generator makes them.
+     * @param moveOrdering Whether to order moves.
+     */
+    public void setMoveOrdering(boolean moveOrdering) {
+        this.moveOrdering = moveOrdering;
+    }
+
+    /**
+     * Evaluate with a neural network instead of <code>Evaluation</code>.
+     * Not to be called while searching.
+     * @param network Network to use, or <code>null</code> to go back.
+     */
+    public void setNetwork(NnueNetwork network) {
+        this.nnue = network != null ? new NnueEvaluator(network) : null;
+    }
+
+    /**
+     * Look positions with few pieces up in tablebases instead of
+     * searching them. Not to be called while searching.
+     * @param tablebases Tables to use, or <code>null</code> for none.
+     */
+    public void setTablebases(Tablebases tablebases) {
+        this.tablebases = tablebases;
+    }
+
+    public void setListener(SearchListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Ask a running search to stop as soon as possible. It will still
+     * return the result of its last completed iteration. Safe to call
+     * from any thread.
+     */
+    public void stop() {
+        stopRequested.set(true);
+    }
+
+    /**
+     * @param score A search score.
+     * @return Whether the score announces a forced mate.
+     */
+    public static boolean isMateScore(int score) {
+        return Math.abs(score) >= MATE_BOUND;
+    }
+
+    /**
+     * Search a position for the best move.
+     * @param root Position to search. It is used while searching and is
+     *             back to how it was when this returns.
+     * @param limits When to stop.
+     * @return Result of the last completed iteration.
+     */
+    public SearchResult search(Position root, SearchLimits limits) {
+        long start = System.nanoTime();
+        position = root;
+        nodes = 0;
+        nodeLimit = limits.getNodes() > 0 ? limits.getNodes() : Long.MAX_VALUE;
+        timeManager.start(limits, root);
+        deadline = timeManager.isTimed()
+                ? start + timeManager.getMaximumNanos() : Long.MAX_VALUE;
+        int maxDepth = limits.getDepth() > 0
+                ? Math.min(limits.getDepth(), MAX_PLY - 1) : MAX_PLY - 1;
+        stopped = false;
+        if(ownsStopFlag) {
+            stopRequested.set(false);
+            table.newSearch();
+        }
+        moveHistory.clear();
+
+        // A position in the tablebases needs no search at all
+        if(tablebases != null) {
+            SearchResult result = tablebases.bestMove(root);
+            if(result != null) {
+                if(listener != null)
+                    listener.iterationFinished(result);
+                return result;
+            }
+        }
+
+        if(nnue != null)
+            nnue.attach(root);
+
+        SearchResult result = null;
+        int score = 0;
+        for(int depth = 1; depth <= maxDepth; depth++) {
+            if(skipDepth(depth))
+                continue;
+            score = aspirationSearch(depth, score);
+            // An interrupted iteration can't be trusted; keep the last
+            // complete one, unless there is none yet
+            if(stopped && result != null)
+                break;
+
+            int[] line = new int[pvLength[0]];
+            System.arraycopy(pv[0], 0, line, 0, line.length);
+            long elapsed = System.nanoTime() - start;
+            result = new SearchResult(line.length > 0 ? line[0] : MoveRules.NO_MOVE,
+                    score, depth, nodes, elapsed / 1000000, line);
+            if(listener != null)
+                listener.iterationFinished(result);
+
+            if(stopped || line.length == 0)
+                break;
+            // Don't start an iteration there is probably no time to finish
+            if(timeManager.iterationFinished(line[0], score, elapsed))
+                break;
+        }
+        if(nnue != null)
+            nnue.detach();
+        return result;
+    }
+
+    // Which depths each helper skips, repeating every 20 helpers
+    private static final int[] SKIP_SIZE = {1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 4, 4, 4, 4, 4, 4, 4};
+    private static final int[] SKIP_PHASE = {0, 1, 0, 1, 2, 3, 0, 1, 2, 3, 4, 5, 0, 1, 2, 3, 4, 5, 6, 7};
+
+    private boolean skipDepth(int depth) {
+        if(helperIndex == 0 || depth == 1)
+            return false;
+        int i = (helperIndex - 1) % SKIP_SIZE.length;
+        return (depth + SKIP_PHASE[i]) / SKIP_SIZE[i] % 2 != 0;
+    }
+
+    /**
+     * Search with a narrow window around the last iteration's score,
+     * widening it whenever the score falls outside.
+     */
+    private int aspirationSearch(int depth, int guess) {
+        if(depth < 4 || isMateScore(guess))
+            return pvs(depth, -INFINITY, INFINITY, 0, false);
+
+        int delta = ASPIRATION_WINDOW;
+        int alpha = Math.max(guess - delta, -INFINITY);
+        int beta = Math.min(guess + delta, INFINITY);
+        while(true) {
+            int score = pvs(depth, alpha, beta, 0, false);
+            if(stopped)
+                return score;
+            if(score <= alpha)
+                alpha = Math.max(score - delta, -INFINITY);
+            else if(score >= beta)
+                beta = Math.min(score + delta, INFINITY);
+            else
+                return score;
+            delta *= 2;
+        }
+    }
+
+    private int pvs(int depth, int alpha, int beta, int ply, boolean allowNull) {
+        pvLength[ply] = ply;
+        if(depth <= 0)
+            return quiesce(alpha, beta, ply);
+
+        if((++nodes & CHECK_INTERVAL) == 0)
+            checkLimits();
+        if(stopped)
+            return 0;
+
+        if(ply > 0 && (position.isRepetition() || position.getHalfmoveClock() >= 100))
+            return 0;
+        if(ply >= MAX_PLY - 1)
+            return evaluate();
+        if(ply > 0 && tablebases != null) {
+            int result = tablebases.probe(position, tablebaseCells);
+            if(result != Tablebase.NOT_FOUND)
+                return Tablebases.toScore(result, ply);
+        }
+
+        boolean pvNode = beta - alpha > 1;
+        long key = position.getKey();
+        int hashMove = MoveRules.NO_MOVE;
+        long entry = table.probe(key);
+        if(entry != TranspositionTable.NO_ENTRY) {
+            hashMove = TranspositionTable.getMove(entry);
+            if(!pvNode && TranspositionTable.getDepth(entry) >= depth) {
+                int score = fromTable(TranspositionTable.getScore(entry), ply);
+                int bound = TranspositionTable.getBound(entry);
+                if(bound == TranspositionTable.BOUND_EXACT
+                        || bound == TranspositionTable.BOUND_LOWER && score >= beta
+                        || bound == TranspositionTable.BOUND_UPPER && score <= alpha)
+                    return score;
+            }
+        }
+
+        int side = position.getSideToMove();
+        boolean inCheck = MoveRules.isInCheck(position, side);
+        if(inCheck)
+            depth++;
+
+        // Null move: if passing still beats beta, a real move would too
+        if(allowNull && !pvNode && !inCheck && depth >= 3
+                && Evaluation.hasPieces(position, side)
+                && evaluate() >= beta) {
+            position.makeNullMove();
+            int score = -pvs(depth - 1 - NULL_MOVE_REDUCTION, -beta, -beta + 1, ply + 1, false);
+            position.unmakeNullMove();
+            if(stopped)
+                return 0;
+            if(score >= beta)
+                return isMateScore(score) ? beta : score;
+        }
+
+        MovePicker picker = pickers[ply];
+        picker.init(position, hashMove, ply, moveOrdering);
+        int[] quiets = quietsTried[ply];
+        int quietCount = 0;
+
+        int originalAlpha = alpha;
+        int best = -INFINITY;
+        int bestMove = MoveRules.NO_MOVE;
+        int played = 0;
+        int move;
+        while((move = picker.next()) != MoveRules.NO_MOVE) {
+            position.makeMove(move);
+            int score;
+            if(played++ == 0) {
+                score = -pvs(depth - 1, -beta, -alpha, ply + 1, true);
+            } else {
+                score = -pvs(depth - 1, -alpha - 1, -alpha, ply + 1, true);
+                if(score > alpha && score < beta)
+                    score = -pvs(depth - 1, -beta, -alpha, ply + 1, true);
+            }
+            position.unmakeMove();
+            if(stopped)
+                return 0;
+
+            if(score > best) {
+                best = score;
+                bestMove = move;
+                if(score > alpha) {
+                    alpha = score;
+                    updatePv(ply, move);
+                    if(score >= beta) {
+                        if(MoveRules.getCode(move) == MoveRules.MOVE)
+                            moveHistory.updateCutoff(position, ply, move, depth,
+                                    quiets, quietCount);
+                        break;
+                    }
+                }
+            }
+            if(MoveRules.getCode(move) == MoveRules.MOVE && quietCount < quiets.length)
+                quiets[quietCount++] = move;
+        }
+        if(played == 0)
+            return inCheck ? -MATE + ply : -STALEMATE;
+
+        int bound = best >= beta ? TranspositionTable.BOUND_LOWER
+                : best > originalAlpha ? TranspositionTable.BOUND_EXACT
+                : TranspositionTable.BOUND_UPPER;
+        table.store(key, bestMove, toTable(best, ply), depth, bound);
+        return best;
+    }
+
+    /**
+     * Search captures until the position is quiet, so that the
+     * evaluation isn't taken in the middle of an exchange. The side to
+     * move may also "stand pat" on the static evaluation, unless it is
+     * in check, in which case every evasion is searched.
+     */
+    private int quiesce(int alpha, int beta, int ply) {
+        pvLength[ply] = ply;
+        if((++nodes & CHECK_INTERVAL) == 0)
+            checkLimits();
+        if(stopped)
+            return 0;
+        if(ply >= MAX_PLY - 1)
+            return evaluate();
+
+        boolean inCheck = MoveRules.isInCheck(position, position.getSideToMove());
+        MovePicker picker = pickers[ply];
+        int best;
+        if(inCheck) {
+            best = -INFINITY;
+            picker.init(position, MoveRules.NO_MOVE, ply, true);
+        } else {
+            best = evaluate();
+            if(best >= beta)
+                return best;
+            if(best > alpha)
+                alpha = best;
+            picker.initQuiescence(position);
+        }
+
+        int played = 0;
+        int move;
+        while((move = picker.next()) != MoveRules.NO_MOVE) {
+            position.makeMove(move);
+            played++;
+            int score = -quiesce(-beta, -alpha, ply + 1);
+            position.unmakeMove();
+            if(stopped)
+                return 0;
+
+            if(score > best) {
+                best = score;
+                if(score > alpha) {
+                    alpha = score;
+                    if(score >= beta)
+                        break;
+                }
+            }
+        }
+        if(inCheck && played == 0)
+            return -MATE + ply;
+        return best;
+    }
+
+    private int evaluate() {
+        return nnue != null ? nnue.evaluate() : Evaluation.evaluate(position, pawnTable);
+    }
+
+    private void updatePv(int ply, int move) {
+        pv[ply][ply] = move;
+        System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+        pvLength[ply] = Math.max(pvLength[ply + 1], ply + 1);
+    }
+
+    private void checkLimits() {
+        if(stopRequested.get() || nodes >= nodeLimit || System.nanoTime() >= deadline)
+            stopped = true;
+    }
+
+    // Mate scores are stored relative to the position, not the root
+    private static int toTable(int score, int ply) {
+        if(score >= MATE_BOUND)
+            return score + ply;
+        if(score <= -MATE_BOUND)
+            return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if(score >= MATE_BOUND)
+            return score - ply;
+        if(score <= -MATE_BOUND)
+            return score + ply;
+        return score;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+}
@@ -0,0 +1,83 @@
+package com.lucienbao.engine;
+
+/**
+ * When a search should stop: after a depth, a time or a number of nodes,
+ * whichever comes first. A limit of 0 means no limit.
+ * <p>
+ * Instead of a fixed time, a search can be given the time left on its
+ * side's clock; it then decides for itself how much to spend, see
+ * <code>TimeManager</code>.
+ */
+public class SearchLimits {
+    private final int depth;
+    private final long timeMillis;
+    private final long nodes;
+    private final long clockMillis;
+    private final long incrementMillis;
+
+    /**
+     * @param depth Deepest iteration to search, or 0.
+     * @param timeMillis Time budget in milliseconds, or 0.
+     * @param nodes Node budget, or 0.
+     */
+    public SearchLimits(int depth, long timeMillis, long nodes) {
+        this(depth, timeMillis, nodes, 0, 0);
+    }
+
+    /**
+     * @param depth Deepest iteration to search, or 0.
+     * @param timeMillis Time budget in milliseconds, or 0.
+     * @param nodes Node budget, or 0.
+     * @param clockMillis Time left on the clock of the side to move, or 0
+     *                    if it isn't playing on a clock.
+     * @param incrementMillis Time its clock gains per move.
+     */
+    public SearchLimits(int depth, long timeMillis, long nodes,
+                        long clockMillis, long incrementMillis) {
+        this.depth = depth;
+        this.timeMillis = timeMillis;
+        this.nodes = nodes;
+        this.clockMillis = clockMillis;
+        this.incrementMillis = incrementMillis;
+    }
+
+    public static SearchLimits depth(int depth) {
+        return new SearchLimits(depth, 0, 0);
+    }
+
+    public static SearchLimits time(long timeMillis) {
+        return new SearchLimits(0, timeMillis, 0);
+    }
+
+    public static SearchLimits nodes(long nodes) {
+        return new SearchLimits(0, 0, nodes);
+    }
+
+    /**
+     * @param clockMillis Time left on the clock of the side to move.
+     * @param incrementMillis Time its clock gains per move.
+     */
+    public static SearchLimits clock(long clockMillis, long incrementMillis) {
+        return new SearchLimits(0, 0, 0, clockMillis, incrementMillis);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getClockMillis() {
+        return clockMillis;
+    }
+
+    public long getIncrementMillis() {
+        return incrementMillis;
+    }
+}
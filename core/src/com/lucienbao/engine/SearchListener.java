@@ -0,0 +1,12 @@
+package com.lucienbao.engine;
+
+/**
+ * Gets told about the progress of a search, e.g. to print analysis.
+ * Called on the searching thread.
+ */
+public interface SearchListener {
+    /**
+     * @param result Result of the iteration that just finished.
+     */
+    void iterationFinished(SearchResult result);
+}
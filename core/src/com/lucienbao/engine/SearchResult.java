@@ -0,0 +1,62 @@
+package com.lucienbao.engine;
+
+/**
+ * The outcome of one completed iteration of a search.
+ */
+public class SearchResult {
+    private final int bestMove;
+    private final int score;
+    private final int depth;
+    private final long nodes;
+    private final long timeMillis;
+    private final int[] principalVariation;
+
+    public SearchResult(int bestMove, int score, int depth, long nodes,
+                        long timeMillis, int[] principalVariation) {
+        this.bestMove = bestMove;
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.timeMillis = timeMillis;
+        this.principalVariation = principalVariation;
+    }
+
+    /**
+     * @return Best move found, or <code>MoveRules.NO_MOVE</code> if the
+     * side to move has no legal moves.
+     */
+    public int getBestMove() {
+        return bestMove;
+    }
+
+    /**
+     * @return Score in centipawns for the side to move.
+     * @see Search#isMateScore(int)
+     */
+    public int getScore() {
+        return score;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public long getNodesPerSecond() {
+        return nodes * 1000 / Math.max(1, timeMillis);
+    }
+
+    /**
+     * @return The expected line of play, starting with the best move.
+     */
+    public int[] getPrincipalVariation() {
+        return principalVariation;
+    }
+}
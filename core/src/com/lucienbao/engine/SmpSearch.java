@@ -0,0 +1,167 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Position;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lazy SMP: several threads search the same root at once, each with its
+ * own copy of the position and its own history, sharing nothing but the
+ * transposition table. The helpers skip different depths, so they fill
+ * the table with results the main thread then finds instead of
+ * searching. When the main thread finishes, the helpers are stopped and
+ * its result is returned.
+ */
+public class SmpSearch {
+    private final TranspositionTable table;
+    private final Search[] searches;
+    private final AtomicBoolean stopFlag = new AtomicBoolean();
+    private final ExecutorService helperPool;
+    private SearchListener listener;
+
+    /**
+     * @param table Transposition table shared by all threads.
+     * @param threads Number of threads to search with, at least 1.
+     */
+    public SmpSearch(TranspositionTable table, int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("Need at least 1 thread");
+
+        this.table = table;
+        this.searches = new Search[threads];
+        for(int i = 0; i < threads; i++) {
+            searches[i] = new Search(table, stopFlag);
+            searches[i].setHelperIndex(i);
+        }
+        this.helperPool = threads > 1
+                ? Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "search-helper");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                })
+                : null;
+
+        // Report the nodes of every thread, not just the main one
+        searches[0].setListener(new SearchListener() {
+            @Override
+            public void iterationFinished(SearchResult result) {
+                if(listener != null)
+                    listener.iterationFinished(withTotalNodes(result));
+            }
+        });
+    }
+
+    public void setListener(SearchListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Evaluate with a neural network in every thread. Not to be called
+     * while searching.
+     * @param network Network to use, or <code>null</code> for none.
+     */
+    public void setNetwork(NnueNetwork network) {
+        for(Search search : searches)
+            search.setNetwork(network);
+    }
+
+    /**
+     * Look positions with few pieces up in tablebases, in every thread.
+     * @param tablebases Tables to use, or <code>null</code> for none.
+     */
+    public void setTablebases(Tablebases tablebases) {
+        for(Search search : searches)
+            search.setTablebases(tablebases);
+    }
+
+    public int getThreads() {
+        return searches.length;
+    }
+
+    /**
+     * Ask a running search to stop. Safe to call from any thread.
+     */
+    public void stop() {
+        stopFlag.set(true);
+    }
+
+    /**
+     * Get ready for a new search, clearing any earlier request to stop.
+     * Call it before handing the search to another thread, so that a
+     * <code>stop()</code> made before that thread gets going isn't lost.
+     */
+    public void prepare() {
+        stopFlag.set(false);
+    }
+
+    /**
+     * Search a position with all threads. Call <code>prepare()</code>
+     * first; a search stopped before it starts returns straight away.
+     * @param root Position to search. It is not changed.
+     * @param limits When to stop; applies to the main thread.
+     * @return The main thread's result, with nodes counted over all threads.
+     */
+    public SearchResult search(Position root, final SearchLimits limits) {
+        table.newSearch();
+
+        Future<?>[] helpers = new Future<?>[searches.length - 1];
+        for(int i = 1; i < searches.length; i++) {
+            final Search helper = searches[i];
+            final Position copy = new Position(root);
+            helpers[i - 1] = helperPool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // Helpers run until the main thread is done
+                    helper.search(copy, new SearchLimits(limits.getDepth(), 0, 0));
+                }
+            });
+        }
+
+        SearchResult result = searches[0].search(new Position(root), limits);
+
+        stopFlag.set(true);
+        for(Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch(ExecutionException e) {
+                throw new IllegalStateException("Search helper failed", e.getCause());
+            }
+        }
+        return result == null ? null : withTotalNodes(result);
+    }
+
+    private SearchResult withTotalNodes(SearchResult result) {
+        return new SearchResult(result.getBestMove(), result.getScore(),
+                result.getDepth(), getNodes(), result.getTimeMillis(),
+                result.getPrincipalVariation());
+    }
+
+    /**
+     * @return Nodes searched so far by all threads. Only approximate
+     * while a search is running.
+     */
+    public long getNodes() {
+        long total = 0;
+        for(Search search : searches)
+            total += search.getNodes();
+        return total;
+    }
+
+    /**
+     * Stop the helper threads for good.
+     */
+    public void shutdown() {
+        if(helperPool != null)
+            helperPool.shutdownNow();
+    }
+}
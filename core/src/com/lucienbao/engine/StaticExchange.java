@@ -0,0 +1,146 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Hex;
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+/**
+ * Static exchange evaluation: what a capture wins once both sides have
+ * recaptured on its cell for as long as it pays them, without searching.
+ * <p>
+ * Attackers are found from the knight and king attack sets, the pawn
+ * capture tables and the 12 rays of the target cell. Pieces that have
+ * taken part are removed from a local copy of the occupied set, so the
+ * next scan along a ray finds whatever stood behind them (x-rays). No
+ * objects or arrays are created.
+ */
+public class StaticExchange {
+    // Indexed by piece ID. The king only ever captures last, since it
+    // can't step into an attacked cell.
+    private static final int[] VALUES = {20000, 900, 500, 320, 300, 100};
+
+    /**
+     * Check whether a move wins at least some amount of material once
+     * the exchange it starts is over. Quiet moves are checked for
+     * whether the piece can be taken for free on its new cell.
+     * Promotions and en passant always pass.
+     * @param pos Position the move is played in.
+     * @param move Move of the side to move.
+     * @param threshold Material the move must win, in centipawns.
+     * @return Whether the exchange gains at least <code>threshold</code>.
+     */
+    public static boolean isAtLeast(Position pos, int move, int threshold) {
+        int code = MoveRules.getCode(move);
+        if(code != MoveRules.MOVE && code != MoveRules.CAPTURE)
+            return threshold <= 0;
+
+        int from = MoveRules.getFrom(move);
+        int to = MoveRules.getTo(move);
+
+        // What we stand to win if not recaptured
+        int swap = (code == MoveRules.CAPTURE ? VALUES[pos.getId(to)] : 0) - threshold;
+        if(swap < 0)
+            return false;
+        // What we stand to lose if recaptured
+        swap = VALUES[pos.getId(from)] - swap;
+        if(swap <= 0)
+            return true;
+
+        long occupiedLo = pos.getOccupied(0);
+        long occupiedHi = pos.getOccupied(1);
+        if(from < 64)
+            occupiedLo &= ~(1L << from);
+        else
+            occupiedHi &= ~(1L << from);
+
+        int side = pos.getColor(from);
+        // 1 while the side that made the move is ahead
+        int result = 1;
+        while(true) {
+            side = 1 - side;
+            int attacker = leastValuableAttacker(pos, to, side, occupiedLo, occupiedHi);
+            if(attacker == Position.NO_CELL)
+                break;
+            result ^= 1;
+
+            if(pos.getId(attacker) == Hex.KING) {
+                // The king may only recapture if nothing can take it back
+                if(leastValuableAttacker(pos, to, 1 - side, occupiedLo, occupiedHi)
+                        != Position.NO_CELL)
+                    result ^= 1;
+                break;
+            }
+
+            // Recapturing doesn't help if giving the piece up is worse
+            // than not recapturing at all
+            swap = VALUES[pos.getId(attacker)] - swap;
+            if(swap < result)
+                break;
+
+            if(attacker < 64)
+                occupiedLo &= ~(1L << attacker);
+            else
+                occupiedHi &= ~(1L << attacker);
+        }
+        return result == 1;
+    }
+
+    /**
+     * Find the cheapest piece of one color attacking a cell, counting
+     * only pieces in the given occupied set.
+     * @return Cell of the attacker, or <code>Position.NO_CELL</code>.
+     */
+    private static int leastValuableAttacker(Position pos, int cell, int color,
+                                             long occupiedLo, long occupiedHi) {
+        // A pawn attacks this cell from where an enemy pawn on this
+        // cell would capture
+        for(int from : MoveRules.PAWN_CAPTURES[1 - color][cell])
+            if(isOccupied(from, occupiedLo, occupiedHi)
+                    && pos.isColor(from, color) && pos.getId(from) == Hex.PAWN)
+                return from;
+
+        long knightsLo = MoveRules.KNIGHT_ATTACKS[cell * 2] & occupiedLo
+                & pos.getColorSet(color, 0) & pos.getPieceSet(Hex.KNIGHT, 0);
+        if(knightsLo != 0)
+            return Long.numberOfTrailingZeros(knightsLo);
+        long knightsHi = MoveRules.KNIGHT_ATTACKS[cell * 2 + 1] & occupiedHi
+                & pos.getColorSet(color, 1) & pos.getPieceSet(Hex.KNIGHT, 1);
+        if(knightsHi != 0)
+            return 64 + Long.numberOfTrailingZeros(knightsHi);
+
+        // The nearest piece along each ray, if it slides that way
+        int best = Position.NO_CELL;
+        int bestValue = Integer.MAX_VALUE;
+        int[][] rays = MoveRules.RAYS[cell];
+        for(int dir = 0; dir < MoveRules.NUM_DIRECTIONS; dir++) {
+            int slider = dir < MoveRules.FIRST_DIAGONAL ? Hex.ROOK : Hex.BISHOP;
+            for(int from : rays[dir]) {
+                if(!isOccupied(from, occupiedLo, occupiedHi))
+                    continue;
+                int id = pos.getId(from);
+                if(pos.isColor(from, color) && (id == slider || id == Hex.QUEEN)
+                        && VALUES[id] < bestValue) {
+                    best = from;
+                    bestValue = VALUES[id];
+                }
+                break;
+            }
+        }
+        if(best != Position.NO_CELL)
+            return best;
+
+        long kingLo = MoveRules.KING_ATTACKS[cell * 2] & occupiedLo
+                & pos.getColorSet(color, 0) & pos.getPieceSet(Hex.KING, 0);
+        if(kingLo != 0)
+            return Long.numberOfTrailingZeros(kingLo);
+        long kingHi = MoveRules.KING_ATTACKS[cell * 2 + 1] & occupiedHi
+                & pos.getColorSet(color, 1) & pos.getPieceSet(Hex.KING, 1);
+        if(kingHi != 0)
+            return 64 + Long.numberOfTrailingZeros(kingHi);
+        return Position.NO_CELL;
+    }
+
+    private static boolean isOccupied(int cell, long occupiedLo, long occupiedHi) {
+        return ((cell < 64 ? occupiedLo : occupiedHi) & 1L << cell) != 0;
+    }
+}
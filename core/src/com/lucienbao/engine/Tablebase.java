@@ -0,0 +1,146 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Position;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The perfect-play result of every position of one set of material
+ * without pawns, read from a memory-mapped file made by
+ * <code>TablebaseGenerator</code>.
+ * <p>
+ * Since stalemate isn't a draw in this game but scores 3/4 for the side
+ * giving it, there are five results: win, stalemate win, draw, stalemate
+ * loss and loss, each for the side to move. A win comes with the number
+ * of plies to mate with best play on both sides; a stalemate result with
+ * the plies to stalemate (or mate). The 50-move rule is ignored.
+ * <p>
+ * File format, all little-endian:
+ * <pre>
+ * bytes  "HXTB"
+ * int32  version (1)
+ * bytes  name of the material, padded with zeros to 8 bytes
+ * int16  packed result of each position, see TablebaseIndex
+ * </pre>
+ * A packed result is the result in bits 0-2 and the distance above.
+ */
+public class Tablebase {
+    /** Most pieces a table can have, kings included. */
+    public static final int MAX_PIECES = 4;
+
+    public static final int DRAW = 0;
+    public static final int WIN = 1;
+    public static final int LOSS = 2;
+    public static final int STALEMATE_WIN = 3;
+    public static final int STALEMATE_LOSS = 4;
+    /** Not a legal position: the side not to move is in check. */
+    public static final int INVALID = 7;
+
+    /** Returned by probes of positions that no table covers. */
+    public static final int NOT_FOUND = -1;
+
+    static final int MAGIC = 'H' | 'X' << 8 | 'T' << 16 | 'B' << 24;
+    static final int VERSION = 1;
+    static final int NAME_BYTES = 8;
+    static final int HEADER_BYTES = 8 + NAME_BYTES;
+    static final Charset NAME_CHARSET = Charset.forName("US-ASCII");
+
+    final TablebaseIndex index;
+    private final ByteBuffer data;
+
+    private Tablebase(TablebaseIndex index, ByteBuffer data) {
+        this.index = index;
+        this.data = data;
+    }
+
+    /**
+     * Map a table file. Like <code>OpeningBook</code>, the file stays
+     * mapped without holding a file handle open.
+     * @param file File to open.
+     * @return The table.
+     * @throws IOException If the file can't be read or isn't a table.
+     */
+    public static Tablebase open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] headerBytes = new byte[HEADER_BYTES];
+            raf.readFully(headerBytes);
+            ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+            if(header.getInt() != MAGIC)
+                throw new IOException("Not a tablebase");
+            if(header.getInt() != VERSION)
+                throw new IOException("Unsupported tablebase version");
+            String name = new String(headerBytes, 8, NAME_BYTES, NAME_CHARSET).trim();
+
+            TablebaseIndex index;
+            try {
+                index = new TablebaseIndex(name);
+            } catch(IllegalArgumentException e) {
+                throw new IOException("Tablebase has unknown material", e);
+            }
+            FileChannel channel = raf.getChannel();
+            if(channel.size() != HEADER_BYTES + 2 * index.size)
+                throw new IOException("Tablebase has the wrong size");
+
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES, 2 * index.size).order(ByteOrder.LITTLE_ENDIAN);
+            return new Tablebase(index, data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return The material, like <code>KQvK</code>.
+     */
+    public String getName() {
+        return index.name;
+    }
+
+    /**
+     * Look up a position.
+     * @param pos Position to look up.
+     * @param cells Scratch array of at least <code>MAX_PIECES</code>.
+     * @return Packed result for the side to move, or <code>NOT_FOUND</code>
+     * if the position doesn't have this table's material.
+     */
+    public int probe(Position pos, int[] cells) {
+        return probe(pos, TablebaseIndex.signature(pos), cells);
+    }
+
+    int probe(Position pos, long signature, int[] cells) {
+        boolean flipped;
+        if(signature == index.signature)
+            flipped = false;
+        else if(signature == index.flippedSignature)
+            flipped = true;
+        else
+            return NOT_FOUND;
+
+        index.cellsOf(pos, flipped, cells);
+        int side = flipped ? 1 - pos.getSideToMove() : pos.getSideToMove();
+        return get(index.index(cells, side));
+    }
+
+    int get(long position) {
+        return data.getShort((int) (2 * position)) & 0xFFFF;
+    }
+
+    public static int getResult(int packed) {
+        return packed & 7;
+    }
+
+    public static int getDistance(int packed) {
+        return packed >>> 3;
+    }
+
+    static int pack(int result, int distance) {
+        return result | distance << 3;
+    }
+}
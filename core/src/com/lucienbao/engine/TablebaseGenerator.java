@@ -0,0 +1,403 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Generates tablebases by retrograde analysis.
+ * <p>
+ * Each table is solved twice: once where only mate counts as winning,
+ * and once where stalemating the opponent counts too. Together they give
+ * the five results of <code>Tablebase</code>. A pass starts by marking
+ * the mates (and stalemates) and looking up every capture in the smaller
+ * tables, which are generated first. Then it works outwards one ply at a
+ * time: positions lost in <code>n</code> plies make every position that
+ * can move into them won in <code>n + 1</code>, and positions won in
+ * <code>n</code> make their predecessors lost in <code>n + 1</code> once
+ * all of their moves lead to wins for the opponent. Predecessors are
+ * found by moving the pieces of the side that just moved backwards,
+ * which without pawns is the same as moving them forwards.
+ * <p>
+ * Every step is split into slices of positions run in parallel on a
+ * fork-join pool. Results are updated with compare-and-set, so slices
+ * never need locks, and a position reached from two slices gets the same
+ * result either way.
+ */
+public class TablebaseGenerator {
+    private static final int SLICE = 1 << 14;
+
+    // Pass results: state in bits 0-1, distance above
+    private static final int UNKNOWN = 0;
+    private static final int WON = 1;
+    private static final int LOST = 2;
+    private static final int INVALID = 3;
+
+    private final File directory;
+    private final ForkJoinPool pool;
+    private final List<Tablebase> generated = new ArrayList<>();
+    private Tablebases smaller = new Tablebases(generated);
+
+    // The table and pass being solved
+    private TablebaseIndex index;
+    private AtomicIntegerArray entries;
+    private final AtomicInteger maxDistance = new AtomicInteger();
+    private boolean stalemateLoses;
+
+    /**
+     * @param directory Where to write tables, and look for ones already
+     *                  generated.
+     * @param pool Pool to run on.
+     */
+    public TablebaseGenerator(File directory, ForkJoinPool pool) {
+        this.directory = directory;
+        this.pool = pool;
+    }
+
+    /**
+     * Generate a table, and every smaller table its captures lead to.
+     * Tables already in the directory are opened instead.
+     * @param name Material, like <code>KQvK</code>.
+     * @return The table.
+     * @throws IOException If writing a table fails.
+     */
+    public Tablebase generate(String name) throws IOException {
+        name = TablebaseIndex.canonicalName(name);
+        for(Tablebase table : generated)
+            if(table.getName().equals(name))
+                return table;
+
+        TablebaseIndex material = new TablebaseIndex(name);
+        for(int i = 2; i < material.pieces; i++)
+            generate(material.without(i));
+
+        File file = new File(directory, name + Tablebases.EXTENSION);
+        if(!file.exists())
+            solve(material, file);
+        Tablebase table = Tablebase.open(file);
+        generated.add(table);
+        smaller = new Tablebases(generated);
+        return table;
+    }
+
+    private void solve(TablebaseIndex material, File file) throws IOException {
+        if(material.size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many positions in " + material.name);
+        index = material;
+        entries = new AtomicIntegerArray((int) material.size);
+        short[] results = new short[(int) material.size];
+
+        // Mate only
+        runPass(false);
+        for(int i = 0; i < results.length; i++) {
+            int entry = entries.get(i);
+            int distance = entry >>> 2;
+            switch(entry & 3) {
+                case WON:
+                    results[i] = (short) Tablebase.pack(Tablebase.WIN, distance);
+                    break;
+                case LOST:
+                    results[i] = (short) Tablebase.pack(Tablebase.LOSS, distance);
+                    break;
+                case INVALID:
+                    results[i] = (short) Tablebase.INVALID;
+                    break;
+            }
+        }
+
+        // Mate or stalemate, for what isn't decided by mate
+        runPass(true);
+        for(int i = 0; i < results.length; i++) {
+            if(results[i] != Tablebase.DRAW)
+                continue;
+            int entry = entries.get(i);
+            if((entry & 3) == WON)
+                results[i] = (short) Tablebase.pack(Tablebase.STALEMATE_WIN, entry >>> 2);
+            else if((entry & 3) == LOST)
+                results[i] = (short) Tablebase.pack(Tablebase.STALEMATE_LOSS, entry >>> 2);
+        }
+        entries = null;
+
+        write(material, results, file);
+    }
+
+    private void runPass(boolean stalemateLoses) {
+        this.stalemateLoses = stalemateLoses;
+        for(int i = 0; i < entries.length(); i++)
+            entries.set(i, UNKNOWN);
+        maxDistance.set(0);
+
+        pool.invoke(new SliceTask(0, entries.length(), -1));
+        for(int level = 0; level <= maxDistance.get(); level++)
+            pool.invoke(new SliceTask(0, entries.length(), level));
+    }
+
+    private static void write(TablebaseIndex material, short[] results, File file)
+            throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(Tablebase.MAGIC).putInt(Tablebase.VERSION);
+            byte[] name = material.name.getBytes(Tablebase.NAME_CHARSET);
+            buffer.put(name).put(new byte[Tablebase.NAME_BYTES - name.length]);
+            for(short result : results) {
+                if(!buffer.hasRemaining()) {
+                    buffer.flip();
+                    while(buffer.hasRemaining())
+                        channel.write(buffer);
+                    buffer.clear();
+                }
+                buffer.putShort(result);
+            }
+            buffer.flip();
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+        } finally {
+            out.close();
+        }
+        if(!temp.renameTo(file))
+            throw new IOException("Can't rename " + temp + " to " + file);
+    }
+
+    /**
+     * Runs one step of a pass over a range of positions: the first step
+     * (level -1), or working outwards from the positions decided in
+     * <code>level</code> plies.
+     */
+    private class SliceTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int level;
+
+        SliceTask(int from, int to, int level) {
+            this.from = from;
+            this.to = to;
+            this.level = level;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > SLICE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SliceTask(from, middle, level), new SliceTask(middle, to, level));
+                return;
+            }
+            Worker worker = new Worker();
+            for(int i = from; i < to; i++) {
+                if(level < 0)
+                    worker.initialize(i);
+                else
+                    worker.propagate(i, level);
+            }
+        }
+    }
+
+    /**
+     * Buffers for one slice.
+     */
+    private class Worker {
+        private final Position position = new Position();
+        private final Position other = new Position();
+        private final int[] cells = new int[Tablebase.MAX_PIECES];
+        private final int[] otherCells = new int[Tablebase.MAX_PIECES];
+        private final int[] scratch = new int[Tablebase.MAX_PIECES];
+        private final int[] moves = new int[MoveRules.MAX_MOVES];
+        private final int[] otherMoves = new int[MoveRules.MAX_MOVES];
+
+        /**
+         * Mark a position invalid, mated, stalemated, or decided by a
+         * capture.
+         */
+        void initialize(int i) {
+            int side = index.decode(i, cells);
+            if(!index.setUp(position, cells, side) || index.index(cells, side) != i
+                    || MoveRules.isInCheck(position, 1 - side)) {
+                entries.set(i, INVALID);
+                return;
+            }
+
+            int count = MoveRules.generateLegalMoves(position, moves, 0);
+            if(count == 0) {
+                if(stalemateLoses || MoveRules.isInCheck(position, side))
+                    set(i, LOST, 0);
+                return;
+            }
+
+            int win = Integer.MAX_VALUE;
+            int loss = 0;
+            boolean allLose = true;
+            for(int m = 0; m < count; m++) {
+                if(MoveRules.getCode(moves[m]) != MoveRules.CAPTURE) {
+                    allLose = false;
+                    continue;
+                }
+                int child = probeCapture(position, moves[m]);
+                if((child & 3) == LOST) {
+                    win = Math.min(win, (child >>> 2) + 1);
+                } else if((child & 3) == WON) {
+                    loss = Math.max(loss, (child >>> 2) + 1);
+                } else {
+                    allLose = false;
+                }
+            }
+            if(win != Integer.MAX_VALUE)
+                set(i, WON, win);
+            else if(allLose)
+                set(i, LOST, loss);
+        }
+
+        /**
+         * If the position was decided in <code>level</code> plies, update
+         * every position that can move into it.
+         */
+        void propagate(int i, int level) {
+            int entry = entries.get(i);
+            int state = entry & 3;
+            if(state != WON && state != LOST || entry >>> 2 != level)
+                return;
+
+            int side = index.decode(i, cells);
+            index.setUp(position, cells, side);
+            for(int piece = 0; piece < index.pieces; piece++) {
+                if(index.colors[piece] == side)
+                    continue;
+                int count = MoveRules.generateMoves(position, cells[piece], moves, 0);
+                for(int m = 0; m < count; m++) {
+                    if(MoveRules.getCode(moves[m]) != MoveRules.MOVE)
+                        continue;
+                    System.arraycopy(cells, 0, scratch, 0, index.pieces);
+                    scratch[piece] = MoveRules.getTo(moves[m]);
+                    int predecessor = (int) index.index(scratch, 1 - side);
+
+                    if(state == LOST)
+                        setWon(predecessor, level + 1);
+                    else if(entries.get(predecessor) == UNKNOWN)
+                        checkLost(predecessor, level);
+                }
+            }
+        }
+
+        /**
+         * Mark a position lost if every move leads to a position won for
+         * the opponent within <code>level</code> plies (or by a capture).
+         */
+        private void checkLost(int i, int level) {
+            int side = index.decode(i, otherCells);
+            index.setUp(other, otherCells, side);
+            int count = MoveRules.generateLegalMoves(other, otherMoves, 0);
+            int loss = 0;
+            for(int m = 0; m < count; m++) {
+                int move = otherMoves[m];
+                int child;
+                if(MoveRules.getCode(move) == MoveRules.CAPTURE) {
+                    child = probeCapture(other, move);
+                } else {
+                    System.arraycopy(otherCells, 0, scratch, 0, index.pieces);
+                    int from = MoveRules.getFrom(move);
+                    for(int piece = 0; piece < index.pieces; piece++)
+                        if(scratch[piece] == from)
+                            scratch[piece] = MoveRules.getTo(move);
+                    child = entries.get((int) index.index(scratch, 1 - side));
+                    if(child >>> 2 > level)
+                        return;
+                }
+                if((child & 3) != WON)
+                    return;
+                loss = Math.max(loss, (child >>> 2) + 1);
+            }
+            if(count > 0 && entries.compareAndSet(i, UNKNOWN, LOST | loss << 2))
+                maxDistance(loss);
+        }
+
+        /**
+         * @return Result of the position after a capture, in this pass's
+         * terms, from the smaller tables.
+         */
+        private int probeCapture(Position pos, int move) {
+            pos.makeMove(move);
+            int packed = smaller.probe(pos, scratch);
+            pos.unmakeMove();
+            if(packed == Tablebase.NOT_FOUND)
+                throw new IllegalStateException("No table for a capture in " + index.name);
+
+            int distance = Tablebase.getDistance(packed);
+            switch(Tablebase.getResult(packed)) {
+                case Tablebase.WIN:
+                    return WON | distance << 2;
+                case Tablebase.LOSS:
+                    return LOST | distance << 2;
+                case Tablebase.STALEMATE_WIN:
+                    return stalemateLoses ? WON | distance << 2 : UNKNOWN;
+                case Tablebase.STALEMATE_LOSS:
+                    return stalemateLoses ? LOST | distance << 2 : UNKNOWN;
+                default:
+                    return UNKNOWN;
+            }
+        }
+    }
+
+    private void set(int i, int state, int distance) {
+        entries.set(i, state | distance << 2);
+        maxDistance(distance);
+    }
+
+    /**
+     * Mark a position won, unless it is already won sooner.
+     */
+    private void setWon(int i, int distance) {
+        while(true) {
+            int entry = entries.get(i);
+            int state = entry & 3;
+            if(state == LOST || state == INVALID || state == WON && entry >>> 2 <= distance)
+                return;
+            if(entries.compareAndSet(i, entry, WON | distance << 2)) {
+                maxDistance(distance);
+                return;
+            }
+        }
+    }
+
+    private void maxDistance(int distance) {
+        int max;
+        while((max = maxDistance.get()) < distance && !maxDistance.compareAndSet(max, distance))
+            continue;
+    }
+
+    /**
+     * Generate tables from the command line.
+     * @param args Directory to write to, then the material of each table,
+     *             like <code>KQvK KRvK</code>.
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) {
+            System.err.println("Usage: TablebaseGenerator <directory> <material>...");
+            System.exit(1);
+        }
+        File directory = new File(args[0]);
+        if(!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+
+        TablebaseGenerator generator = new TablebaseGenerator(directory, new ForkJoinPool());
+        for(int i = 1; i < args.length; i++) {
+            long start = System.nanoTime();
+            Tablebase table = generator.generate(args[i]);
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            System.out.println(table.getName() + ": " + table.index.size + " positions, "
+                    + elapsed + " ms");
+        }
+    }
+}
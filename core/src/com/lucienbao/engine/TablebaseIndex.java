@@ -0,0 +1,267 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Hex;
+import com.lucienbao.board.Position;
+
+/**
+ * The material of a tablebase, and how its positions are numbered.
+ * <p>
+ * Material is named like <code>KQvK</code>: White's pieces, then Black's,
+ * each starting with the king and in order of piece ID. Pieces are kept
+ * in that order in a cell array: White's king, Black's king, White's
+ * other pieces, Black's other pieces.
+ * <p>
+ * Without pawns the rules look the same on a board mirrored left to
+ * right or top to bottom, so every position is first mirrored to put
+ * White's king in the lower left quarter of the board (27 cells, out of
+ * 91). Two pieces that are alike are put in order of cell. A position's
+ * index is its side to move, White's king's cell in the quarter, and the
+ * cells of the other pieces, as digits of a mixed-radix number.
+ */
+class TablebaseIndex {
+    private static final String PIECE_LETTERS = "KQRBN";
+
+    private static final int NUM_TRANSFORMS = 4;
+    // [transform][cell]: 0 keeps the cell, 1 mirrors it left to right,
+    // 2 top to bottom, and 3 both
+    private static final int[][] TRANSFORMED = new int[NUM_TRANSFORMS][Position.NUM_CELLS];
+    // First transform that takes each cell into the lower left quarter
+    private static final int[] TRANSFORM_OF = new int[Position.NUM_CELLS];
+    private static final int[] KING_SLOT = new int[Position.NUM_CELLS];
+    private static final int[] KING_CELLS;
+
+    static {
+        int slots = 0;
+        int[] kingCells = new int[Position.NUM_CELLS];
+        for(int cell = 0; cell < Position.NUM_CELLS; cell++) {
+            int file = Position.fileOf(cell);
+            int rank = Position.rankOf(cell);
+            int leftRight = Position.cell(10 - file, rank);
+            TRANSFORMED[0][cell] = cell;
+            TRANSFORMED[1][cell] = leftRight;
+            TRANSFORMED[2][cell] = Position.mirror(cell);
+            TRANSFORMED[3][cell] = Position.mirror(leftRight);
+
+            KING_SLOT[cell] = -1;
+            if(isInQuarter(cell)) {
+                KING_SLOT[cell] = slots;
+                kingCells[slots++] = cell;
+            }
+        }
+        KING_CELLS = new int[slots];
+        System.arraycopy(kingCells, 0, KING_CELLS, 0, slots);
+
+        for(int cell = 0; cell < Position.NUM_CELLS; cell++) {
+            int transform = 0;
+            while(!isInQuarter(TRANSFORMED[transform][cell]))
+                transform++;
+            TRANSFORM_OF[cell] = transform;
+        }
+    }
+
+    private static boolean isInQuarter(int cell) {
+        int file = Position.fileOf(cell);
+        return file <= 5 && 2 * Position.rankOf(cell) + 5 - file <= 10;
+    }
+
+    final String name;
+    final int pieces;
+    final int[] colors;
+    final int[] ids;
+    final long size;
+    // Number of pieces of each color and ID, 4 bits each, see signature()
+    final long signature;
+    // Same, with the colors swapped
+    final long flippedSignature;
+    // Whether two pieces are alike, so only one order of them is used
+    private final boolean pairedPieces;
+
+    /**
+     * @param name Material, like <code>KRvK</code>.
+     * @throws IllegalArgumentException If the name isn't valid material.
+     */
+    TablebaseIndex(String name) {
+        int split = name.indexOf('v');
+        if(split < 0 || name.length() - 1 > Tablebase.MAX_PIECES
+                || !name.startsWith("K") || !name.startsWith("K", split + 1))
+            throw new IllegalArgumentException("Not a tablebase name: " + name);
+
+        this.name = name;
+        this.pieces = name.length() - 1;
+        this.colors = new int[pieces];
+        this.ids = new int[pieces];
+        colors[0] = Hex.WHITE;
+        ids[0] = Hex.KING;
+        colors[1] = Hex.BLACK;
+        ids[1] = Hex.KING;
+
+        int n = 2;
+        long signature = 0;
+        long flippedSignature = 0;
+        for(int i = 0; i < name.length(); i++) {
+            if(i == split)
+                continue;
+            int color = i < split ? Hex.WHITE : Hex.BLACK;
+            int id = PIECE_LETTERS.indexOf(name.charAt(i));
+            if(id < 0)
+                throw new IllegalArgumentException("Not a tablebase name: " + name);
+            signature += 1L << 4 * (color * 6 + id);
+            flippedSignature += 1L << 4 * ((1 - color) * 6 + id);
+            if(i == 0 || i == split + 1)
+                continue;
+            if(id == Hex.KING)
+                throw new IllegalArgumentException("Not a tablebase name: " + name);
+            if(colors[n - 1] == color && id < ids[n - 1])
+                throw new IllegalArgumentException("Pieces out of order: " + name);
+            colors[n] = color;
+            ids[n] = id;
+            n++;
+        }
+        this.signature = signature;
+        this.flippedSignature = flippedSignature;
+        this.pairedPieces = pieces == 4 && colors[2] == colors[3] && ids[2] == ids[3];
+
+        long size = 2L * KING_CELLS.length;
+        for(int i = 1; i < pieces; i++)
+            size *= Position.NUM_CELLS;
+        this.size = size;
+    }
+
+    /**
+     * @return The name of the same material with the stronger side as
+     * White: more pieces, or if equal, the lower piece IDs.
+     */
+    static String canonicalName(String name) {
+        int split = name.indexOf('v');
+        String white = name.substring(0, split);
+        String black = name.substring(split + 1);
+        if(white.length() < black.length() || white.length() == black.length()
+                && compareSides(white, black) > 0)
+            return black + "v" + white;
+        return name;
+    }
+
+    private static int compareSides(String a, String b) {
+        for(int i = 0; i < a.length(); i++) {
+            int order = PIECE_LETTERS.indexOf(a.charAt(i)) - PIECE_LETTERS.indexOf(b.charAt(i));
+            if(order != 0)
+                return order;
+        }
+        return 0;
+    }
+
+    /**
+     * @return Name of the material with piece <code>i</code> (not a king)
+     * taken off.
+     */
+    String without(int i) {
+        StringBuilder result = new StringBuilder();
+        for(int color = Hex.WHITE; color <= Hex.BLACK; color++) {
+            if(color == Hex.BLACK)
+                result.append('v');
+            for(int j = 0; j < pieces; j++)
+                if(j != i && colors[j] == color)
+                    result.append(PIECE_LETTERS.charAt(ids[j]));
+        }
+        return result.toString();
+    }
+
+    /**
+     * @param pos Position to look at.
+     * @return Number of pieces of each color and ID, 4 bits each.
+     */
+    static long signature(Position pos) {
+        long result = 0;
+        for(int color = Hex.WHITE; color <= Hex.BLACK; color++) {
+            for(int id = Hex.KING; id <= Hex.PAWN; id++) {
+                int count = Long.bitCount(pos.getColorSet(color, 0) & pos.getPieceSet(id, 0))
+                        + Long.bitCount(pos.getColorSet(color, 1) & pos.getPieceSet(id, 1));
+                result += (long) count << 4 * (color * 6 + id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fill in the cells of a position's pieces, in this material's order.
+     * @param pos Position with this material, or the same with the colors
+     *            swapped.
+     * @param flipped Whether the colors are swapped; the board is then
+     *                mirrored top to bottom too.
+     * @param cells Array to fill in.
+     */
+    void cellsOf(Position pos, boolean flipped, int[] cells) {
+        int i = 0;
+        while(i < pieces) {
+            int color = flipped ? 1 - colors[i] : colors[i];
+            int id = ids[i];
+            for(int word = 0; word < 2; word++) {
+                long set = pos.getColorSet(color, word) & pos.getPieceSet(id, word);
+                while(set != 0) {
+                    int cell = word * 64 + Long.numberOfTrailingZeros(set);
+                    set &= set - 1;
+                    cells[i++] = flipped ? Position.mirror(cell) : cell;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param cells Cells of the pieces, in this material's order.
+     * @param sideToMove Side to move.
+     * @return Index of the position. When White's king is on one of the
+     * lines the board is mirrored across, more than one mirror image has
+     * it in the quarter; the lowest index of those is used, so that every
+     * position has just one.
+     */
+    long index(int[] cells, int sideToMove) {
+        long best = Long.MAX_VALUE;
+        for(int transform = 0; transform < NUM_TRANSFORMS; transform++)
+            if(KING_SLOT[TRANSFORMED[transform][cells[0]]] >= 0)
+                best = Math.min(best, index(cells, sideToMove, TRANSFORMED[transform]));
+        return best;
+    }
+
+    private long index(int[] cells, int sideToMove, int[] transformed) {
+        long index = sideToMove * KING_CELLS.length + KING_SLOT[transformed[cells[0]]];
+        for(int i = 1; i < pieces; i++)
+            index = index * Position.NUM_CELLS + transformed[cells[i]];
+        // With at most four pieces, only the last two can be alike
+        if(pairedPieces) {
+            int first = transformed[cells[2]];
+            int second = transformed[cells[3]];
+            if(first > second)
+                index += (second - first) * (Position.NUM_CELLS - 1);
+        }
+        return index;
+    }
+
+    /**
+     * @param index Index of a position.
+     * @param cells Array to write the cells of its pieces into.
+     * @return Its side to move.
+     */
+    int decode(long index, int[] cells) {
+        for(int i = pieces - 1; i > 0; i--) {
+            cells[i] = (int) (index % Position.NUM_CELLS);
+            index /= Position.NUM_CELLS;
+        }
+        cells[0] = KING_CELLS[(int) (index % KING_CELLS.length)];
+        return (int) (index / KING_CELLS.length);
+    }
+
+    /**
+     * Set up a position from the cells of its pieces.
+     * @return Whether the pieces are all on different cells.
+     */
+    boolean setUp(Position pos, int[] cells, int sideToMove) {
+        pos.clear();
+        for(int i = 0; i < pieces; i++) {
+            if(!pos.isEmpty(cells[i]))
+                return false;
+            pos.setPiece(cells[i], colors[i], ids[i]);
+        }
+        pos.setSideToMove(sideToMove);
+        return true;
+    }
+}
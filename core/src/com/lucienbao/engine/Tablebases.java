@@ -0,0 +1,132 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.Hex;
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of tablebases, looked up by the material of a position. Probes
+ * only read memory-mapped files, so a set can be shared by any number of
+ * search threads.
+ */
+public class Tablebases {
+    /** File name extension of tables. */
+    public static final String EXTENSION = ".hxtb";
+
+    private final Tablebase[] tables;
+    private final int maxPieces;
+
+    public Tablebases(List<Tablebase> tables) {
+        this.tables = tables.toArray(new Tablebase[tables.size()]);
+        int maxPieces = 0;
+        for(Tablebase table : tables)
+            maxPieces = Math.max(maxPieces, table.index.pieces);
+        this.maxPieces = maxPieces;
+    }
+
+    /**
+     * Open every table in a directory.
+     * @param directory Directory to look in.
+     * @return The tables found, possibly none.
+     * @throws IOException If a table can't be opened.
+     */
+    public static Tablebases open(File directory) throws IOException {
+        List<Tablebase> tables = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if(files != null)
+            for(File file : files)
+                if(file.getName().endsWith(EXTENSION))
+                    tables.add(Tablebase.open(file));
+        return new Tablebases(tables);
+    }
+
+    public int size() {
+        return tables.length;
+    }
+
+    /**
+     * Look up a position in whichever table has its material.
+     * @param pos Position to look up.
+     * @param cells Scratch array of at least
+     *              <code>Tablebase.MAX_PIECES</code>.
+     * @return Packed result for the side to move, see
+     * <code>Tablebase</code>, or <code>Tablebase.NOT_FOUND</code>.
+     */
+    public int probe(Position pos, int[] cells) {
+        long occupiedLo = pos.getOccupied(0);
+        long occupiedHi = pos.getOccupied(1);
+        if(Long.bitCount(occupiedLo) + Long.bitCount(occupiedHi) > maxPieces
+                || (pos.getPieceSet(Hex.PAWN, 0) | pos.getPieceSet(Hex.PAWN, 1)) != 0)
+            return Tablebase.NOT_FOUND;
+
+        long signature = TablebaseIndex.signature(pos);
+        for(Tablebase table : tables) {
+            int result = table.probe(pos, signature, cells);
+            if(result != Tablebase.NOT_FOUND)
+                return result;
+        }
+        return Tablebase.NOT_FOUND;
+    }
+
+    /**
+     * @param packed Packed result, not <code>NOT_FOUND</code>.
+     * @param ply Distance from the root of the search.
+     * @return The result as a search score for the side to move: mate
+     * scores for wins and losses, and near <code>STALEMATE</code> for
+     * stalemates, the nearer the sooner.
+     */
+    public static int toScore(int packed, int ply) {
+        int distance = ply + Tablebase.getDistance(packed);
+        switch(Tablebase.getResult(packed)) {
+            case Tablebase.WIN:
+                return Search.MATE - distance;
+            case Tablebase.LOSS:
+                return -Search.MATE + distance;
+            case Tablebase.STALEMATE_WIN:
+                return Search.STALEMATE - Math.min(distance, Search.STALEMATE / 2);
+            case Tablebase.STALEMATE_LOSS:
+                return -Search.STALEMATE + Math.min(distance, Search.STALEMATE / 2);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Find the best move of a position in the tables: the quickest win,
+     * or failing that the slowest loss.
+     * @param pos Position to play in; back to how it was on return.
+     * @return The move and its score, as a <code>SearchResult</code>, or
+     * <code>null</code> if the position or one of its moves isn't in the
+     * tables.
+     */
+    public SearchResult bestMove(Position pos) {
+        int[] cells = new int[Tablebase.MAX_PIECES];
+        if(probe(pos, cells) == Tablebase.NOT_FOUND)
+            return null;
+
+        int[] moves = new int[MoveRules.MAX_MOVES];
+        int count = MoveRules.generateLegalMoves(pos, moves, 0);
+        int bestMove = MoveRules.NO_MOVE;
+        int bestScore = -Search.INFINITY;
+        for(int i = 0; i < count; i++) {
+            pos.makeMove(moves[i]);
+            int result = probe(pos, cells);
+            pos.unmakeMove();
+            if(result == Tablebase.NOT_FOUND)
+                return null;
+            int score = -toScore(result, 1);
+            if(score > bestScore) {
+                bestScore = score;
+                bestMove = moves[i];
+            }
+        }
+        if(bestMove == MoveRules.NO_MOVE)
+            return null;
+        return new SearchResult(bestMove, bestScore, 0, count, 0, new int[] {bestMove});
+    }
+}
@@ -0,0 +1,123 @@
+package com.lucienbao.engine;
+
+import com.lucienbao.board.PieceSquareTables;
+import com.lucienbao.board.Position;
+
+/**
+ * Decides how long a search may take.
+ * <p>
+ * With a fixed time, that's the time, and the search uses all of it.
+ * With a clock, the time left is
+ * shared out over the moves the game probably still has, more of them
+ * while pieces are still on the board, plus most of the increment. That
+ * gives an optimum time, which the search aims for, and a maximum, at
+ * which it is stopped however far it got.
+ * <p>
+ * Between iterations the optimum is stretched or shrunk by how settled
+ * the search looks: a best move that keeps changing, or a score that
+ * just dropped, earns more time, and one that has stayed the same for
+ * several iterations earns less.
+ */
+class TimeManager {
+    // Kept back from every move for the time it takes to play it
+    static final long MOVE_OVERHEAD_MILLIS = 30;
+    // Moves a game is expected to last yet, from bare kings up to all
+    // pieces on the board
+    private static final int MIN_MOVES_TO_GO = 20;
+    private static final int MAX_MOVES_TO_GO = 45;
+    // Largest share of the clock one move may take, in percent
+    private static final int MAX_CLOCK_PERCENT = 30;
+    // Most the optimum may be stretched to, as a multiple
+    private static final int MAX_OPTIMUM_FACTOR = 5;
+    // Percent of the optimum to spend, by how many iterations in a row
+    // have had the same best move
+    private static final int[] STABILITY_PERCENT = {200, 140, 110, 90, 75};
+    private static final int SCORE_DROP = 30;
+    private static final int SCORE_DROP_PERCENT = 130;
+
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private boolean timed;
+    private boolean managed;
+    private long optimumNanos;
+    private long maximumNanos;
+    private int lastBestMove;
+    private int lastScore;
+    private int stableIterations;
+
+    /**
+     * Work out the budget of a new search.
+     * @param limits Limits of the search.
+     * @param root Position searched.
+     */
+    void start(SearchLimits limits, Position root) {
+        lastBestMove = -1;
+        stableIterations = 0;
+        if(limits.getClockMillis() > 0) {
+            timed = true;
+            managed = true;
+            int phase = Math.min(root.getPhase(), PieceSquareTables.PHASE_MAX);
+            long movesToGo = MIN_MOVES_TO_GO
+                    + (MAX_MOVES_TO_GO - MIN_MOVES_TO_GO) * phase / PieceSquareTables.PHASE_MAX;
+            long usable = Math.max(1, limits.getClockMillis() - MOVE_OVERHEAD_MILLIS);
+            long optimum = usable / movesToGo + limits.getIncrementMillis() * 3 / 4;
+            long maximum = Math.min(optimum * MAX_OPTIMUM_FACTOR,
+                    usable * MAX_CLOCK_PERCENT / 100);
+            maximum = Math.max(1, maximum);
+            optimumNanos = Math.min(optimum, maximum) * NANOS_PER_MILLI;
+            maximumNanos = maximum * NANOS_PER_MILLI;
+        } else if(limits.getTimeMillis() > 0) {
+            timed = true;
+            managed = false;
+            optimumNanos = limits.getTimeMillis() * NANOS_PER_MILLI;
+            maximumNanos = optimumNanos;
+        } else {
+            timed = false;
+            managed = false;
+        }
+    }
+
+    /**
+     * @return Whether the search has a time limit at all.
+     */
+    boolean isTimed() {
+        return timed;
+    }
+
+    /**
+     * @return Time after which the search is stopped, in nanoseconds from
+     * its start.
+     */
+    long getMaximumNanos() {
+        return maximumNanos;
+    }
+
+    /**
+     * Call after every completed iteration.
+     * @param bestMove The iteration's best move.
+     * @param score Its score.
+     * @param elapsedNanos Time since the search started.
+     * @return Whether to stop rather than start another iteration, which
+     * would probably take longer than all the earlier ones together.
+     * Only a search on a clock stops early; a fixed time is searched to
+     * the end.
+     */
+    boolean iterationFinished(int bestMove, int score, long elapsedNanos) {
+        // A fixed time runs until it is used up
+        if(!managed)
+            return false;
+
+        if(bestMove == lastBestMove)
+            stableIterations++;
+        else
+            stableIterations = 0;
+        long budget = optimumNanos * STABILITY_PERCENT[Math.min(stableIterations,
+                STABILITY_PERCENT.length - 1)] / 100;
+        if(lastBestMove != -1 && score < lastScore - SCORE_DROP)
+            budget = budget * SCORE_DROP_PERCENT / 100;
+        budget = Math.min(budget, maximumNanos);
+        lastBestMove = bestMove;
+        lastScore = score;
+        return elapsedNanos * 2 > budget;
+    }
+}
@@ -0,0 +1,193 @@
+package com.lucienbao.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A transposition table stored outside the Java heap, so that it can be
+ * as big as the machine allows without the garbage collector ever having
+ * to look at it.
+ * <p>
+ * The table is split into 64-byte buckets (one cache line) of 4 entries.
+ * Each entry is two longs: the entry's data, and the position key XORed
+ * with that data. Reads and writes take no locks; if two threads write
+ * the same entry at once and the halves get mixed up, the XOR check fails
+ * and the entry reads as a miss. That makes the table safe to share
+ * between search threads.
+ * <p>
+ * Data is packed as: bits 0-19 move, bits 20-35 score (signed),
+ * bits 36-43 depth, bits 44-45 bound, bits 46-51 age.
+ */
+public class TranspositionTable {
+    public static final long NO_ENTRY = 0;
+
+    public static final int BOUND_UPPER = 1;
+    public static final int BOUND_LOWER = 2;
+    public static final int BOUND_EXACT = 3;
+
+    private static final int ENTRY_BYTES = 16;
+    private static final int BUCKET_ENTRIES = 4;
+    private static final int BUCKET_BYTES = ENTRY_BYTES * BUCKET_ENTRIES;
+    private static final int AGE_LIMIT = 64;
+
+    // Direct buffers are capped at 2 GB, so bigger tables are split
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int BUCKETS_PER_SEGMENT_SHIFT = SEGMENT_SHIFT - 6;
+
+    private final ByteBuffer[] segments;
+    private final long bucketMask;
+    private int age;
+
+    /**
+     * Allocate a table. The size is rounded down to a power of two.
+     * @param megabytes Size of the table in MiB, at least 1.
+     */
+    public TranspositionTable(int megabytes) {
+        if(megabytes < 1)
+            throw new IllegalArgumentException("Table must be at least 1 MB");
+
+        long bytes = Long.highestOneBit((long) megabytes << 20);
+        long buckets = bytes / BUCKET_BYTES;
+        bucketMask = buckets - 1;
+
+        long segmentBytes = Math.min(bytes, 1L << SEGMENT_SHIFT);
+        segments = new ByteBuffer[(int) (bytes / segmentBytes)];
+        for(int i = 0; i < segments.length; i++)
+            segments[i] = ByteBuffer.allocateDirect((int) segmentBytes)
+                    .order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return Size of the table in bytes.
+     */
+    public long sizeInBytes() {
+        return (bucketMask + 1) * BUCKET_BYTES;
+    }
+
+    /**
+     * Empty the table. Not safe to call while a search is running.
+     */
+    public void clear() {
+        for(ByteBuffer segment : segments)
+            for(int offset = 0; offset < segment.capacity(); offset += 8)
+                segment.putLong(offset, 0);
+        age = 0;
+    }
+
+    /**
+     * Start a new search, so that entries from older searches are
+     * replaced first.
+     */
+    public void newSearch() {
+        age = (age + 1) % AGE_LIMIT;
+    }
+
+    /**
+     * Look up a position.
+     * @param key Zobrist key of the position.
+     * @return The entry's packed data, or <code>NO_ENTRY</code>.
+     */
+    public long probe(long key) {
+        long bucket = key & bucketMask;
+        ByteBuffer segment = segments[(int) (bucket >>> BUCKETS_PER_SEGMENT_SHIFT)];
+        int base = bucketOffset(bucket);
+        for(int i = 0; i < BUCKET_ENTRIES; i++) {
+            int offset = base + i * ENTRY_BYTES;
+            long data = segment.getLong(offset + 8);
+            if((segment.getLong(offset) ^ data) == key && data != NO_ENTRY)
+                return data;
+        }
+        return NO_ENTRY;
+    }
+
+    /**
+     * Store a search result. An existing entry for the same position is
+     * overwritten; otherwise the shallowest, oldest entry of the bucket
+     * is replaced.
+     * @param key Zobrist key of the position.
+     * @param move Best move found, or <code>MoveRules.NO_MOVE</code>.
+     * @param score Score, between -32768 and 32767.
+     * @param depth Depth searched, from 0 to 255.
+     * @param bound <code>BOUND_UPPER</code>, <code>BOUND_LOWER</code>
+     *              or <code>BOUND_EXACT</code>.
+     */
+    public void store(long key, int move, int score, int depth, int bound) {
+        long bucket = key & bucketMask;
+        ByteBuffer segment = segments[(int) (bucket >>> BUCKETS_PER_SEGMENT_SHIFT)];
+        int base = bucketOffset(bucket);
+
+        int replace = base;
+        int worst = Integer.MAX_VALUE;
+        for(int i = 0; i < BUCKET_ENTRIES; i++) {
+            int offset = base + i * ENTRY_BYTES;
+            long data = segment.getLong(offset + 8);
+            if((segment.getLong(offset) ^ data) == key) {
+                // Keep the old best move rather than forget it
+                if(move == 0)
+                    move = getMove(data);
+                replace = offset;
+                break;
+            }
+            // Entries from older searches count as shallower
+            int relativeAge = (AGE_LIMIT + age - getAge(data)) % AGE_LIMIT;
+            int value = data == NO_ENTRY ? Integer.MIN_VALUE
+                    : getDepth(data) - 4 * relativeAge;
+            if(value < worst) {
+                worst = value;
+                replace = offset;
+            }
+        }
+
+        long data = (move & 0xFFFFFL)
+                | (score & 0xFFFFL) << 20
+                | (long) (depth & 0xFF) << 36
+                | (long) bound << 44
+                | (long) age << 46;
+        segment.putLong(replace, key ^ data);
+        segment.putLong(replace + 8, data);
+    }
+
+    /**
+     * Estimate how full the table is, counting only entries from the
+     * current search.
+     * @return Permille of entries in use.
+     */
+    public int hashfull() {
+        int samples = (int) Math.min(250, bucketMask + 1);
+        int used = 0;
+        for(int bucket = 0; bucket < samples; bucket++) {
+            ByteBuffer segment = segments[bucket >>> BUCKETS_PER_SEGMENT_SHIFT];
+            int base = bucketOffset(bucket);
+            for(int i = 0; i < BUCKET_ENTRIES; i++) {
+                long data = segment.getLong(base + i * ENTRY_BYTES + 8);
+                if(data != NO_ENTRY && getAge(data) == age)
+                    used++;
+            }
+        }
+        return used * 1000 / (samples * BUCKET_ENTRIES);
+    }
+
+    private static int bucketOffset(long bucket) {
+        return (int) (bucket & ((1L << BUCKETS_PER_SEGMENT_SHIFT) - 1)) * BUCKET_BYTES;
+    }
+
+    public static int getMove(long data) {
+        return (int) (data & 0xFFFFF);
+    }
+
+    public static int getScore(long data) {
+        return (short) (data >>> 20);
+    }
+
+    public static int getDepth(long data) {
+        return (int) (data >>> 36 & 0xFF);
+    }
+
+    public static int getBound(long data) {
+        return (int) (data >>> 44 & 0x3);
+    }
+
+    private static int getAge(long data) {
+        return (int) (data >>> 46 & 0x3F);
+    }
+}
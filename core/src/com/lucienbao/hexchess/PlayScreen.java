@@ -4,16 +4,34 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
 import com.badlogic.gdx.Screen;
 import com.badlogic.gdx.audio.Sound;
+import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.utils.StreamUtils;
 import com.lucienbao.board.Board;
+import com.lucienbao.board.GameRecord;
+import com.lucienbao.board.GameRecordWriter;
 import com.lucienbao.board.Hex;
+import com.lucienbao.board.Position;
+import com.lucienbao.engine.EngineService;
+import com.lucienbao.engine.NnueNetwork;
+import com.lucienbao.engine.OpeningBook;
+import com.lucienbao.engine.SearchLimits;
+import com.lucienbao.engine.SearchResult;
+import com.lucienbao.engine.Tablebases;
 import com.lucienbao.ui.Button;
 import com.lucienbao.utils.AssetLoader;
+import com.lucienbao.utils.GameClock;
 import com.lucienbao.utils.MoveRules;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+
 import static com.badlogic.gdx.graphics.GL20.GL_BLEND;
 import static com.badlogic.gdx.graphics.GL20.GL_SRC_ALPHA;
 import static java.lang.Math.sqrt;
@@ -30,6 +48,27 @@ public class PlayScreen implements Screen {
     public static final int QUIT_BTN_WIDTH = 150;
     public static final int QUIT_BTN_HEIGHT = 75;
 
+    public static final int CLOCK_X = 1550;
+    public static final int WHITE_CLOCK_Y = 300;
+    public static final int BLACK_CLOCK_Y = 840;
+
+    // Time control: time each, added per move, and grace per move
+    public static final long CLOCK_INITIAL_MILLIS = 10 * 60 * 1000;
+    public static final long CLOCK_INCREMENT_MILLIS = 5 * 1000;
+    public static final long CLOCK_DELAY_MILLIS = 0;
+    // Time left at which the low-time sound plays
+    public static final long CLOCK_LOW_TIME_MILLIS = 30 * 1000;
+
+    public static final int ENGINE_HASH_MB = 64;
+    // Optional; without it the engine uses its hand-written evaluation
+    public static final String ENGINE_NETWORK_FILE = "hexchess.nnue";
+    // Optional; without it the engine searches from the first move
+    public static final String ENGINE_BOOK_FILE = "hexchess.book";
+    // Optional directory of endgame tables
+    public static final String ENGINE_TABLEBASE_DIR = "tablebases";
+    // Every game played is added to this file in local storage
+    public static final String GAME_RECORD_FILE = "games.hxgr";
+
     private final HexChess game;
     private final SpriteBatch batch;
     private final ShapeRenderer shapes;
@@ -39,16 +78,42 @@ public class PlayScreen implements Screen {
     private final Sound move, capture, error, lowTime, gameStartEnd;
 
     private final Board board;
+    // Reused for every move generation, so drawing allocates nothing
+    private final int[] moveBuffer;
     private Hex selectedHex;
-    private boolean whiteToMove;
 
-    // TODO: add move stack to allow for viewing of previous moves,
-    // like in lichess
+    // Runs off System.nanoTime(), not the frame delta. The text shown is
+    // only rebuilt when the seconds shown change.
+    private final GameClock clock;
+    private final long[] clockShownSeconds;
+    private final String[] clockText;
+
+    // Moves taken back while looking at earlier positions, most recent
+    // last. Replayed with the right arrow key, like in lichess.
+    private int[] redoMoves;
+    private int redoCount;
+
+    // Color the computer plays, or Hex.EMPTY if two people are playing.
+    // The engine searches on its own thread, so the screen keeps drawing
+    // while it thinks.
+    private final int computerColor;
+    private final EngineService engine;
+    private final EngineService.Callback engineCallback;
+    private boolean engineThinking;
 
     // TODO: add pause button
     private final Button quitButton;
 
     public PlayScreen(final HexChess game) {
+        this(game, Hex.EMPTY);
+    }
+
+    /**
+     * @param game The game.
+     * @param computerColor Color for the computer to play, or
+     *                      <code>Hex.EMPTY</code> for two players.
+     */
+    public PlayScreen(final HexChess game, int computerColor) {
         this.game = game;
         this.batch = game.batch;
         this.shapes = game.shapes;
@@ -61,8 +126,10 @@ public class PlayScreen implements Screen {
         this.gameStartEnd = AssetLoader.gameStartEnd;
 
         this.board = new Board();
+        this.moveBuffer = new int[MoveRules.MAX_MOVES];
         this.selectedHex = null;
-        this.whiteToMove = true; // White always first to move
+        this.redoMoves = new int[64];
+        this.redoCount = 0;
 
         this.quitButton = new Button("Quit",
                 QUIT_BTN_X,
@@ -71,6 +138,104 @@ public class PlayScreen implements Screen {
                 HexChess.BUTTON_PASSIVE,
                 HexChess.BUTTON_HOVERED,
                 game.mediumFont);
+
+        this.computerColor = computerColor;
+        this.clock = new GameClock(CLOCK_INITIAL_MILLIS, CLOCK_INCREMENT_MILLIS,
+                CLOCK_DELAY_MILLIS, CLOCK_LOW_TIME_MILLIS, new GameClock.Listener() {
+            @Override
+            public void lowTime(int color) {
+                if(color != PlayScreen.this.computerColor)
+                    lowTime.play();
+            }
+
+            @Override
+            public void flagFell(int color) {
+                gameStartEnd.play();
+                selectedHex = null;
+                updateEngine();
+            }
+        });
+        this.clockShownSeconds = new long[] {-1, -1};
+        this.clockText = new String[2];
+
+        if(computerColor == Hex.EMPTY) {
+            this.engine = null;
+            this.engineCallback = null;
+        } else {
+            // Results are handed back on the render thread, where the
+            // board may be touched
+            this.engine = new EngineService(ENGINE_HASH_MB, new Executor() {
+                @Override
+                public void execute(Runnable runnable) {
+                    Gdx.app.postRunnable(runnable);
+                }
+            });
+            this.engineCallback = new EngineService.Callback() {
+                @Override
+                public void searchFinished(SearchResult result) {
+                    engineThinking = false;
+                    if(result.getBestMove() != MoveRules.NO_MOVE)
+                        playMove(result.getBestMove());
+                }
+            };
+            loadNetwork();
+            loadBook();
+            loadTablebases();
+        }
+        clock.start(board.getPosition().getSideToMove());
+        updateEngine();
+    }
+
+    /**
+     * Have the engine evaluate with the network in the assets, if there
+     * is one.
+     */
+    private void loadNetwork() {
+        FileHandle file = Gdx.files.internal(ENGINE_NETWORK_FILE);
+        if(!file.exists())
+            return;
+
+        InputStream in = file.read();
+        try {
+            engine.setNetwork(NnueNetwork.read(in));
+        } catch(IOException e) {
+            Gdx.app.error("PlayScreen", "Can't load " + ENGINE_NETWORK_FILE, e);
+        } finally {
+            StreamUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Have the engine play from the opening book in the assets, if there
+     * is one. The book is memory-mapped, so it must be a plain file on
+     * disk rather than packed into the jar.
+     */
+    private void loadBook() {
+        FileHandle file = Gdx.files.internal(ENGINE_BOOK_FILE);
+        if(!file.exists())
+            return;
+
+        try {
+            engine.setBook(OpeningBook.open(file.file()));
+        } catch(IOException e) {
+            Gdx.app.error("PlayScreen", "Can't load " + ENGINE_BOOK_FILE, e);
+        }
+    }
+
+    /**
+     * Have the engine play endings from the tablebases in the assets, if
+     * there are any. Like the book, they must be plain files on disk.
+     */
+    private void loadTablebases() {
+        FileHandle directory = Gdx.files.internal(ENGINE_TABLEBASE_DIR);
+        if(!directory.exists())
+            return;
+
+        try {
+            engine.setTablebases(Tablebases.open(directory.file()));
+        } catch(IOException e) {
+            Gdx.app.error("PlayScreen", "Can't load " + ENGINE_TABLEBASE_DIR, e);
+        }
     }
 
     @Override
@@ -80,6 +245,8 @@ public class PlayScreen implements Screen {
 
     @Override
     public void render(float delta) {
+        clock.update();
+
         // Clear screen with black
         Gdx.gl.glClearColor(HexChess.BACKGROUND_COLOR.r,
                 HexChess.BACKGROUND_COLOR.g,
@@ -104,6 +271,12 @@ public class PlayScreen implements Screen {
         drawPieces();
 
         quitButton.displayButtonText(batch);
+        if(engineThinking)
+            game.drawCenteredText(0, "Thinking...",
+                    QUIT_BTN_X + QUIT_BTN_WIDTH / 2f,
+                    QUIT_BTN_Y - QUIT_BTN_HEIGHT);
+        drawClock(Hex.WHITE, WHITE_CLOCK_Y);
+        drawClock(Hex.BLACK, BLACK_CLOCK_Y);
 
         batch.end();
 
@@ -127,37 +300,35 @@ public class PlayScreen implements Screen {
 
         // Possible move highlights
         shapes.setColor(HexChess.MOVE_HEX_COLOR);
-        int[][] moves = MoveRules.generateMoves(selectedHex, board);
-        for(int file = 0; file < 11; file++) {
-            for(int rank = 0; rank < Board.getNumRanks(file); rank++) {
-                switch(moves[file][rank]) {
-                    // Draw movement possible
-                    case MoveRules.MOVE:
-                    case MoveRules.MOVE_PROMOTE:
-                        shapes.circle(Board.getX(file, rank),
-                                Board.getY(file, rank),
-                                HEX_WIDTH / 8);
-                        break;
-                    // Draw capture possible
-                    case MoveRules.CAPTURE:
-                    case MoveRules.CAPTURE_PROMOTE:
-                    case MoveRules.CAPTURE_EN_PASSANT:
-                        // End the current `Filled` shape type,
-                        // switch to `Line`, draw, then switch back
-                        // Hacky but it works well enough
-                        shapes.end();
-                        shapes.begin(ShapeRenderer.ShapeType.Line);
-                        // My attempt at drawing a thick circle:
-                        // Draw a bunch of thin ones at varying radii
-                        for(float i = 0.5f; i < 11; i += 0.4f)
-                            shapes.circle(Board.getX(file, rank),
-                                    Board.getY(file, rank),
-                                    HEX_HEIGHT / 2 - i,
-                                    100);
-                        shapes.end();
-                        shapes.begin(ShapeRenderer.ShapeType.Filled);
-                        break;
-                }
+        int count = MoveRules.generateLegalMoves(board.getPosition(), moveBuffer, 0);
+        for(int i = 0; i < count; i++) {
+            if(MoveRules.getFrom(moveBuffer[i]) != selectedHex.getCell())
+                continue;
+            int to = MoveRules.getTo(moveBuffer[i]);
+            float x = Board.getX(Position.fileOf(to), Position.rankOf(to));
+            float y = Board.getY(Position.fileOf(to), Position.rankOf(to));
+            switch(MoveRules.getCode(moveBuffer[i])) {
+                // Draw movement possible
+                case MoveRules.MOVE:
+                case MoveRules.MOVE_PROMOTE:
+                    shapes.circle(x, y, HEX_WIDTH / 8);
+                    break;
+                // Draw capture possible
+                case MoveRules.CAPTURE:
+                case MoveRules.CAPTURE_PROMOTE:
+                case MoveRules.CAPTURE_EN_PASSANT:
+                    // End the current `Filled` shape type,
+                    // switch to `Line`, draw, then switch back
+                    // Hacky but it works well enough
+                    shapes.end();
+                    shapes.begin(ShapeRenderer.ShapeType.Line);
+                    // My attempt at drawing a thick circle:
+                    // Draw a bunch of thin ones at varying radii
+                    for(float r = 0.5f; r < 11; r += 0.4f)
+                        shapes.circle(x, y, HEX_HEIGHT / 2 - r, 100);
+                    shapes.end();
+                    shapes.begin(ShapeRenderer.ShapeType.Filled);
+                    break;
             }
         }
 
@@ -261,6 +432,24 @@ public class PlayScreen implements Screen {
         }
     }
 
+    /**
+     * Draw a side's time left, as minutes and seconds, rounded up so that
+     * 0:00 means the flag has fallen.
+     *
+     * @param color Side whose clock to draw.
+     * @param y     Height to draw it at.
+     */
+    private void drawClock(int color, float y) {
+        long seconds = (clock.getRemainingMillis(color) + 999) / 1000;
+        if(seconds != clockShownSeconds[color]) {
+            clockShownSeconds[color] = seconds;
+            clockText[color] = seconds / 60 + (seconds % 60 < 10 ? ":0" : ":") + seconds % 60;
+        }
+        game.drawCenteredText(1, clockText[color], CLOCK_X, y);
+        if(clock.getFlagged() == color)
+            game.drawCenteredText(0, "Out of time", CLOCK_X, y - HEX_HEIGHT);
+    }
+
     /**
      * Draw floating piece if there is a piece selected and being dragged.
      */
@@ -315,6 +504,24 @@ public class PlayScreen implements Screen {
         if(mouseButton != Input.Buttons.LEFT)
             return;
 
+        // No moving while looking at an earlier position
+        if(redoCount > 0) {
+            error.play();
+            return;
+        }
+
+        // No moving once a flag has fallen
+        if(clock.getFlagged() != Hex.EMPTY) {
+            selectedHex = null;
+            return;
+        }
+
+        // No moving for the computer
+        if(board.getPosition().getSideToMove() == computerColor) {
+            selectedHex = null;
+            return;
+        }
+
         Hex hoveredHex = getHoveredHex(mouseX, mouseY);
 
         // Clicked off grid, cancel selection
@@ -323,6 +530,7 @@ public class PlayScreen implements Screen {
             return;
         }
 
+        boolean whiteToMove = board.getPosition().getSideToMove() == Hex.WHITE;
         if(selectedHex == null) {
             if(hoveredHex.correctColor(whiteToMove))
                 selectedHex = hoveredHex;
@@ -367,6 +575,36 @@ public class PlayScreen implements Screen {
             attemptMove(selectedHex, hoveredHex);
     }
 
+    /**
+     * Control everything related to pressing a key: the left and right
+     * arrow keys step backwards and forwards through the moves played.
+     * The clock is paused while looking at an earlier position, since
+     * neither side can move then.
+     *
+     * @param keycode Key pressed.
+     */
+    public void handleKeyPressed(int keycode) {
+        if(keycode == Input.Keys.LEFT && board.getPosition().getPly() > 0) {
+            if(redoCount == redoMoves.length) {
+                int[] grown = new int[redoMoves.length * 2];
+                System.arraycopy(redoMoves, 0, grown, 0, redoCount);
+                redoMoves = grown;
+            }
+            if(redoCount == 0)
+                clock.pause();
+            redoMoves[redoCount++] = board.unmakeMove();
+            selectedHex = null;
+            move.play();
+            updateEngine();
+        } else if(keycode == Input.Keys.RIGHT && redoCount > 0) {
+            board.makeMove(redoMoves[--redoCount]);
+            if(redoCount == 0)
+                clock.resume();
+            move.play();
+            updateEngine();
+        }
+    }
+
     /**
      * Check to see if the move is valid, and if so, execute it.
      *
@@ -374,40 +612,64 @@ public class PlayScreen implements Screen {
      * @param to   Destination hex.
      */
     private void attemptMove(Hex from, Hex to) {
-        // Implementation note: we only change the color and piece type
-        // of each hex, rather than modeling moving the pieces around
-        // by changing their rank and file. So each Hex will stay at the
-        // same rank/file for the entire game.
-
-        // TODO: implement THIS NEXT!!!
-        // might have to implement piece rules first tho...
-        switch(MoveRules.canMove(from, to, board)) {
-            case MoveRules.ILLEGAL:
-                error.play();
-                break;
+        // Implementation note: the Hexes are views of the board's
+        // position, so they don't move; the position is what changes.
+
+        // TODO: add a promotion popup; for now pawns always promote to
+        // a queen, which findMove() returns first
+        int found = MoveRules.findMove(board.getPosition(),
+                from.getCell(), to.getCell(), moveBuffer);
+        if(MoveRules.getCode(found) == MoveRules.ILLEGAL)
+            error.play();
+        else
+            playMove(found);
+
+        selectedHex = null;
+    }
+
+    /**
+     * Play a legal move on the board, with its sound, and let the
+     * computer answer if it is its turn.
+     *
+     * @param found Move to play.
+     */
+    private void playMove(int found) {
+        // Too late if the flag fell before the frame got to notice
+        if(!clock.press())
+            return;
+        board.makeMove(found);
+        switch(MoveRules.getCode(found)) {
             case MoveRules.MOVE:
-                to.setPiece(from.getColor(), from.getId());
-                from.setPiece(Hex.EMPTY, Hex.EMPTY);
-                move.play();
-                break;
-            case MoveRules.CAPTURE:
-                to.setPiece(from.getColor(), from.getId());
-                from.setPiece(Hex.EMPTY, Hex.EMPTY);
-                capture.play();
-                break;
             case MoveRules.MOVE_PROMOTE:
-                // TODO: make sound play after promotion popup happens
-                break;
-            case MoveRules.CAPTURE_PROMOTE:
-                // TODO: make sound play after promotion popup happens
+                move.play();
                 break;
-            case MoveRules.CAPTURE_EN_PASSANT:
-                // TODO: implement
+            default:
                 capture.play();
                 break;
         }
+        // Mate or stalemate: the game is over, so is the clock
+        if(MoveRules.generateLegalMoves(board.getPosition(), moveBuffer, 0) == 0)
+            clock.stop();
+        updateEngine();
+    }
 
-        selectedHex = null;
+    /**
+     * Call whenever the position on the board changes. Any search of
+     * the old position is cancelled, and if it is now the computer's
+     * turn, a new one is started.
+     */
+    private void updateEngine() {
+        if(engine == null)
+            return;
+
+        engineThinking = redoCount == 0 && clock.getFlagged() == Hex.EMPTY
+                && board.getPosition().getSideToMove() == computerColor;
+        if(engineThinking)
+            engine.startSearch(board.getPosition(),
+                    SearchLimits.clock(clock.getRemainingMillis(computerColor),
+                            clock.getIncrementMillis()), engineCallback);
+        else
+            engine.cancel();
     }
 
     /**
@@ -442,12 +704,14 @@ public class PlayScreen implements Screen {
 
     @Override
     public void pause() {
-
+        clock.pause();
     }
 
     @Override
     public void resume() {
-
+        // Still paused for looking at an earlier position
+        if(redoCount == 0)
+            clock.resume();
     }
 
     @Override
@@ -455,8 +719,44 @@ public class PlayScreen implements Screen {
 
     }
 
+    /**
+     * Add the game to the record file, with its result if it has one.
+     * Moves taken back to look at an earlier position still count.
+     */
+    private void saveGame() {
+        Position game = new Position(board.getPosition());
+        for(int i = redoCount - 1; i >= 0; i--)
+            game.makeMove(redoMoves[i]);
+        if(game.getPly() == 0)
+            return;
+
+        int result;
+        if(clock.getFlagged() == Hex.WHITE)
+            result = GameRecord.BLACK_WINS;
+        else if(clock.getFlagged() == Hex.BLACK)
+            result = GameRecord.WHITE_WINS;
+        else
+            result = GameRecord.resultOf(game);
+
+        try {
+            File file = Gdx.files.local(GAME_RECORD_FILE).file();
+            boolean newFile = file.length() == 0;
+            GameRecordWriter writer = new GameRecordWriter(
+                    new FileOutputStream(file, true).getChannel(), newFile);
+            try {
+                writer.write(game, result);
+            } finally {
+                writer.close();
+            }
+        } catch(IOException e) {
+            Gdx.app.error("PlayScreen", "Can't save the game to " + GAME_RECORD_FILE, e);
+        }
+    }
+
     @Override
     public void dispose() {
-
+        if(engine != null)
+            engine.shutdown();
+        saveGame();
     }
 }
@@ -17,6 +17,7 @@ public class TitleScreen implements Screen {
     private final Texture splash;
 
     private final Button playButton;
+    private final Button computerButton;
     private final Button rulesButton;
     private final Button exitButton;
 
@@ -31,21 +32,28 @@ public class TitleScreen implements Screen {
 
         this.playButton = new Button("Play!",
                 HexChess.SCREEN_WIDTH * 5/16,
-                HexChess.SCREEN_HEIGHT / 2 + 100,
+                HexChess.SCREEN_HEIGHT / 2 + 150,
+                BUTTON_WIDTH, BUTTON_HEIGHT,
+                HexChess.BUTTON_PASSIVE,
+                HexChess.BUTTON_HOVERED,
+                game.mediumFont);
+        this.computerButton = new Button("Computer",
+                HexChess.SCREEN_WIDTH * 5/16,
+                HexChess.SCREEN_HEIGHT / 2 + 50,
                 BUTTON_WIDTH, BUTTON_HEIGHT,
                 HexChess.BUTTON_PASSIVE,
                 HexChess.BUTTON_HOVERED,
                 game.mediumFont);
         this.rulesButton = new Button("Rules",
                 HexChess.SCREEN_WIDTH * 5/16,
-                HexChess.SCREEN_HEIGHT / 2,
+                HexChess.SCREEN_HEIGHT / 2 - 50,
                 BUTTON_WIDTH, BUTTON_HEIGHT,
                 HexChess.BUTTON_PASSIVE,
                 HexChess.BUTTON_HOVERED,
                 game.mediumFont);
         this.exitButton = new Button("Exit",
                 HexChess.SCREEN_WIDTH * 5/16,
-                HexChess.SCREEN_HEIGHT / 2 - 100,
+                HexChess.SCREEN_HEIGHT / 2 - 150,
                 BUTTON_WIDTH, BUTTON_HEIGHT,
                 HexChess.BUTTON_PASSIVE,
                 HexChess.BUTTON_HOVERED,
@@ -74,6 +82,7 @@ public class TitleScreen implements Screen {
                 200, true);
 
         playButton.displayButtonBackground(shapes);
+        computerButton.displayButtonBackground(shapes);
         rulesButton.displayButtonBackground(shapes);
         exitButton.displayButtonBackground(shapes);
         shapes.end();
@@ -89,6 +98,7 @@ public class TitleScreen implements Screen {
                 (float) HexChess.SCREEN_HEIGHT * 3/8 - (float) splash.getHeight()/2);
 
         playButton.displayButtonText(batch);
+        computerButton.displayButtonText(batch);
         rulesButton.displayButtonText(batch);
         exitButton.displayButtonText(batch);
         batch.end();
@@ -129,6 +139,8 @@ public class TitleScreen implements Screen {
     public boolean checkButtonHover(int mouseX, int mouseY) {
         if(playButton.checkHovered(mouseX, mouseY))
             return true;
+        if(computerButton.checkHovered(mouseX, mouseY))
+            return true;
         if(rulesButton.checkHovered(mouseX, mouseY))
             return true;
         return exitButton.checkHovered(mouseX, mouseY);
@@ -138,6 +150,10 @@ public class TitleScreen implements Screen {
         return playButton;
     }
 
+    public Button getComputerButton() {
+        return computerButton;
+    }
+
     public Button getRulesButton() {
         return rulesButton;
     }
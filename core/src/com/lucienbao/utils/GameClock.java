@@ -0,0 +1,207 @@
+package com.lucienbao.utils;
+
+import com.lucienbao.board.Hex;
+
+/**
+ * A chess clock: each side has its own time, which runs down only while
+ * it is that side's turn.
+ * <p>
+ * After each move the side that moved gets an increment added. With a
+ * delay, a side's time only starts running down once the delay has passed
+ * since its turn began (a "simple" or US delay), so a quick move costs
+ * nothing.
+ * <p>
+ * Time is read from <code>System.nanoTime()</code> whenever it is needed,
+ * never added up from frame times, so a dropped frame can't make the
+ * clock drift: it only delays the events, not the time they report.
+ * Nothing is allocated after construction.
+ */
+public class GameClock {
+    /**
+     * Gets told about the clock's events, on the thread that calls
+     * <code>update()</code> or <code>press()</code>.
+     */
+    public interface Listener {
+        /**
+         * A side's time fell below the low-time threshold. Called at most
+         * once per side, unless an increment takes it back above.
+         * @param color Side short of time.
+         */
+        void lowTime(int color);
+
+        /**
+         * A side ran out of time. The clock stops for good.
+         * @param color Side whose flag fell.
+         */
+        void flagFell(int color);
+    }
+
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private final long incrementNanos;
+    private final long delayNanos;
+    private final long lowTimeNanos;
+    private final Listener listener;
+
+    // Time left at the start of each side's current or last turn
+    private final long[] remainingNanos = new long[2];
+    private final boolean[] lowTimeReported = new boolean[2];
+    // Side whose time is running, or Hex.EMPTY when stopped
+    private int running = Hex.EMPTY;
+    // Side whose turn it is, running or not
+    private int turn = Hex.WHITE;
+    // When the running side's turn started or resumed
+    private long turnStartNanos;
+    // Delay still to come in the current turn, in case it was paused
+    private long delayLeftNanos;
+    private int flagged = Hex.EMPTY;
+    // Set once the game is over, whichever way
+    private boolean finished;
+
+    /**
+     * @param initialMillis Time each side starts with.
+     * @param incrementMillis Time added after each move.
+     * @param delayMillis Time a turn may take before the clock runs.
+     * @param lowTimeMillis Time left at which to report low time, or 0.
+     * @param listener Listener for events, or <code>null</code>.
+     */
+    public GameClock(long initialMillis, long incrementMillis, long delayMillis,
+                     long lowTimeMillis, Listener listener) {
+        this.incrementNanos = incrementMillis * NANOS_PER_MILLI;
+        this.delayNanos = delayMillis * NANOS_PER_MILLI;
+        this.lowTimeNanos = lowTimeMillis * NANOS_PER_MILLI;
+        this.listener = listener;
+        remainingNanos[Hex.WHITE] = initialMillis * NANOS_PER_MILLI;
+        remainingNanos[Hex.BLACK] = initialMillis * NANOS_PER_MILLI;
+    }
+
+    /**
+     * Start the clock for the first turn.
+     * @param color Side to move first.
+     */
+    public void start(int color) {
+        turn = color;
+        delayLeftNanos = delayNanos;
+        resume();
+    }
+
+    /**
+     * Stop the clock, keeping the rest of the current turn's delay.
+     */
+    public void pause() {
+        if(running == Hex.EMPTY)
+            return;
+        long now = System.nanoTime();
+        remainingNanos[running] = remainingAt(running, now);
+        delayLeftNanos = Math.max(0, delayLeftNanos - (now - turnStartNanos));
+        running = Hex.EMPTY;
+    }
+
+    /**
+     * Stop the clock for good, e.g. when the game ends on the board.
+     */
+    public void stop() {
+        pause();
+        finished = true;
+    }
+
+    /**
+     * Start the clock again for the side whose turn it is, unless the
+     * game is over.
+     */
+    public void resume() {
+        if(running != Hex.EMPTY || finished)
+            return;
+        turnStartNanos = System.nanoTime();
+        running = turn;
+    }
+
+    /**
+     * End the running side's turn, as after its move, and start the
+     * other side's. While paused, the turn passes without the clock
+     * starting; once the game is over, nothing happens.
+     * @return Whether the move was in time; if not, the flag falls.
+     */
+    public boolean press() {
+        if(finished)
+            return flagged == Hex.EMPTY;
+        int mover = turn;
+        long now = System.nanoTime();
+        long left = remainingAt(mover, now);
+        if(left <= 0) {
+            fall(mover);
+            return false;
+        }
+
+        remainingNanos[mover] = left + incrementNanos;
+        if(remainingNanos[mover] > lowTimeNanos)
+            lowTimeReported[mover] = false;
+        turn = 1 - mover;
+        delayLeftNanos = delayNanos;
+        if(running != Hex.EMPTY) {
+            running = turn;
+            turnStartNanos = now;
+        }
+        return true;
+    }
+
+    /**
+     * Check for low time and fallen flags. Call often, e.g. every frame;
+     * the time reported doesn't depend on how often.
+     */
+    public void update() {
+        if(running == Hex.EMPTY)
+            return;
+        int color = running;
+        long left = remainingAt(color, System.nanoTime());
+        if(left <= 0) {
+            fall(color);
+        } else if(left <= lowTimeNanos && !lowTimeReported[color]) {
+            lowTimeReported[color] = true;
+            if(listener != null)
+                listener.lowTime(color);
+        }
+    }
+
+    private void fall(int color) {
+        remainingNanos[color] = 0;
+        running = Hex.EMPTY;
+        flagged = color;
+        finished = true;
+        if(listener != null)
+            listener.flagFell(color);
+    }
+
+    private long remainingAt(int color, long now) {
+        if(color != running)
+            return remainingNanos[color];
+        long charged = now - turnStartNanos - delayLeftNanos;
+        return charged > 0 ? remainingNanos[color] - charged : remainingNanos[color];
+    }
+
+    /**
+     * @param color A side.
+     * @return Its time left right now, at least 0.
+     */
+    public long getRemainingMillis(int color) {
+        return Math.max(0, remainingAt(color, System.nanoTime())) / NANOS_PER_MILLI;
+    }
+
+    public long getIncrementMillis() {
+        return incrementNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return Side whose time is running, or <code>Hex.EMPTY</code>.
+     */
+    public int getRunning() {
+        return running;
+    }
+
+    /**
+     * @return Side that ran out of time, or <code>Hex.EMPTY</code>.
+     */
+    public int getFlagged() {
+        return flagged;
+    }
+}
@@ -4,6 +4,7 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
 import com.badlogic.gdx.InputProcessor;
 import com.badlogic.gdx.graphics.Cursor;
+import com.lucienbao.board.Hex;
 import com.lucienbao.hexchess.HexChess;
 import com.lucienbao.hexchess.PlayScreen;
 import com.lucienbao.hexchess.RulesScreen;
@@ -18,7 +19,13 @@ public class InputHandler implements InputProcessor {
 
     @Override
     public boolean keyDown(int keycode) {
-        return false;
+        if(!(game.getScreen() instanceof PlayScreen))
+            return false;
+
+        PlayScreen playScreen = (PlayScreen) game.getScreen();
+        playScreen.handleKeyPressed(keycode);
+
+        return true;
     }
 
     @Override
@@ -56,6 +63,11 @@ public class InputHandler implements InputProcessor {
                 game.setScreen(new PlayScreen(game));
                 AssetLoader.gameStartEnd.play();
                 titleScreen.dispose();
+            } else if(titleScreen.getComputerButton().isHovered()) {
+                // The player takes White against the computer
+                game.setScreen(new PlayScreen(game, Hex.BLACK));
+                AssetLoader.gameStartEnd.play();
+                titleScreen.dispose();
             } else if(titleScreen.getRulesButton().isHovered()) {
                 game.setScreen(new RulesScreen(game));
                 titleScreen.dispose();
@@ -0,0 +1,63 @@
+package com.lucienbao.utils;
+
+/**
+ * Sorts two arrays of longs together, by key as a signed long, then by
+ * value, without boxing anything. Used for the buffers of entries that
+ * builders of sorted files write out as runs.
+ */
+public final class LongPairSort {
+    private static final int INSERTION_SORT_SIZE = 16;
+
+    private LongPairSort() {
+    }
+
+    /**
+     * Quicksort a range of the arrays.
+     * @param keys Keys, sorted first.
+     * @param values Values, moved along with their keys and sorted
+     *               between equal keys.
+     * @param low First index of the range.
+     * @param high Last index of the range, inclusive.
+     */
+    public static void sort(long[] keys, long[] values, int low, int high) {
+        while(high - low > INSERTION_SORT_SIZE) {
+            int middle = (low + high) >>> 1;
+            long pivotKey = keys[middle];
+            long pivotValue = values[middle];
+            int i = low, j = high;
+            while(i <= j) {
+                while(compare(keys, values, i, pivotKey, pivotValue) < 0)
+                    i++;
+                while(compare(keys, values, j, pivotKey, pivotValue) > 0)
+                    j--;
+                if(i <= j)
+                    swap(keys, values, i++, j--);
+            }
+            // Recurse into the smaller half, loop on the bigger one
+            if(j - low < high - i) {
+                sort(keys, values, low, j);
+                low = i;
+            } else {
+                sort(keys, values, i, high);
+                high = j;
+            }
+        }
+        for(int i = low + 1; i <= high; i++)
+            for(int j = i; j > low && compare(keys, values, j, keys[j - 1], values[j - 1]) < 0; j--)
+                swap(keys, values, j, j - 1);
+    }
+
+    private static int compare(long[] keys, long[] values, int index, long key, long value) {
+        int order = Long.compare(keys[index], key);
+        return order != 0 ? order : Long.compare(values[index], value);
+    }
+
+    private static void swap(long[] keys, long[] values, int i, int j) {
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        long value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
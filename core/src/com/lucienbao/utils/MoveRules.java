@@ -1,9 +1,7 @@
 package com.lucienbao.utils;
 
-import com.lucienbao.board.Board;
 import com.lucienbao.board.Hex;
-
-import java.util.Arrays;
+import com.lucienbao.board.Position;
 
 public class MoveRules {
     public static final int ILLEGAL = 0;
@@ -13,62 +11,529 @@ public class MoveRules {
     public static final int CAPTURE_PROMOTE = 4;
     public static final int CAPTURE_EN_PASSANT = 5;
 
-    public static int canMove(Hex from, Hex to, Board board) {
-        switch(from.getId()) {
-            case Hex.PAWN:
-                return pawnCanMove(from, to, board);
-            case Hex.KNIGHT:
-                return knightCanMove(from, to, board);
-            case Hex.BISHOP:
-                return bishopCanMove(from, to, board);
-            case Hex.ROOK:
-                return rookCanMove(from, to, board);
-            case Hex.QUEEN:
-                return queenCanMove(from, to, board);
-            case Hex.KING:
-                return kingCanMove(from, to, board);
-            default:
-                throw new IllegalArgumentException("Unknown piece type");
+    /*
+    Moves are packed into a single int so that move lists can live in
+    plain int arrays owned by the caller:
+    bits 0-6 starting cell, bits 7-13 destination cell,
+    bits 14-16 move code (MOVE, CAPTURE, ...),
+    bits 17-19 piece ID promoted to (only for promotions).
+    A code of ILLEGAL never appears in a real move, so NO_MOVE (0)
+    doubles as "no such move".
+    */
+    public static final int NO_MOVE = 0;
+
+    /** Enough room for every move of any position, with room to spare. */
+    public static final int MAX_MOVES = 1024;
+
+    /*
+    Directions are numbered clockwise from straight up. The first 6 are
+    orthogonal (through the sides of a hex), the last 6 are diagonal
+    (through the corners).
+    */
+    public static final int NUM_DIRECTIONS = 12;
+    public static final int FIRST_DIAGONAL = 6;
+
+    // Direction steps in (file, half-hex height) coordinates, see toCell()
+    private static final int[] DIR_FILE = {0, 1, 1, 0, -1, -1,    1, 2, 1, -1, -2, -1};
+    private static final int[] DIR_HEIGHT = {2, 1, -1, -2, -1, 1,   3, 0, -3, -3, 0, 3};
+
+    /*
+    Attack tables, built once when the class is loaded. Indexed by cell
+    (see Position). These are shared, so never modify them.
+    */
+    /** RAYS[cell][direction]: cells along that direction, nearest first. */
+    public static final int[][][] RAYS = new int[Position.NUM_CELLS][NUM_DIRECTIONS][];
+    /** Cells a knight on the given cell jumps to. */
+    public static final int[][] KNIGHT_TARGETS = new int[Position.NUM_CELLS][];
+    /** Cells a king on the given cell steps to. */
+    public static final int[][] KING_TARGETS = new int[Position.NUM_CELLS][];
+    /** Same as KNIGHT_TARGETS, as two-word sets: [cell * 2 + word]. */
+    public static final long[] KNIGHT_ATTACKS = new long[Position.NUM_CELLS * 2];
+    /** Same as KING_TARGETS, as two-word sets: [cell * 2 + word]. */
+    public static final long[] KING_ATTACKS = new long[Position.NUM_CELLS * 2];
+    /** PAWN_PUSH[color][cell]: single-step cell, or Position.NO_CELL. */
+    public static final int[][] PAWN_PUSH = new int[2][Position.NUM_CELLS];
+    /** PAWN_DOUBLE[color][cell]: double-step cell, or Position.NO_CELL. */
+    public static final int[][] PAWN_DOUBLE = new int[2][Position.NUM_CELLS];
+    /** PAWN_CAPTURES[color][cell]: cells the pawn captures on. */
+    public static final int[][][] PAWN_CAPTURES = new int[2][Position.NUM_CELLS][];
+    // [from * NUM_CELLS + to]: direction of the ray from one cell through
+    // the other, or -1 if they aren't on a common ray
+    private static final byte[] RAY_DIRECTION = new byte[Position.NUM_CELLS * Position.NUM_CELLS];
+
+    static {
+        int[] buffer = new int[12];
+        for(int cell = 0; cell < Position.NUM_CELLS; cell++) {
+            int file = Position.fileOf(cell);
+            int height = toHeight(file, Position.rankOf(cell));
+
+            // Sliding rays
+            for(int dir = 0; dir < NUM_DIRECTIONS; dir++) {
+                int n = 0;
+                int to = toCell(file + DIR_FILE[dir], height + DIR_HEIGHT[dir]);
+                for(int step = 2; to != Position.NO_CELL; step++) {
+                    buffer[n++] = to;
+                    to = toCell(file + step * DIR_FILE[dir],
+                            height + step * DIR_HEIGHT[dir]);
+                }
+                RAYS[cell][dir] = copyOf(buffer, n);
+            }
+
+            for(int i = 0; i < Position.NUM_CELLS; i++)
+                RAY_DIRECTION[cell * Position.NUM_CELLS + i] = -1;
+            for(int dir = 0; dir < NUM_DIRECTIONS; dir++)
+                for(int to : RAYS[cell][dir])
+                    RAY_DIRECTION[cell * Position.NUM_CELLS + to] = (byte) dir;
+
+            // King: one step in any direction
+            int n = 0;
+            for(int dir = 0; dir < NUM_DIRECTIONS; dir++)
+                if(RAYS[cell][dir].length > 0)
+                    buffer[n++] = RAYS[cell][dir][0];
+            KING_TARGETS[cell] = copyOf(buffer, n);
+
+            // Knight: two orthogonal steps, then one orthogonal step
+            // to either side
+            n = 0;
+            for(int dir = 0; dir < FIRST_DIAGONAL; dir++) {
+                for(int turn = -1; turn <= 1; turn += 2) {
+                    int side = (dir + turn + 6) % 6;
+                    int to = toCell(file + 2 * DIR_FILE[dir] + DIR_FILE[side],
+                            height + 2 * DIR_HEIGHT[dir] + DIR_HEIGHT[side]);
+                    if(to != Position.NO_CELL)
+                        buffer[n++] = to;
+                }
+            }
+            KNIGHT_TARGETS[cell] = copyOf(buffer, n);
+
+            for(int to : KING_TARGETS[cell])
+                KING_ATTACKS[cell * 2 + (to >>> 6)] |= 1L << to;
+            for(int to : KNIGHT_TARGETS[cell])
+                KNIGHT_ATTACKS[cell * 2 + (to >>> 6)] |= 1L << to;
+
+            // Pawns move straight forward and capture on the two
+            // orthogonal neighbors beside the forward cell
+            for(int color = Hex.WHITE; color <= Hex.BLACK; color++) {
+                int forward = color == Hex.WHITE ? 0 : 3;
+                int[] ray = RAYS[cell][forward];
+                PAWN_PUSH[color][cell] = ray.length > 0 ? ray[0] : Position.NO_CELL;
+                PAWN_DOUBLE[color][cell] = ray.length > 1
+                        && isPawnStartingSquare(color, file, Position.rankOf(cell))
+                        ? ray[1] : Position.NO_CELL;
+                n = 0;
+                for(int turn = -1; turn <= 1; turn += 2) {
+                    int[] side = RAYS[cell][(forward + turn + 6) % 6];
+                    if(side.length > 0)
+                        buffer[n++] = side[0];
+                }
+                PAWN_CAPTURES[color][cell] = copyOf(buffer, n);
+            }
+        }
+    }
+
+    /**
+     * Height of a cell's center above the bottom corner of the board,
+     * in half-hexes. Unlike rank, this stays consistent across the
+     * two halves of the board, so hex directions are constant steps.
+     */
+    private static int toHeight(int file, int rank) {
+        return 2 * rank + Math.abs(file - 5);
+    }
+
+    /**
+     * Inverse of <code>toHeight()</code>.
+     * @return The cell index, or <code>Position.NO_CELL</code> if
+     * there is no such cell.
+     */
+    private static int toCell(int file, int height) {
+        if(file < 0 || file > 10)
+            return Position.NO_CELL;
+        int twiceRank = height - Math.abs(file - 5);
+        if(twiceRank % 2 != 0 || !Position.exists(file, twiceRank / 2))
+            return Position.NO_CELL;
+        return Position.cell(file, twiceRank / 2);
+    }
+
+    private static int[] copyOf(int[] buffer, int length) {
+        int[] result = new int[length];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Pack a move into an int.
+     * @param from Starting cell.
+     * @param to Destination cell.
+     * @param code Move code, e.g. <code>CAPTURE</code>.
+     * @return The packed move.
+     */
+    public static int move(int from, int to, int code) {
+        return from | to << 7 | code << 14;
+    }
+
+    /**
+     * Pack a promotion into an int.
+     * @param from Starting cell.
+     * @param to Destination cell.
+     * @param code <code>MOVE_PROMOTE</code> or <code>CAPTURE_PROMOTE</code>.
+     * @param promotion ID of the piece promoted to.
+     * @return The packed move.
+     */
+    public static int move(int from, int to, int code, int promotion) {
+        return from | to << 7 | code << 14 | promotion << 17;
+    }
+
+    public static int getFrom(int move) {
+        return move & 0x7F;
+    }
+
+    public static int getTo(int move) {
+        return move >>> 7 & 0x7F;
+    }
+
+    public static int getCode(int move) {
+        return move >>> 14 & 0x7;
+    }
+
+    public static int getPromotion(int move) {
+        return move >>> 17 & 0x7;
+    }
+
+    /**
+     * Find the move a piece makes from one cell to another.
+     * @param pos Position the piece is in.
+     * @param from Cell of the piece.
+     * @param to Destination cell.
+     * @param moves Scratch space, at least <code>MAX_MOVES</code> long.
+     * @return The packed move, or <code>NO_MOVE</code> if the piece
+     * can't legally get there. Promotions are to a queen.
+     */
+    public static int findMove(Position pos, int from, int to, int[] moves) {
+        int count = generateLegalMoves(pos, moves, 0);
+        for(int i = 0; i < count; i++)
+            if(getFrom(moves[i]) == from && getTo(moves[i]) == to)
+                return moves[i];
+        return NO_MOVE;
+    }
+
+    /**
+     * Check a move that didn't come from the move generator, such as
+     * one from the transposition table, which may belong to another
+     * position altogether.
+     * @param pos Position to play the move in.
+     * @param move Packed move.
+     * @param moves Scratch space, at least <code>MAX_MOVES</code> long.
+     * @return Whether the move is legal in the position.
+     */
+    public static boolean isLegal(Position pos, int move, int[] moves) {
+        int color = pos.getSideToMove();
+        int from = getFrom(move);
+        if(move == NO_MOVE || from >= Position.NUM_CELLS || !pos.isColor(from, color))
+            return false;
+
+        int count = generateMoves(pos, from, moves, 0);
+        for(int i = 0; i < count; i++) {
+            if(moves[i] == move) {
+                pos.makeMove(move);
+                boolean legal = !isInCheck(pos, color);
+                pos.unmakeMove();
+                return legal;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generate the legal moves of the side to move.
+     * <p>
+     * Rather than playing each move to see if it leaves the king in
+     * check, this finds the pieces giving check and the pinned pieces
+     * once, by looking out from the king along its 12 rays and knight
+     * jumps, and then filters the moves directly:
+     * <ul>
+     *     <li>The king may not step onto an attacked cell.</li>
+     *     <li>In double check, only the king may move.</li>
+     *     <li>In single check, other pieces must capture the checker or
+     *     step between it and the king.</li>
+     *     <li>A pinned piece may only move along the pinning ray.</li>
+     * </ul>
+     * En passant captures, which take two pieces off a line at once,
+     * are still checked by playing them.
+     * @param pos Position to generate moves for.
+     * @param moves Array to write the packed moves into.
+     * @param count Index to start writing at.
+     * @return The new number of moves in <code>moves</code>.
+     */
+    public static int generateLegalMoves(Position pos, int[] moves, int count) {
+        int color = pos.getSideToMove();
+        int enemy = 1 - color;
+        int king = findKing(pos, color);
+        if(king == Position.NO_CELL)
+            return generateAllMoves(pos, color, moves, count);
+
+        // Cells a non-king move must land on, and pinned pieces
+        long targetLo = 0, targetHi = 0;
+        long pinnedLo = 0, pinnedHi = 0;
+        int checkers = 0;
+
+        long knights = pos.getColorSet(enemy, 0) & pos.getPieceSet(Hex.KNIGHT, 0)
+                & KNIGHT_ATTACKS[king * 2];
+        targetLo |= knights;
+        checkers += Long.bitCount(knights);
+        knights = pos.getColorSet(enemy, 1) & pos.getPieceSet(Hex.KNIGHT, 1)
+                & KNIGHT_ATTACKS[king * 2 + 1];
+        targetHi |= knights;
+        checkers += Long.bitCount(knights);
+
+        for(int from : PAWN_CAPTURES[color][king]) {
+            if(pos.isColor(from, enemy) && pos.getId(from) == Hex.PAWN) {
+                checkers++;
+                if(from < 64)
+                    targetLo |= 1L << from;
+                else
+                    targetHi |= 1L << from;
+            }
+        }
+
+        int[][] rays = RAYS[king];
+        for(int dir = 0; dir < NUM_DIRECTIONS; dir++) {
+            int slider = dir < FIRST_DIAGONAL ? Hex.ROOK : Hex.BISHOP;
+            long rayLo = 0, rayHi = 0;
+            int blocker = Position.NO_CELL;
+            for(int cell : rays[dir]) {
+                if(cell < 64)
+                    rayLo |= 1L << cell;
+                else
+                    rayHi |= 1L << cell;
+                if(pos.isEmpty(cell))
+                    continue;
+                if(pos.isColor(cell, color)) {
+                    // A second friendly piece shields the first
+                    if(blocker != Position.NO_CELL)
+                        break;
+                    blocker = cell;
+                    continue;
+                }
+                int id = pos.getId(cell);
+                if(id == slider || id == Hex.QUEEN) {
+                    if(blocker == Position.NO_CELL) {
+                        checkers++;
+                        targetLo |= rayLo;
+                        targetHi |= rayHi;
+                    } else if(blocker < 64) {
+                        pinnedLo |= 1L << blocker;
+                    } else {
+                        pinnedHi |= 1L << blocker;
+                    }
+                }
+                break;
+            }
+        }
+
+        if(checkers == 0) {
+            targetLo = -1;
+            targetHi = -1;
         }
+
+        int end = generateAllMoves(pos, color, moves, count);
+        for(int i = count; i < end; i++) {
+            int move = moves[i];
+            int from = getFrom(move);
+            int to = getTo(move);
+
+            if(from == king) {
+                if(!isAttacked(pos, to, enemy, king))
+                    moves[count++] = move;
+                continue;
+            }
+            if(checkers > 1)
+                continue;
+            if(getCode(move) == CAPTURE_EN_PASSANT) {
+                pos.makeMove(move);
+                boolean legal = !isInCheck(pos, color);
+                pos.unmakeMove();
+                if(legal)
+                    moves[count++] = move;
+                continue;
+            }
+            if(((to < 64 ? targetLo : targetHi) & 1L << to) == 0)
+                continue;
+            if(((from < 64 ? pinnedLo : pinnedHi) & 1L << from) != 0
+                    && direction(king, to) != direction(king, from))
+                continue;
+            moves[count++] = move;
+        }
+        return count;
+    }
+
+    /**
+     * @param from A cell.
+     * @param to Another cell.
+     * @return The direction of the ray from <code>from</code> that passes
+     * through <code>to</code>, or -1 if there is none.
+     */
+    public static int direction(int from, int to) {
+        return RAY_DIRECTION[from * Position.NUM_CELLS + to];
+    }
+
+    /**
+     * @param pos Position to look at.
+     * @param color Color of the king.
+     * @return Whether that color's king is attacked.
+     */
+    public static boolean isInCheck(Position pos, int color) {
+        int king = findKing(pos, color);
+        return king != Position.NO_CELL && isAttacked(pos, king, 1 - color);
+    }
+
+    /**
+     * @param pos Position to look at.
+     * @param color Color of the king.
+     * @return Cell of that color's king, or <code>Position.NO_CELL</code>.
+     */
+    public static int findKing(Position pos, int color) {
+        for(int word = 0; word < 2; word++) {
+            long kings = pos.getPieceSet(Hex.KING, word) & pos.getColorSet(color, word);
+            if(kings != 0)
+                return word * 64 + Long.numberOfTrailingZeros(kings);
+        }
+        return Position.NO_CELL;
+    }
+
+    /**
+     * Check whether any piece of one color attacks a cell.
+     * @param pos Position to look at.
+     * @param cell Cell that might be attacked.
+     * @param byColor Color of the attacking side.
+     * @return Whether the cell is attacked.
+     */
+    public static boolean isAttacked(Position pos, int cell, int byColor) {
+        return isAttacked(pos, cell, byColor, Position.NO_CELL);
     }
 
-    public static int[][] generateMoves(Hex piece, Board board) {
-        switch(piece.getId()) {
+    /**
+     * Same as <code>isAttacked(pos, cell, byColor)</code>, but treating
+     * one cell as empty. Used to look through a king that is about to
+     * step away along a ray it is attacked on.
+     */
+    private static boolean isAttacked(Position pos, int cell, int byColor, int ignore) {
+        for(int word = 0; word < 2; word++) {
+            long attackers = pos.getColorSet(byColor, word);
+            if((KNIGHT_ATTACKS[cell * 2 + word] & attackers
+                    & pos.getPieceSet(Hex.KNIGHT, word)) != 0)
+                return true;
+            if((KING_ATTACKS[cell * 2 + word] & attackers
+                    & pos.getPieceSet(Hex.KING, word)) != 0)
+                return true;
+        }
+
+        // A pawn attacks this cell from where an enemy pawn on this
+        // cell would capture
+        for(int from : PAWN_CAPTURES[1 - byColor][cell])
+            if(pos.isColor(from, byColor) && pos.getId(from) == Hex.PAWN)
+                return true;
+
+        int[][] rays = RAYS[cell];
+        for(int dir = 0; dir < NUM_DIRECTIONS; dir++) {
+            int slider = dir < FIRST_DIAGONAL ? Hex.ROOK : Hex.BISHOP;
+            for(int from : rays[dir]) {
+                if(from == ignore || pos.isEmpty(from))
+                    continue;
+                int id = pos.getId(from);
+                if(pos.isColor(from, byColor) && (id == slider || id == Hex.QUEEN))
+                    return true;
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Describe a move by its cells, e.g. <code>f5f6</code>, with the
+     * promotion piece appended, e.g. <code>f10f11q</code>.
+     * @param move Packed move.
+     * @return The move as text.
+     */
+    public static String moveToString(int move) {
+        String result = Position.cellName(getFrom(move)) + Position.cellName(getTo(move));
+        if(getPromotion(move) != 0)
+            result += "kqrbnp".charAt(getPromotion(move));
+        return result;
+    }
+
+    /**
+     * Read a move written by <code>moveToString()</code>.
+     * @param pos Position to play the move in.
+     * @param text The move as text, e.g. <code>f5f6</code>.
+     * @param moves Scratch space, at least <code>MAX_MOVES</code> long.
+     * @return The legal move meant, or <code>NO_MOVE</code> if there is
+     * none.
+     */
+    public static int parseMove(Position pos, String text, int[] moves) {
+        int count = generateLegalMoves(pos, moves, 0);
+        for(int i = 0; i < count; i++)
+            if(moveToString(moves[i]).equals(text))
+                return moves[i];
+        return NO_MOVE;
+    }
+
+    /**
+     * Generate the moves of every piece of one color.
+     * @param pos Position to generate moves for.
+     * @param color Color of the side to move.
+     * @param moves Array to write the packed moves into.
+     * @param count Index to start writing at.
+     * @return The new number of moves in <code>moves</code>.
+     */
+    public static int generateAllMoves(Position pos, int color, int[] moves, int count) {
+        for(int word = 0; word < 2; word++) {
+            long pieces = pos.getColorSet(color, word);
+            while(pieces != 0) {
+                int cell = word * 64 + Long.numberOfTrailingZeros(pieces);
+                pieces &= pieces - 1;
+                count = generateMoves(pos, cell, moves, count);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Generate the moves of the piece on the given cell.
+     * @param pos Position the piece is in.
+     * @param cell Cell of the piece.
+     * @param moves Array to write the packed moves into.
+     * @param count Index to start writing at.
+     * @return The new number of moves in <code>moves</code>.
+     */
+    public static int generateMoves(Position pos, int cell, int[] moves, int count) {
+        switch(pos.getId(cell)) {
             case Hex.PAWN:
-                return generatePawnMoves(piece, board);
+                return generatePawnMoves(pos, cell, moves, count);
             case Hex.KNIGHT:
-                return generateKnightMoves(piece, board);
+                return generateKnightMoves(pos, cell, moves, count);
             case Hex.BISHOP:
-                return generateBishopMoves(piece, board);
+                return generateBishopMoves(pos, cell, moves, count);
             case Hex.ROOK:
-                return generateRookMoves(piece, board);
+                return generateRookMoves(pos, cell, moves, count);
             case Hex.QUEEN:
-                return generateQueenMoves(piece, board);
+                return generateQueenMoves(pos, cell, moves, count);
             case Hex.KING:
-                return generateKingMoves(piece, board);
+                return generateKingMoves(pos, cell, moves, count);
             default:
                 throw new IllegalArgumentException("Unknown piece type");
         }
     }
 
-    /**
-     * Creates an 2D int array, size 11x11, filled with <code>ILLEGAL</code>.
-     * @return An empty array.
-     */
-    public static int[][] generateEmptyArray() {
-        int[][] result = new int[11][11];
-        for(int i = 0; i < 11; i++)
-            Arrays.fill(result[i], ILLEGAL);
-        return result;
+    public static boolean isPawnStartingSquare(Hex position) {
+        return isPawnStartingSquare(position.getColor(),
+                position.getFile(), position.getRank());
     }
 
-    public static boolean isPawnStartingSquare(Hex position) {
-        int file = position.getFile();
-        int rank = position.getRank();
-        if(position.getColor() == Hex.BLACK) {
+    private static boolean isPawnStartingSquare(int color, int file, int rank) {
+        if(color == Hex.BLACK) {
             return rank == 6;
         }
-        // position.getColor() == Hex.WHITE
+        // color == Hex.WHITE
         return file < 6 && rank == file - 1         // left half + center file
                 || file >= 6 && rank == 9 - file;   // right half
     }
@@ -76,171 +541,152 @@ public class MoveRules {
     /**
      * Generate the possible moves for a pawn on a certain board.
      *
-     * @param position Pawn's hex.
-     * @param board    Pawn's board.
-     * @return A 2D int array describing the legality of each move.
-     */
-    public static int[][] generatePawnMoves(Hex position, Board board) {
-        // TODO: implement en passant (requires previous-move logic)
-        int[][] result = generateEmptyArray();
-        int file = position.getFile();
-        int rank = position.getRank();
-        int color = position.getColor();
-        if(color == Hex.WHITE) {
-            // Single-step move
-            if(Board.hexExists(file, rank + 1)
-                    && board.getHex(file, rank + 1).getColor() == Hex.EMPTY) {
-                result[file][rank + 1] = MOVE;
-                // Double-step move
-                if(isPawnStartingSquare(position)
-                        && board.getHex(file, rank + 2).getId() == Hex.EMPTY)
-                    result[file][rank + 2] = MOVE;
-            }
+     * @param pos   Pawn's position.
+     * @param from  Pawn's cell.
+     * @param moves Array to write the packed moves into.
+     * @param count Index to start writing at.
+     * @return The new number of moves in <code>moves</code>.
+     */
+    public static int generatePawnMoves(Position pos, int from, int[] moves, int count) {
+        int color = pos.getColor(from);
 
-            // Note that the center file is on the left half for leftwards
-            // capture but on the right half for rightwards capture.
-
-            // Leftwards capture
-            // Left half of board
-            if(file <= 5 && Board.hexExists(file - 1, rank)
-                    && board.getHex(file - 1, rank).getColor() == Hex.BLACK)
-                result[file - 1][rank] = CAPTURE;
-            // Right half of board
-            if(file > 5 && Board.hexExists(file - 1, rank + 1)
-                    && board.getHex(file - 1, rank + 1).getColor() == Hex.BLACK)
-                result[file - 1][rank + 1] = CAPTURE;
-
-            // Rightwards capture
-            // Left half of board
-            if(file < 5 && Board.hexExists(file + 1, rank + 1)
-               && board.getHex(file + 1, rank + 1).getColor() == Hex.BLACK)
-                result[file + 1][rank + 1] = CAPTURE;
-            if(file >= 5 && Board.hexExists(file + 1, rank)
-                    && board.getHex(file + 1, rank).getColor() == Hex.BLACK)
-                result[file + 1][rank] = CAPTURE;
-        }
-
-        else { // color == Hex.BLACK
-            // Single-step move
-            if(Board.hexExists(file, rank - 1)
-                    && board.getHex(file, rank - 1).getColor() == Hex.EMPTY) {
-                result[file][rank - 1] = MOVE;
-                // Double-step move
-                if(isPawnStartingSquare(position)
-                        && board.getHex(file, rank - 2).getId() == Hex.EMPTY)
-                    result[file][rank - 2] = MOVE;
+        int to = PAWN_PUSH[color][from];
+        if(to != Position.NO_CELL && pos.isEmpty(to)) {
+            if(PAWN_PUSH[color][to] == Position.NO_CELL) {
+                count = addPromotions(from, to, MOVE_PROMOTE, moves, count);
+            } else {
+                moves[count++] = move(from, to, MOVE);
+                to = PAWN_DOUBLE[color][from];
+                if(to != Position.NO_CELL && pos.isEmpty(to))
+                    moves[count++] = move(from, to, MOVE);
+            }
+        }
+        for(int target : PAWN_CAPTURES[color][from]) {
+            if(pos.isEnemy(target, color)) {
+                if(PAWN_PUSH[color][target] == Position.NO_CELL)
+                    count = addPromotions(from, target, CAPTURE_PROMOTE, moves, count);
+                else
+                    moves[count++] = move(from, target, CAPTURE);
+            } else if(target == pos.getEnPassantCell()
+                    && color == pos.getSideToMove()) {
+                moves[count++] = move(from, target, CAPTURE_EN_PASSANT);
             }
+        }
+        return count;
+    }
 
-            // Note that the center file is on the left half for leftwards
-            // capture but on the right half for rightwards capture.
-
-            // Leftwards capture
-            // Left half of board
-            if(file <= 5 && Board.hexExists(file - 1, rank - 1)
-                    && board.getHex(file - 1, rank - 1).getColor() == Hex.WHITE)
-                result[file - 1][rank - 1] = CAPTURE;
-            // Right half of board
-            if(file > 5 && Board.hexExists(file - 1, rank)
-                    && board.getHex(file - 1, rank).getColor() == Hex.WHITE)
-                result[file - 1][rank] = CAPTURE;
-
-            // Rightwards capture
-            // Left half of board
-            if(file < 5 && Board.hexExists(file + 1, rank)
-                    && board.getHex(file + 1, rank).getColor() == Hex.WHITE)
-                result[file + 1][rank] = CAPTURE;
-            if(file >= 5 && Board.hexExists(file + 1, rank - 1)
-                    && board.getHex(file + 1, rank - 1).getColor() == Hex.WHITE)
-                result[file + 1][rank - 1] = CAPTURE;
-        }
-//        System.out.println(Arrays.deepToString(result));
-        return result;
+    /**
+     * Add one move for each piece a pawn can promote to, queen first.
+     */
+    private static int addPromotions(int from, int to, int code,
+                                     int[] moves, int count) {
+        for(int id = Hex.QUEEN; id <= Hex.KNIGHT; id++)
+            moves[count++] = move(from, to, code, id);
+        return count;
     }
 
     /**
      * Generate the possible moves for a knight on a certain board.
      *
-     * @param position Knight's hex.
-     * @param board    Knight's board.
-     * @return A 2D int array describing the legality of each move.
+     * @param pos   Knight's position.
+     * @param from  Knight's cell.
+     * @param moves Array to write the packed moves into.
+     * @param count Index to start writing at.
+     * @return The new number of moves in <code>moves</code>.
      */
-    public static int[][] generateKnightMoves(Hex position, Board board) {
-        return generateEmptyArray();
+    public static int generateKnightMoves(Position pos, int from, int[] moves, int count) {
+        return generateStepMoves(pos, from, KNIGHT_TARGETS[from], moves, count);
     }
 
     /**
      * Generate the possible moves for a bishop on a certain board.
      *
-     * @param position Bishop's hex.
-     * @param board    Bishop's board.
-     * @return A 2D int array describing the legality of each move.
+     * @param pos   Bishop's position.
+     * @param from  Bishop's cell.
+     * @param moves Array to write the packed moves into.
+     * @param count Index to start writing at.
+     * @return The new number of moves in <code>moves</code>.
      */
-    public static int[][] generateBishopMoves(Hex position, Board board) {
-        return generateEmptyArray();
+    public static int generateBishopMoves(Position pos, int from, int[] moves, int count) {
+        return generateSlidingMoves(pos, from, FIRST_DIAGONAL, NUM_DIRECTIONS, moves, count);
     }
 
     /**
      * Generate the possible moves for a rook on a certain board.
      *
-     * @param position Rook's hex.
-     * @param board    Rook's board.
-     * @return A 2D int array describing the legality of each move.
+     * @param pos   Rook's position.
+     * @param from  Rook's cell.
+     * @param moves Array to write the packed moves into.
+     * @param count Index to start writing at.
+     * @return The new number of moves in <code>moves</code>.
      */
-    public static int[][] generateRookMoves(Hex position, Board board) {
-        return generateEmptyArray();
+    public static int generateRookMoves(Position pos, int from, int[] moves, int count) {
+        return generateSlidingMoves(pos, from, 0, FIRST_DIAGONAL, moves, count);
     }
 
     /**
      * Generate the possible moves for a queen on a certain board.
      *
-     * @param position Queen's hex.
-     * @param board    Queen's board.
-     * @return A 2D int array describing the legality of each move.
+     * @param pos   Queen's position.
+     * @param from  Queen's cell.
+     * @param moves Array to write the packed moves into.
+     * @param count Index to start writing at.
+     * @return The new number of moves in <code>moves</code>.
      */
-    public static int[][] generateQueenMoves(Hex position, Board board) {
-        return generateEmptyArray();
+    public static int generateQueenMoves(Position pos, int from, int[] moves, int count) {
+        return generateSlidingMoves(pos, from, 0, NUM_DIRECTIONS, moves, count);
     }
 
     /**
      * Generate the possible moves for a king on a certain board.
      *
-     * @param position King's hex.
-     * @param board    King's board.
-     * @return A 2D int array describing the legality of each move.
+     * @param pos   King's position.
+     * @param from  King's cell.
+     * @param moves Array to write the packed moves into.
+     * @param count Index to start writing at.
+     * @return The new number of moves in <code>moves</code>.
      */
-    public static int[][] generateKingMoves(Hex position, Board board) {
-        return generateEmptyArray();
+    public static int generateKingMoves(Position pos, int from, int[] moves, int count) {
+        return generateStepMoves(pos, from, KING_TARGETS[from], moves, count);
     }
 
     /**
-     * Provides the move code corresponding to the given starting
-     * and destination squares for a pawn.
-     * @param from Starting square.
-     * @param to Ending square.
-     * @param board Board the pawn is on.
-     * @return Corresponding move code.
+     * Generate the moves of a piece that jumps straight to its targets.
+     * @param targets Row of KNIGHT_TARGETS or KING_TARGETS.
      */
-    public static int pawnCanMove(Hex from, Hex to, Board board) {
-        return generatePawnMoves(from, board)[to.getFile()][to.getRank()];
-    }
-
-    public static int knightCanMove(Hex from, Hex to, Board board) {
-        return MOVE;
-    }
-
-    public static int bishopCanMove(Hex from, Hex to, Board board) {
-        return MOVE;
-    }
-
-    public static int rookCanMove(Hex from, Hex to, Board board) {
-        return MOVE;
-    }
-
-    public static int queenCanMove(Hex from, Hex to, Board board) {
-        return MOVE;
+    private static int generateStepMoves(Position pos, int from, int[] targets,
+                                         int[] moves, int count) {
+        int color = pos.getColor(from);
+        for(int to : targets) {
+            if(pos.isEmpty(to))
+                moves[count++] = move(from, to, MOVE);
+            else if(pos.isEnemy(to, color))
+                moves[count++] = move(from, to, CAPTURE);
+        }
+        return count;
     }
 
-    public static int kingCanMove(Hex from, Hex to, Board board) {
-        return MOVE;
+    /**
+     * Generate the moves of a piece that slides along the rays
+     * <code>firstDir</code> (inclusive) to <code>lastDir</code> (exclusive)
+     * until it is blocked.
+     */
+    private static int generateSlidingMoves(Position pos, int from,
+                                            int firstDir, int lastDir,
+                                            int[] moves, int count) {
+        int color = pos.getColor(from);
+        int[][] rays = RAYS[from];
+        for(int dir = firstDir; dir < lastDir; dir++) {
+            for(int to : rays[dir]) {
+                if(pos.isEmpty(to)) {
+                    moves[count++] = move(from, to, MOVE);
+                    continue;
+                }
+                if(pos.isEnemy(to, color))
+                    moves[count++] = move(from, to, CAPTURE);
+                break;
+            }
+        }
+        return count;
     }
 }
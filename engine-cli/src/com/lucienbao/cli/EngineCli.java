@@ -0,0 +1,452 @@
+package com.lucienbao.cli;
+
+import com.lucienbao.board.Hex;
+import com.lucienbao.board.Position;
+import com.lucienbao.board.PositionNotation;
+import com.lucienbao.engine.NnueNetwork;
+import com.lucienbao.engine.OpeningBook;
+import com.lucienbao.engine.Search;
+import com.lucienbao.engine.SearchLimits;
+import com.lucienbao.engine.SearchListener;
+import com.lucienbao.engine.SearchResult;
+import com.lucienbao.engine.SmpSearch;
+import com.lucienbao.engine.Tablebases;
+import com.lucienbao.engine.TranspositionTable;
+import com.lucienbao.utils.MoveRules;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The engine without the game around it, for servers, tournament
+ * managers and GUIs to run as a subprocess. It reads commands from
+ * standard input, one per line, and answers on standard output, in the
+ * style of UCI:
+ * <pre>
+ * uci                              id, options, then uciok
+ * isready                          readyok, once set up; also while searching
+ * setoption name N value V         Hash (MiB), Threads, EvalFile, BookFile,
+ *                                  TablebasePath
+ * ucinewgame                       forget everything learned so far
+ * position startpos [moves m...]   moves like f5f6, or f10f11q to promote
+ * position fen F [moves m...]      F as in PositionNotation
+ * go [depth N] [movetime MS] [nodes N] [wtime MS] [btime MS] [winc MS]
+ *    [binc MS] [infinite]          search; info lines, then bestmove
+ * stop                             finish the search now
+ * quit
+ * </pre>
+ * Every completed iteration of a search is reported as an
+ * <code>info</code> line with its depth, score, nodes, nodes per second,
+ * hash table use and principal variation.
+ * <p>
+ * Nothing big is set up before it's needed: the hash table is allocated
+ * and files are loaded on the first <code>isready</code> or
+ * <code>go</code>, so that options set before then don't cost anything
+ * twice and a fresh process answers quickly.
+ */
+public class EngineCli {
+    private static final String NAME = "HexChess";
+    private static final String AUTHOR = "Lucien Bao";
+
+    private static final int DEFAULT_HASH_MB = 64;
+    private static final int MAX_HASH_MB = 32768;
+    private static final int MAX_THREADS = 256;
+
+    private final PrintStream out;
+    private final ExecutorService searcher;
+
+    // Options
+    private int hashMegabytes = DEFAULT_HASH_MB;
+    private int threads = 1;
+    private String evalFile = "";
+    private String bookFile = "";
+    private String tablebasePath = "";
+
+    // Made from the options when first needed, and again after they change
+    private TranspositionTable table;
+    private SmpSearch search;
+    private NnueNetwork network;
+    private OpeningBook book;
+    private Tablebases tablebases;
+    private boolean filesLoaded;
+    private final Random random = new Random();
+
+    private Position position = new Position();
+    private final PositionNotation notation = new PositionNotation();
+    private Future<?> running;
+
+    public EngineCli(PrintStream out) {
+        this.out = out;
+        this.searcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "search");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        EngineCli cli = new EngineCli(new PrintStream(System.out, false, "US-ASCII"));
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "US-ASCII"));
+        String line;
+        while((line = in.readLine()) != null) {
+            if(!cli.execute(line))
+                break;
+        }
+        cli.quit();
+    }
+
+    /**
+     * Carry out one command.
+     * @param line Line of input.
+     * @return Whether to keep reading, i.e. it wasn't <code>quit</code>.
+     */
+    public boolean execute(String line) {
+        String[] words = line.trim().split("\\s+");
+        switch(words[0]) {
+            case "":
+                break;
+            case "uci":
+                send("id name " + NAME);
+                send("id author " + AUTHOR);
+                send("option name Hash type spin default " + DEFAULT_HASH_MB
+                        + " min 1 max " + MAX_HASH_MB);
+                send("option name Threads type spin default 1 min 1 max " + MAX_THREADS);
+                send("option name EvalFile type string default <empty>");
+                send("option name BookFile type string default <empty>");
+                send("option name TablebasePath type string default <empty>");
+                send("uciok");
+                break;
+            case "isready":
+                // Answered straight away while searching, as UCI requires
+                if(!isSearching())
+                    setUp();
+                send("readyok");
+                break;
+            case "setoption":
+                waitForSearch();
+                setOption(words);
+                break;
+            case "ucinewgame":
+                waitForSearch();
+                if(table != null)
+                    table.clear();
+                position = new Position();
+                break;
+            case "position":
+                waitForSearch();
+                setPosition(words);
+                break;
+            case "go":
+                waitForSearch();
+                go(words);
+                break;
+            case "stop":
+                stop();
+                break;
+            case "quit":
+                return false;
+            default:
+                send("info string Unknown command: " + words[0]);
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Stop searching and let go of the threads.
+     */
+    public void quit() {
+        stop();
+        waitForSearch();
+        if(search != null)
+            search.shutdown();
+        searcher.shutdownNow();
+        out.flush();
+    }
+
+    private void setOption(String[] words) {
+        // setoption name <name, maybe several words> [value <value>]
+        StringBuilder name = new StringBuilder();
+        StringBuilder value = new StringBuilder();
+        StringBuilder current = null;
+        for(int i = 1; i < words.length; i++) {
+            if(words[i].equals("name"))
+                current = name;
+            else if(words[i].equals("value"))
+                current = value;
+            else if(current != null)
+                current.append(current.length() > 0 ? " " : "").append(words[i]);
+        }
+
+        String text = value.toString();
+        try {
+            switch(name.toString().toLowerCase()) {
+                case "hash":
+                    hashMegabytes = clamp(Integer.parseInt(text), 1, MAX_HASH_MB);
+                    table = null;
+                    dropSearch();
+                    break;
+                case "threads":
+                    threads = clamp(Integer.parseInt(text), 1, MAX_THREADS);
+                    dropSearch();
+                    break;
+                case "evalfile":
+                    evalFile = emptyIfUnset(text);
+                    filesLoaded = false;
+                    break;
+                case "bookfile":
+                    bookFile = emptyIfUnset(text);
+                    filesLoaded = false;
+                    break;
+                case "tablebasepath":
+                    tablebasePath = emptyIfUnset(text);
+                    filesLoaded = false;
+                    break;
+                default:
+                    send("info string Unknown option: " + name);
+                    break;
+            }
+        } catch(NumberFormatException e) {
+            send("info string Not a number: " + text);
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static String emptyIfUnset(String text) {
+        return text.equals("<empty>") ? "" : text;
+    }
+
+    private void dropSearch() {
+        if(search != null) {
+            search.shutdown();
+            search = null;
+        }
+    }
+
+    /**
+     * Allocate the hash table and threads and load files, whatever isn't
+     * set up for the current options yet.
+     */
+    private void setUp() {
+        if(table == null)
+            table = new TranspositionTable(hashMegabytes);
+        if(!filesLoaded) {
+            network = null;
+            book = null;
+            tablebases = null;
+            try {
+                if(!evalFile.isEmpty()) {
+                    InputStream in = new BufferedInputStream(new FileInputStream(evalFile));
+                    try {
+                        network = NnueNetwork.read(in);
+                    } finally {
+                        in.close();
+                    }
+                }
+                if(!bookFile.isEmpty())
+                    book = OpeningBook.open(new File(bookFile));
+                if(!tablebasePath.isEmpty())
+                    tablebases = Tablebases.open(new File(tablebasePath));
+            } catch(IOException e) {
+                send("info string Can't load file: " + e.getMessage());
+            }
+            filesLoaded = true;
+            dropSearch();
+        }
+        if(search == null) {
+            search = new SmpSearch(table, threads);
+            search.setNetwork(network);
+            search.setTablebases(tablebases);
+            search.setListener(new SearchListener() {
+                @Override
+                public void iterationFinished(SearchResult result) {
+                    sendInfo(result);
+                }
+            });
+        }
+    }
+
+    private void setPosition(String[] words) {
+        Position next = new Position();
+        int i = 1;
+        if(i < words.length && words[i].equals("startpos")) {
+            i++;
+        } else if(i < words.length && words[i].equals("fen")) {
+            StringBuilder fen = new StringBuilder();
+            for(i++; i < words.length && !words[i].equals("moves"); i++)
+                fen.append(fen.length() > 0 ? " " : "").append(words[i]);
+            try {
+                notation.parse(fen, next);
+            } catch(IllegalArgumentException e) {
+                send("info string " + e.getMessage());
+                return;
+            }
+        } else {
+            send("info string Expected startpos or fen");
+            return;
+        }
+
+        if(i < words.length && words[i].equals("moves")) {
+            int[] moves = new int[MoveRules.MAX_MOVES];
+            for(i++; i < words.length; i++) {
+                int move = MoveRules.parseMove(next, words[i], moves);
+                if(move == MoveRules.NO_MOVE) {
+                    send("info string Illegal move: " + words[i]);
+                    return;
+                }
+                next.makeMove(move);
+            }
+        }
+        position = next;
+    }
+
+    private void go(String[] words) {
+        int depth = 0;
+        long moveTime = 0;
+        long nodes = 0;
+        long[] clock = new long[2];
+        long[] increment = new long[2];
+        try {
+            for(int i = 1; i < words.length; i++) {
+                switch(words[i]) {
+                    case "depth":
+                        depth = Integer.parseInt(words[++i]);
+                        break;
+                    case "movetime":
+                        moveTime = Long.parseLong(words[++i]);
+                        break;
+                    case "nodes":
+                        nodes = Long.parseLong(words[++i]);
+                        break;
+                    case "wtime":
+                        clock[Hex.WHITE] = Long.parseLong(words[++i]);
+                        break;
+                    case "btime":
+                        clock[Hex.BLACK] = Long.parseLong(words[++i]);
+                        break;
+                    case "winc":
+                        increment[Hex.WHITE] = Long.parseLong(words[++i]);
+                        break;
+                    case "binc":
+                        increment[Hex.BLACK] = Long.parseLong(words[++i]);
+                        break;
+                    case "infinite":
+                        break;
+                    default:
+                        send("info string Unknown go parameter: " + words[i]);
+                        break;
+                }
+            }
+        } catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            send("info string Bad go command");
+            return;
+        }
+
+        setUp();
+        int side = position.getSideToMove();
+        // A clock of 0 would mean no clock, so keep at least 1 ms
+        long clockMillis = clock[side] > 0 || clock[1 - side] > 0 ? Math.max(1, clock[side]) : 0;
+        final SearchLimits limits = new SearchLimits(depth, moveTime, nodes,
+                clockMillis, increment[side]);
+        final Position root = new Position(position);
+        // Cleared here rather than on the search thread, so that a "stop"
+        // coming before that thread gets going still counts
+        search.prepare();
+        running = searcher.submit(new Runnable() {
+            @Override
+            public void run() {
+                SearchResult result = bookMoveOrSearch(root, limits);
+                int move = result == null ? MoveRules.NO_MOVE : result.getBestMove();
+                send("bestmove " + (move == MoveRules.NO_MOVE ? "(none)" : MoveRules.moveToString(move)));
+            }
+        });
+    }
+
+    private SearchResult bookMoveOrSearch(Position root, SearchLimits limits) {
+        if(book != null) {
+            int move = book.pickMove(root, random);
+            if(move != MoveRules.NO_MOVE) {
+                send("info string Book move");
+                return new SearchResult(move, 0, 0, 0, 0, new int[] {move});
+            }
+        }
+        SearchResult result = search.search(root, limits);
+        if(result == null || result.getBestMove() == MoveRules.NO_MOVE) {
+            // Stopped before the first iteration found anything; any
+            // legal move beats none
+            int[] moves = new int[MoveRules.MAX_MOVES];
+            if(MoveRules.generateLegalMoves(root, moves, 0) > 0)
+                return new SearchResult(moves[0], 0, 0, 0, 0, new int[] {moves[0]});
+        }
+        return result;
+    }
+
+    private void stop() {
+        if(search != null)
+            search.stop();
+    }
+
+    private boolean isSearching() {
+        return running != null && !running.isDone();
+    }
+
+    private void waitForSearch() {
+        if(running == null)
+            return;
+        try {
+            running.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException e) {
+            throw new IllegalStateException("Search failed", e.getCause());
+        }
+        running = null;
+    }
+
+    private void sendInfo(SearchResult result) {
+        StringBuilder line = new StringBuilder("info depth ").append(result.getDepth());
+        int score = result.getScore();
+        if(Search.isMateScore(score)) {
+            // In moves, not plies; negative if the side to move gets mated
+            int plies = Search.MATE - Math.abs(score);
+            line.append(" score mate ").append(score > 0 ? (plies + 1) / 2 : -(plies / 2));
+        } else {
+            line.append(" score cp ").append(score);
+        }
+        line.append(" time ").append(result.getTimeMillis())
+                .append(" nodes ").append(result.getNodes())
+                .append(" nps ").append(result.getNodesPerSecond())
+                .append(" hashfull ").append(table.hashfull());
+        int[] pv = result.getPrincipalVariation();
+        if(pv.length > 0) {
+            line.append(" pv");
+            for(int move : pv)
+                line.append(' ').append(MoveRules.moveToString(move));
+        }
+        send(line.toString());
+    }
+
+    // Called from both the input thread and the search thread
+    private synchronized void send(String line) {
+        out.println(line);
+        out.flush();
+    }
+}
@@ -0,0 +1,100 @@
+package com.lucienbao.cli;
+
+import com.lucienbao.engine.NnueNetwork;
+import com.lucienbao.engine.Search;
+import com.lucienbao.engine.Tablebases;
+import com.lucienbao.engine.TranspositionTable;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * One side of a tournament: a name and how its engine is set up, written
+ * as comma-separated settings, e.g. <code>name=new,eval=new.nnue,hash=16</code>.
+ * <ul>
+ *     <li><code>name</code>: shown in reports;</li>
+ *     <li><code>eval</code>: network file, or the hand-written evaluation
+ *     if not given;</li>
+ *     <li><code>hash</code>: transposition table size in MiB;</li>
+ *     <li><code>tb</code>: <code>off</code> to search endings the
+ *     tablebases have instead of looking them up.</li>
+ * </ul>
+ * The network is read once and shared by every game, since searches only
+ * read it.
+ */
+class EngineConfig {
+    private static final int DEFAULT_HASH_MB = 16;
+
+    final String name;
+    final int hashMegabytes;
+    final NnueNetwork network;
+    final boolean useTablebases;
+
+    private EngineConfig(String name, int hashMegabytes, NnueNetwork network,
+                         boolean useTablebases) {
+        this.name = name;
+        this.hashMegabytes = hashMegabytes;
+        this.network = network;
+        this.useTablebases = useTablebases;
+    }
+
+    /**
+     * @param text Settings, see the class comment.
+     * @return The configuration.
+     * @throws IOException If the network can't be read.
+     * @throws IllegalArgumentException If a setting isn't valid.
+     */
+    static EngineConfig parse(String text) throws IOException {
+        String name = text;
+        int hashMegabytes = DEFAULT_HASH_MB;
+        NnueNetwork network = null;
+        boolean useTablebases = true;
+        for(String setting : text.split(",")) {
+            int split = setting.indexOf('=');
+            if(split < 0)
+                throw new IllegalArgumentException("Not a setting: " + setting);
+            String key = setting.substring(0, split);
+            String value = setting.substring(split + 1);
+            switch(key) {
+                case "name":
+                    name = value;
+                    break;
+                case "hash":
+                    hashMegabytes = Integer.parseInt(value);
+                    break;
+                case "eval":
+                    InputStream in = new BufferedInputStream(new FileInputStream(value));
+                    try {
+                        network = NnueNetwork.read(in);
+                    } finally {
+                        in.close();
+                    }
+                    break;
+                case "tb":
+                    useTablebases = !value.equals("off");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown setting: " + key);
+            }
+        }
+        return new EngineConfig(name, hashMegabytes, network, useTablebases);
+    }
+
+    TranspositionTable newTable() {
+        return new TranspositionTable(hashMegabytes);
+    }
+
+    /**
+     * @param table Transposition table of its own.
+     * @param tablebases Tables shared by all games, or <code>null</code>.
+     * @return A new search set up this way, for one thread.
+     */
+    Search newSearch(TranspositionTable table, Tablebases tablebases) {
+        Search search = new Search(table);
+        search.setNetwork(network);
+        search.setTablebases(useTablebases ? tablebases : null);
+        return search;
+    }
+}
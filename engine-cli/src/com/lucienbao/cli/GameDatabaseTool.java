@@ -0,0 +1,128 @@
+package com.lucienbao.cli;
+
+import com.lucienbao.board.GameDatabase;
+import com.lucienbao.board.GameDatabaseBuilder;
+import com.lucienbao.board.GameRecord;
+import com.lucienbao.board.Position;
+import com.lucienbao.utils.MoveRules;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds and queries a <code>GameDatabase</code> from the command line.
+ * <p>
+ * Usage:
+ * <pre>
+ * GameDatabaseTool add DIR FILE... [options]   add game record files;
+ *                                              options can go anywhere
+ *   --threads N        threads to index on (one per core)
+ *   --max-ply N        moves of each game to index (60)
+ *   --buffer N         entries each thread holds before writing a run
+ *                      (4 million, 64 MB)
+ * GameDatabaseTool explore DIR [MOVE...]       moves played after MOVEs
+ * </pre>
+ * Adding reports how many games a second were added and indexed, and
+ * exploring how long the lookup took.
+ */
+public class GameDatabaseTool {
+    private static final int DEFAULT_MAX_PLY = 60;
+    private static final int DEFAULT_BUFFER_ENTRIES = 1 << 22;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length >= 2 && args[0].equals("add")) {
+            add(args);
+        } else if(args.length >= 2 && args[0].equals("explore")) {
+            explore(args);
+        } else {
+            System.err.println("Usage: GameDatabaseTool add DIR FILE... [options]");
+            System.err.println("       GameDatabaseTool explore DIR [MOVE...]");
+            System.exit(1);
+        }
+    }
+
+    private static void add(String[] args) throws Exception {
+        File directory = new File(args[1]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxPly = DEFAULT_MAX_PLY;
+        int bufferEntries = DEFAULT_BUFFER_ENTRIES;
+        List<String> files = new ArrayList<>();
+        for(int i = 2; i < args.length; i++) {
+            if(!args[i].startsWith("--")) {
+                files.add(args[i]);
+                continue;
+            }
+            switch(args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--max-ply":
+                    maxPly = Integer.parseInt(args[++i]);
+                    break;
+                case "--buffer":
+                    bufferEntries = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        GameDatabaseBuilder builder = new GameDatabaseBuilder(directory, maxPly, threads, bufferEntries);
+        int added = 0;
+        for(String file : files) {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                added += builder.addGames(in.getChannel());
+            } finally {
+                in.close();
+            }
+        }
+        long read = System.nanoTime();
+        builder.finish();
+        long end = System.nanoTime();
+
+        System.out.printf("Added %d games (%d in the database) on %d threads%n",
+                added, builder.getGameCount(), threads);
+        if(builder.getBadGames() > 0)
+            System.out.printf("%d games had illegal moves and were only indexed up to them%n",
+                    builder.getBadGames());
+        System.out.printf("Reading and indexing: %.1f s, merging: %.1f s, %.0f games/s overall%n",
+                (read - start) / 1e9, (end - read) / 1e9, added / ((end - start) / 1e9));
+    }
+
+    private static void explore(String[] args) throws Exception {
+        GameDatabase database = GameDatabase.open(new File(args[1]));
+        try {
+            Position pos = new Position();
+            int[] moves = new int[MoveRules.MAX_MOVES];
+            for(int i = 2; i < args.length; i++) {
+                int move = MoveRules.parseMove(pos, args[i], moves);
+                if(move == MoveRules.NO_MOVE) {
+                    System.err.println("Illegal move: " + args[i]);
+                    System.exit(1);
+                }
+                pos.makeMove(move);
+            }
+
+            long start = System.nanoTime();
+            List<GameDatabase.MoveStats> stats = database.explore(pos);
+            long end = System.nanoTime();
+
+            System.out.printf("%d games in the database, looked up in %.3f ms%n",
+                    database.getGameCount(), (end - start) / 1e6);
+            System.out.println("move      games   white  w-wins  draws  b-wins  stalemates");
+            for(GameDatabase.MoveStats move : stats)
+                System.out.printf("%-8s %6d  %5.1f%%  %6d  %5d  %6d  %10d%n",
+                        MoveRules.moveToString(move.getMove()), move.getGames(),
+                        100 * move.getWhiteScore(), move.getCount(GameRecord.WHITE_WINS),
+                        move.getCount(GameRecord.DRAW), move.getCount(GameRecord.BLACK_WINS),
+                        move.getCount(GameRecord.WHITE_STALEMATES)
+                                + move.getCount(GameRecord.BLACK_STALEMATES));
+        } finally {
+            database.close();
+        }
+    }
+}
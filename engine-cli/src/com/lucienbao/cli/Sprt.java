@@ -0,0 +1,115 @@
+package com.lucienbao.cli;
+
+/**
+ * Sequential probability ratio test of whether one engine is stronger
+ * than another: H0, that the Elo difference is <code>elo0</code>,
+ * against H1, that it is <code>elo1</code>. Games are added one at a
+ * time, and the test ends as soon as the log-likelihood ratio crosses
+ * one of the bounds set by the error rates.
+ * <p>
+ * Game scores here aren't just wins, draws and losses, since a
+ * stalemate scores 3/4, so the likelihood uses the normal approximation
+ * with the mean and variance of the scores seen so far, which works for
+ * any mix of scores.
+ */
+class Sprt {
+    static final int CONTINUE = 0;
+    static final int ACCEPT_H0 = 1;
+    static final int ACCEPT_H1 = 2;
+
+    private final double elo0;
+    private final double elo1;
+    private final double lowerBound;
+    private final double upperBound;
+
+    private int games;
+    private double sum;
+    private double sumOfSquares;
+
+    /**
+     * @param elo0 Elo difference of H0, e.g. 0.
+     * @param elo1 Elo difference of H1, e.g. 5.
+     * @param alpha Chance of accepting H1 when H0 is true.
+     * @param beta Chance of accepting H0 when H1 is true.
+     */
+    Sprt(double elo0, double elo1, double alpha, double beta) {
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+        this.lowerBound = Math.log(beta / (1 - alpha));
+        this.upperBound = Math.log((1 - beta) / alpha);
+    }
+
+    /**
+     * @param score Score of one game for the engine under test, from 0
+     *              to 1.
+     */
+    void add(double score) {
+        games++;
+        sum += score;
+        sumOfSquares += score * score;
+    }
+
+    int getGames() {
+        return games;
+    }
+
+    /**
+     * @return Mean score of the engine under test.
+     */
+    double getScore() {
+        return games == 0 ? 0.5 : sum / games;
+    }
+
+    /**
+     * @return Elo difference that the mean score stands for.
+     */
+    double getElo() {
+        return toElo(getScore());
+    }
+
+    double getLowerBound() {
+        return lowerBound;
+    }
+
+    double getUpperBound() {
+        return upperBound;
+    }
+
+    /**
+     * @return Log-likelihood ratio of H1 against H0, 0 until the scores
+     * vary at all.
+     */
+    double getLlr() {
+        if(games == 0)
+            return 0;
+        double mean = sum / games;
+        double variance = sumOfSquares / games - mean * mean;
+        if(variance <= 0)
+            return 0;
+        double score0 = toScore(elo0);
+        double score1 = toScore(elo1);
+        return games * (score1 - score0) * (2 * mean - score0 - score1) / (2 * variance);
+    }
+
+    /**
+     * @return <code>CONTINUE</code>, or which hypothesis was accepted.
+     */
+    int getStatus() {
+        double llr = getLlr();
+        if(llr >= upperBound)
+            return ACCEPT_H1;
+        if(llr <= lowerBound)
+            return ACCEPT_H0;
+        return CONTINUE;
+    }
+
+    private static double toScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    private static double toElo(double score) {
+        if(score <= 0 || score >= 1)
+            return score <= 0 ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        return -400 * Math.log10(1 / score - 1);
+    }
+}
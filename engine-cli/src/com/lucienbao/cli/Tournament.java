@@ -0,0 +1,516 @@
+package com.lucienbao.cli;
+
+import com.lucienbao.board.GameRecord;
+import com.lucienbao.board.GameRecordWriter;
+import com.lucienbao.board.Hex;
+import com.lucienbao.board.Position;
+import com.lucienbao.engine.Search;
+import com.lucienbao.engine.SearchLimits;
+import com.lucienbao.engine.SearchResult;
+import com.lucienbao.engine.Tablebase;
+import com.lucienbao.engine.Tablebases;
+import com.lucienbao.engine.TranspositionTable;
+import com.lucienbao.utils.GameClock;
+import com.lucienbao.utils.MoveRules;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Plays two engine configurations against each other, one game per
+ * thread, until a sequential probability ratio test decides which is
+ * stronger or a number of games is reached.
+ * <p>
+ * Each opening is played twice, once with each engine as White. Every
+ * thread keeps its own searches and transposition tables from game to
+ * game; networks, tablebases and openings are read once and shared, as
+ * nothing changes them. Games end by the rules (mate, stalemate, the
+ * 50-move rule, threefold repetition, a fallen flag) or are adjudicated:
+ * by the tablebases, by both engines agreeing one side is winning for
+ * several moves, or as a draw when the score stays near 0 late in the
+ * game.
+ * <p>
+ * Usage: <code>Tournament --engine SETTINGS --engine SETTINGS [options]</code>,
+ * the first engine being the one tested, see <code>EngineConfig</code>
+ * for the settings. Options:
+ * <pre>
+ * --openings FILE       one opening per line, as moves from the start
+ * --tc SECONDS+INC      clock for each side, e.g. 10+0.1 (the default)
+ * --nodes N             nodes per move instead of a clock
+ * --depth N             depth per move instead of a clock
+ * --games N             most games to play (20000)
+ * --concurrency N       games at once (one per core)
+ * --sprt ELO0 ELO1      hypotheses of the test (0 5)
+ * --alpha A --beta B    error rates of the test (0.05 each)
+ * --tablebases DIR      tablebases to adjudicate with and search with
+ * --record FILE         write every game to FILE, see GameRecord
+ * </pre>
+ */
+public class Tournament {
+    // Plies after which a game is drawn however it stands
+    private static final int MAX_GAME_PLIES = 600;
+    // Both engines think the same side is this far ahead...
+    private static final int RESIGN_SCORE = 1000;
+    // ...for this many plies in a row
+    private static final int RESIGN_PLIES = 6;
+    // Scores this close to 0 for this many plies, after DRAW_MIN_PLY
+    private static final int DRAW_SCORE = 10;
+    private static final int DRAW_PLIES = 12;
+    private static final int DRAW_MIN_PLY = 80;
+    private static final int REPORT_EVERY = 10;
+
+    // GameRecord result by White's score in quarters
+    private static final int[] RECORD_RESULTS = {GameRecord.BLACK_WINS,
+            GameRecord.BLACK_STALEMATES, GameRecord.DRAW,
+            GameRecord.WHITE_STALEMATES, GameRecord.WHITE_WINS};
+
+    private final EngineConfig[] engines;
+    private final List<int[]> openings;
+    private final Tablebases tablebases;
+    private final long clockMillis;
+    private final long incrementMillis;
+    private final long nodes;
+    private final int depth;
+
+    // Each game thread's searches, kept from game to game
+    private final ThreadLocal<Player[]> players = new ThreadLocal<Player[]>() {
+        @Override
+        protected Player[] initialValue() {
+            Player[] result = new Player[engines.length];
+            for(int i = 0; i < engines.length; i++)
+                result[i] = new Player(engines[i], tablebases);
+            return result;
+        }
+    };
+
+    /**
+     * @param engines The engine tested and its opponent.
+     * @param openings Openings, as moves from the start position.
+     * @param tablebases Tablebases, or <code>null</code>.
+     * @param clockMillis Time for each side, or 0 for no clock.
+     * @param incrementMillis Time added per move.
+     * @param nodes Nodes per move, or 0.
+     * @param depth Depth per move, or 0.
+     */
+    Tournament(EngineConfig[] engines, List<int[]> openings, Tablebases tablebases,
+               long clockMillis, long incrementMillis, long nodes, int depth) {
+        this.engines = engines;
+        this.openings = openings;
+        this.tablebases = tablebases;
+        this.clockMillis = clockMillis;
+        this.incrementMillis = incrementMillis;
+        this.nodes = nodes;
+        this.depth = depth;
+    }
+
+    private static class Player {
+        final TranspositionTable table;
+        final Search search;
+
+        Player(EngineConfig config, Tablebases tablebases) {
+            this.table = config.newTable();
+            this.search = config.newSearch(table, tablebases);
+        }
+    }
+
+    /**
+     * How one game ended.
+     */
+    private static class Outcome {
+        // Score of the engine tested, from 0 to 1
+        final double score;
+        final String reason;
+        final int plies;
+        final long cpuNanos;
+        // Whole game, opening included, and its result as in GameRecord
+        final int[] moves;
+        final int result;
+
+        Outcome(double score, String reason, int plies, long cpuNanos,
+                int[] moves, int result) {
+            this.score = score;
+            this.reason = reason;
+            this.plies = plies;
+            this.cpuNanos = cpuNanos;
+            this.moves = moves;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Play one game.
+     * @param opening Moves to start with.
+     * @param testedColor Color of the engine tested.
+     * @return How it ended.
+     */
+    private Outcome play(int[] opening, int testedColor) {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        long cpuStart = threadBean.getCurrentThreadCpuTime();
+        Player[] byColor = new Player[2];
+        byColor[testedColor] = players.get()[0];
+        byColor[1 - testedColor] = players.get()[1];
+        // The other game of the pair mustn't learn from this one
+        byColor[Hex.WHITE].table.clear();
+        byColor[Hex.BLACK].table.clear();
+
+        Position pos = new Position();
+        for(int move : opening)
+            pos.makeMove(move);
+        GameClock clock = null;
+        if(clockMillis > 0) {
+            clock = new GameClock(clockMillis, incrementMillis, 0, 0, null);
+            clock.start(pos.getSideToMove());
+        }
+
+        int[] moves = new int[MoveRules.MAX_MOVES];
+        int[] cells = new int[Tablebase.MAX_PIECES];
+        long[] keys = new long[MAX_GAME_PLIES + 1];
+        int resignStreak = 0;
+        int drawStreak = 0;
+        double whiteScore;
+        String reason;
+        int ply = 0;
+        while(true) {
+            int side = pos.getSideToMove();
+            // Score for White of the side to move winning
+            double moverWins = side == Hex.WHITE ? 1 : 0;
+            keys[ply] = pos.getKey();
+
+            if(MoveRules.generateLegalMoves(pos, moves, 0) == 0) {
+                if(MoveRules.isInCheck(pos, side)) {
+                    whiteScore = 1 - moverWins;
+                    reason = "mate";
+                } else {
+                    whiteScore = side == Hex.WHITE ? 0.25 : 0.75;
+                    reason = "stalemate";
+                }
+                break;
+            }
+            if(pos.getHalfmoveClock() >= 100) {
+                whiteScore = 0.5;
+                reason = "50-move rule";
+                break;
+            }
+            if(repetitions(keys, ply, pos.getHalfmoveClock()) >= 3) {
+                whiteScore = 0.5;
+                reason = "repetition";
+                break;
+            }
+            if(tablebases != null) {
+                int result = tablebases.probe(pos, cells);
+                if(result != Tablebase.NOT_FOUND) {
+                    whiteScore = tablebaseScore(Tablebase.getResult(result), side);
+                    reason = "tablebase";
+                    break;
+                }
+            }
+            if(ply == MAX_GAME_PLIES) {
+                whiteScore = 0.5;
+                reason = "game length";
+                break;
+            }
+
+            long clockLeft = clock != null ? Math.max(1, clock.getRemainingMillis(side)) : 0;
+            SearchResult result = byColor[side].search.search(pos,
+                    new SearchLimits(depth, 0, nodes, clockLeft, incrementMillis));
+            if(clock != null && !clock.press()) {
+                whiteScore = 1 - moverWins;
+                reason = "time";
+                break;
+            }
+
+            int score = side == Hex.WHITE ? result.getScore() : -result.getScore();
+            resignStreak = score >= RESIGN_SCORE
+                    ? Math.max(resignStreak, 0) + 1
+                    : score <= -RESIGN_SCORE ? Math.min(resignStreak, 0) - 1 : 0;
+            drawStreak = Math.abs(score) <= DRAW_SCORE ? drawStreak + 1 : 0;
+            if(Math.abs(resignStreak) >= RESIGN_PLIES) {
+                whiteScore = resignStreak > 0 ? 1 : 0;
+                reason = "score";
+                break;
+            }
+            if(drawStreak >= DRAW_PLIES && ply >= DRAW_MIN_PLY) {
+                whiteScore = 0.5;
+                reason = "score";
+                break;
+            }
+
+            // A search stopped inside its first move has none, so play the
+            // first legal one rather than corrupt the game
+            int move = result.getBestMove();
+            pos.makeMove(move != MoveRules.NO_MOVE ? move : moves[0]);
+            ply++;
+        }
+
+        int[] gameMoves = new int[pos.getPly()];
+        for(int i = 0; i < gameMoves.length; i++)
+            gameMoves[i] = pos.getMove(i);
+        double score = testedColor == Hex.WHITE ? whiteScore : 1 - whiteScore;
+        return new Outcome(score, reason, ply,
+                threadBean.getCurrentThreadCpuTime() - cpuStart,
+                gameMoves, RECORD_RESULTS[(int) Math.round(whiteScore * 4)]);
+    }
+
+    // How often the position at ply has occurred since the last
+    // irreversible move, counting itself
+    private static int repetitions(long[] keys, int ply, int halfmoveClock) {
+        int count = 1;
+        for(int i = ply - 2; i >= 0 && i >= ply - halfmoveClock; i -= 2)
+            if(keys[i] == keys[ply])
+                count++;
+        return count;
+    }
+
+    private static double tablebaseScore(int result, int side) {
+        double moverScore;
+        switch(result) {
+            case Tablebase.WIN:
+                moverScore = 1;
+                break;
+            case Tablebase.STALEMATE_WIN:
+                moverScore = 0.75;
+                break;
+            case Tablebase.STALEMATE_LOSS:
+                moverScore = 0.25;
+                break;
+            case Tablebase.LOSS:
+                moverScore = 0;
+                break;
+            default:
+                moverScore = 0.5;
+                break;
+        }
+        return side == Hex.WHITE ? moverScore : 1 - moverScore;
+    }
+
+    /**
+     * Play games until the test decides or <code>maxGames</code> have
+     * been played, printing progress as they finish.
+     * @param sprt Test to feed the results to.
+     * @param maxGames Most games to play.
+     * @param concurrency Number of games to play at once.
+     * @param record Where to write the games, or <code>null</code>.
+     */
+    void run(Sprt sprt, int maxGames, int concurrency, GameRecordWriter record)
+            throws InterruptedException, ExecutionException, IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "game");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        CompletionService<Outcome> games = new ExecutorCompletionService<>(pool);
+
+        long start = System.nanoTime();
+        int started = 0;
+        for(; started < Math.min(concurrency, maxGames); started++)
+            submit(games, started);
+
+        Map<String, Integer> reasons = new TreeMap<>();
+        // Games won, stalemate won, drawn, stalemate lost and lost by the
+        // engine tested
+        int[] tally = new int[5];
+        long cpuNanos = 0;
+        long plies = 0;
+        int status = Sprt.CONTINUE;
+        while(sprt.getGames() < started) {
+            Outcome outcome = games.take().get();
+            if(record != null)
+                record.write(outcome.moves, outcome.moves.length, outcome.result);
+            sprt.add(outcome.score);
+            tally[4 - (int) Math.round(outcome.score * 4)]++;
+            Integer count = reasons.get(outcome.reason);
+            reasons.put(outcome.reason, count == null ? 1 : count + 1);
+            cpuNanos += outcome.cpuNanos;
+            plies += outcome.plies;
+
+            status = sprt.getStatus();
+            if(status == Sprt.CONTINUE && started < maxGames)
+                submit(games, started++);
+            if(sprt.getGames() % REPORT_EVERY == 0 || status != Sprt.CONTINUE)
+                report(sprt, start);
+            // Games still being played can't change the decision
+            if(status != Sprt.CONTINUE)
+                break;
+        }
+        pool.shutdownNow();
+
+        int played = sprt.getGames();
+        double hours = (System.nanoTime() - start) / 3.6e12;
+        System.out.println();
+        System.out.printf("%s vs %s: +%d (+%d stalemate) =%d -%d (-%d stalemate)%n",
+                engines[0].name, engines[1].name,
+                tally[0], tally[1], tally[2], tally[4], tally[3]);
+        System.out.println("Endings: " + reasons);
+        System.out.println(status == Sprt.ACCEPT_H1 ? "H1 accepted"
+                : status == Sprt.ACCEPT_H0 ? "H0 accepted" : "No decision");
+        System.out.printf("%.0f games/hour, %.2f CPU seconds and %d plies per game%n",
+                played / hours, cpuNanos / 1e9 / played, plies / played);
+    }
+
+    private void submit(CompletionService<Outcome> games, int game) {
+        // Games 2n and 2n + 1 play the same opening with colors swapped
+        final int[] opening = openings.get(game / 2 % openings.size());
+        final int testedColor = game % 2 == 0 ? Hex.WHITE : Hex.BLACK;
+        games.submit(new Callable<Outcome>() {
+            @Override
+            public Outcome call() {
+                return play(opening, testedColor);
+            }
+        });
+    }
+
+    private static void report(Sprt sprt, long start) {
+        double hours = (System.nanoTime() - start) / 3.6e12;
+        System.out.printf("%d games, score %.1f%% (%+.1f Elo), LLR %.2f [%.2f, %.2f], %.0f games/hour%n",
+                sprt.getGames(), 100 * sprt.getScore(), sprt.getElo(), sprt.getLlr(),
+                sprt.getLowerBound(), sprt.getUpperBound(), sprt.getGames() / hours);
+    }
+
+    /**
+     * Read openings, one per line as moves from the start position like
+     * <code>f5f6 f7f5</code>. Blank lines and lines starting with # are
+     * skipped.
+     * @throws IOException If the file can't be read or has an illegal
+     * move.
+     */
+    static List<int[]> readOpenings(File file) throws IOException {
+        List<int[]> openings = new ArrayList<>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "US-ASCII"));
+        try {
+            int[] moves = new int[MoveRules.MAX_MOVES];
+            String line;
+            while((line = in.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] words = line.split("\\s+");
+                Position pos = new Position();
+                int[] opening = new int[words.length];
+                for(int i = 0; i < words.length; i++) {
+                    opening[i] = MoveRules.parseMove(pos, words[i], moves);
+                    if(opening[i] == MoveRules.NO_MOVE)
+                        throw new IOException("Illegal move " + words[i] + " in opening: " + line);
+                    pos.makeMove(opening[i]);
+                }
+                openings.add(opening);
+            }
+        } finally {
+            in.close();
+        }
+        return openings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<EngineConfig> engines = new ArrayList<>();
+        File openingFile = null;
+        File tablebaseDir = null;
+        File recordFile = null;
+        long clockMillis = 10000;
+        long incrementMillis = 100;
+        long nodes = 0;
+        int depth = 0;
+        int maxGames = 20000;
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        double elo0 = 0;
+        double elo1 = 5;
+        double alpha = 0.05;
+        double beta = 0.05;
+        for(int i = 0; i < args.length; i++) {
+            switch(args[i]) {
+                case "--engine":
+                    engines.add(EngineConfig.parse(args[++i]));
+                    break;
+                case "--openings":
+                    openingFile = new File(args[++i]);
+                    break;
+                case "--tc":
+                    String[] parts = args[++i].split("\\+");
+                    clockMillis = Math.round(Double.parseDouble(parts[0]) * 1000);
+                    incrementMillis = parts.length > 1
+                            ? Math.round(Double.parseDouble(parts[1]) * 1000) : 0;
+                    break;
+                case "--nodes":
+                    nodes = Long.parseLong(args[++i]);
+                    clockMillis = 0;
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(args[++i]);
+                    clockMillis = 0;
+                    break;
+                case "--games":
+                    maxGames = Integer.parseInt(args[++i]);
+                    break;
+                case "--concurrency":
+                    concurrency = Integer.parseInt(args[++i]);
+                    break;
+                case "--sprt":
+                    elo0 = Double.parseDouble(args[++i]);
+                    elo1 = Double.parseDouble(args[++i]);
+                    break;
+                case "--alpha":
+                    alpha = Double.parseDouble(args[++i]);
+                    break;
+                case "--beta":
+                    beta = Double.parseDouble(args[++i]);
+                    break;
+                case "--tablebases":
+                    tablebaseDir = new File(args[++i]);
+                    break;
+                case "--record":
+                    recordFile = new File(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if(engines.size() != 2) {
+            System.err.println("Usage: Tournament --engine SETTINGS --engine SETTINGS [options]");
+            System.exit(1);
+        }
+
+        List<int[]> openings;
+        if(openingFile != null) {
+            openings = readOpenings(openingFile);
+        } else {
+            System.err.println("No openings given; every game starts from the start position");
+            openings = new ArrayList<>();
+        }
+        if(openings.isEmpty())
+            openings.add(new int[0]);
+        Tablebases tablebases = tablebaseDir != null ? Tablebases.open(tablebaseDir) : null;
+
+        Tournament tournament = new Tournament(
+                engines.toArray(new EngineConfig[engines.size()]), openings, tablebases,
+                clockMillis, incrementMillis, nodes, depth);
+        GameRecordWriter record = recordFile != null
+                ? new GameRecordWriter(new FileOutputStream(recordFile).getChannel(), true)
+                : null;
+        try {
+            tournament.run(new Sprt(elo0, elo1, alpha, beta), maxGames, concurrency, record);
+        } finally {
+            if(record != null)
+                record.close();
+        }
+    }
+}